@@ -1,5 +1,7 @@
 package gov.wisconsin.cares.lambda;
 
+import gov.wisconsin.cares.util.EnvUtils;
+
 import java.util.Properties;
 
 import javax.mail.Address;
@@ -28,11 +30,18 @@ public class EmailManager {
 	public static void sendFailureNotificationEmail(String env) {
 		
 		messageBody = messageBody.replace("~", env);
-		final String HOST           = System.getenv("smtpHost");
-		final String SMTP_USERNAME  = System.getenv("smtpUsername");
-		final String SMTP_PASSWORD  = System.getenv("smtpPassword");
-		final String FROM_ADDRESS   = System.getenv("smtpFromEmailAdr");
-		final String[] TO_ADDRESSES = System.getenv("smtpToEmailAdr").split(",");
+		final String HOST           = EnvUtils.getString("smtpHost", null);
+		final String SMTP_USERNAME  = EnvUtils.getString("smtpUsername", null);
+		final String SMTP_PASSWORD  = EnvUtils.getString("smtpPassword", null);
+		final String FROM_ADDRESS   = EnvUtils.getString("smtpFromEmailAdr", null);
+		final String TO_ADDRESS_LIST = EnvUtils.getString("smtpToEmailAdr", null);
+		
+		// Nothing to send to, E.G. when the function is run locally
+		if(TO_ADDRESS_LIST == null) {
+			System.out.println("\n Environment variable 'smtpToEmailAdr' is not set, failure email notification not sent.");
+			return;
+		}
+		final String[] TO_ADDRESSES = TO_ADDRESS_LIST.split(",");
 		
 		// Create a Properties object to contain connection configuration information.
     	Properties props = System.getProperties();
@@ -63,7 +72,7 @@ public class EmailManager {
 	        MimeMessage msg = new MimeMessage(session);
 	        msg.setFrom(new InternetAddress(FROM_ADDRESS));
 	        msg.addRecipients(Message.RecipientType.TO, toAdrAry);
-	        msg.setSubject(System.getenv("ENV") + " AWS-Salesforce Event Logs Notification");
+	        msg.setSubject(EnvUtils.getString("ENV", null) + " AWS-Salesforce Event Logs Notification");
 	        msg.setContent(messageBody,"text/html");
 	           
 	        // Create a transport.
@@ -0,0 +1,67 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.SFQueryResult;
+
+import java.util.Iterator;
+
+/**
+ * Reads the result of an event log file query one page at a time.
+ * The next page is only requested from Salesforce when all the files in the current page have been read,
+ * so only one page of records is kept in memory regardless of how many event log files the query matches.
+ * @author andersx
+ *
+ */
+public class EventLogFileCursor implements EventLogFileSource {
+
+	private SalesforceBO sfBO;
+	private SFQueryResult page;
+	private Iterator<SFEventLogFile> records;
+	private int pageCount = 1;
+	private long queryMillis = 0;
+
+	public EventLogFileCursor(SalesforceBO sfBO, SFQueryResult firstPage) {
+		this.sfBO = sfBO;
+		this.page = firstPage;
+		this.records = firstPage.getRecords().iterator();
+	}
+
+	/**
+	 * @return Total number of event log files matching the query, across all pages.
+	 */
+	public int getTotalSize() {
+		return page.getTotalSize();
+	}
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * @return Milliseconds spent requesting the pages after the first page.
+	 */
+	public long getQueryMillis() {
+		return queryMillis;
+	}
+
+	@Override
+	public boolean hasNext() throws Exception {
+		while(!records.hasNext() && !page.isDone() && page.getNextRecordsUrl() != null) {
+			long start = System.currentTimeMillis();
+			page = sfBO.getLogFilesPage(page.getNextRecordsUrl());
+			queryMillis += System.currentTimeMillis() - start;
+			records = page.getRecords().iterator();
+			pageCount++;
+		}
+		return records.hasNext();
+	}
+
+	@Override
+	public SFEventLogFile next() throws Exception {
+		if(!this.hasNext()) {
+			throw new Exception("No more event log files in query result, "
+					+ EventLogFileCursor.class.getName() + "::next");
+		}
+		return records.next();
+	}
+}
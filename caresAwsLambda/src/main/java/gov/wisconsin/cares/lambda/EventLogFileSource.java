@@ -0,0 +1,38 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A source of event log files to transfer. Unlike a plain Iterator, 
+ * reading the next file may call Salesforce and is allowed to throw.
+ * @author andersx
+ *
+ */
+public interface EventLogFileSource {
+
+	boolean hasNext() throws Exception;
+
+	SFEventLogFile next() throws Exception;
+
+	/**
+	 * @param eventLogsList
+	 * @return A source reading the event log files from the passed in list.
+	 */
+	static EventLogFileSource of(List<SFEventLogFile> eventLogsList) {
+		Iterator<SFEventLogFile> iterator = eventLogsList.iterator();
+		return new EventLogFileSource() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public SFEventLogFile next() {
+				return iterator.next();
+			}
+		};
+	}
+}
@@ -0,0 +1,234 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.CsvTokenizer;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+
+/**
+ * Converts a .csv event log file to a Parquet file while it is streamed from Salesforce.
+ * The schema is built per EventType from the LogFileFieldNames and LogFileFieldTypes Salesforce returns with the file:
+ * Number fields are stored as doubles, Boolean fields as booleans, DateTime fields as timestamps and everything else as strings.
+ * Rows are buffered in memory only until a row group of 'parquetRowGroupSizeMB' (default 32) is full,
+ * so memory use does not grow with the size of the file.
+ * @author andersx
+ *
+ */
+public class EventLogParquetWriter {
+
+	private static final int MB = 1024 * 1024;
+
+	private EventLogParquetWriter() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * Read the .csv event log file from the InputStream and write it as Parquet to the OutputStream.
+	 * The OutputStream is closed when the Parquet file is complete, but is left open if the conversion fails
+	 * so the caller can abort the upload instead of storing an incomplete file.
+	 * @param eventLog
+	 * @param in
+	 * @param out
+	 * @return Number of rows written.
+	 * @throws Exception
+	 */
+	public static long write(SFEventLogFile eventLog, InputStream in, OutputStream out) throws Exception {
+		long rows = 0;
+		try (InputStream csvIn = in) {
+
+			CsvTokenizer csv = new CsvTokenizer(csvIn);
+			String[] header = csv.nextRecord() ? getValues(csv) : new String[0];
+			MessageType schema = buildSchema(eventLog, header);
+			FieldType[] types = getFieldTypes(eventLog, header);
+			SimpleGroupFactory groupFactory = new SimpleGroupFactory(schema);
+
+			// The writer is only closed when all rows are written, closing it completes the file in S3
+			ParquetWriter<Group> writer = ExampleParquetWriter.builder(new StreamOutputFile(out))
+					.withType(schema)
+					.withConf(new Configuration(false))
+					.withCompressionCodec(CompressionCodecName.valueOf(EnvUtils.getString("parquetCompression", "SNAPPY").toUpperCase()))
+					.withRowGroupSize((long) EnvUtils.getInt("parquetRowGroupSizeMB", 32) * MB)
+					.build();
+
+			while(csv.nextRecord()) {
+				if(csv.getFieldCount() == 1 && csv.getFieldEnd(0) == csv.getFieldStart(0)) continue;
+				Group group = groupFactory.newGroup();
+				for(int i = 0; i < header.length && i < csv.getFieldCount(); i++) {
+					addValue(group, i, types[i], csv.getValue(i));
+				}
+				writer.write(group);
+				rows++;
+			}
+			writer.close();
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error: Unable to convert event log file to Parquet after " + rows + " rows. Event log file::" + eventLog.getId() + ", "
+	    			+ EventLogParquetWriter.class.getName() + "::write");
+	    	throw ex;
+		}
+		return rows;
+	}
+
+	/**
+	 * @return The values of all the fields of the record.
+	 */
+	private static String[] getValues(CsvTokenizer record) {
+		String[] values = new String[record.getFieldCount()];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = record.getValue(i);
+		}
+		return values;
+	}
+
+	/**
+	 * Build the Parquet schema for the event log file. All fields are optional, since any value may be blank.
+	 * @param eventLog
+	 * @param header Field names from the first line of the .csv file.
+	 * @return The schema.
+	 */
+	static MessageType buildSchema(SFEventLogFile eventLog, String[] header) {
+		FieldType[] types = getFieldTypes(eventLog, header);
+		Types.MessageTypeBuilder builder = Types.buildMessage();
+		for(int i = 0; i < header.length; i++) {
+			switch(types[i]) {
+				case NUMBER:
+					builder.optional(PrimitiveTypeName.DOUBLE).named(header[i]);
+					break;
+				case BOOLEAN:
+					builder.optional(PrimitiveTypeName.BOOLEAN).named(header[i]);
+					break;
+				case DATETIME:
+					builder.optional(PrimitiveTypeName.INT64)
+						.as(LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MILLIS)).named(header[i]);
+					break;
+				default:
+					builder.optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(header[i]);
+			}
+		}
+		return builder.named(eventLog.getEventType() != null ? eventLog.getEventType() : "EventLogFile");
+	}
+
+	enum FieldType { STRING, NUMBER, BOOLEAN, DATETIME }
+
+	/**
+	 * Match the .csv header with LogFileFieldNames to find the Salesforce type of each field.
+	 * Fields that are not listed by Salesforce are treated as strings.
+	 */
+	static FieldType[] getFieldTypes(SFEventLogFile eventLog, String[] header) {
+		FieldType[] types = new FieldType[header.length];
+		String[] names = eventLog.getLogFileFieldNames() != null ? eventLog.getLogFileFieldNames().split(",") : new String[0];
+		String[] sfTypes = eventLog.getLogFileFieldTypes() != null ? eventLog.getLogFileFieldTypes().split(",") : new String[0];
+		for(int i = 0; i < header.length; i++) {
+			types[i] = FieldType.STRING;
+			for(int j = 0; j < names.length && j < sfTypes.length; j++) {
+				if(names[j].trim().equals(header[i])) {
+					String sfType = sfTypes[j].trim();
+					if(sfType.equalsIgnoreCase("Number")) {
+						types[i] = FieldType.NUMBER;
+					}else if(sfType.equalsIgnoreCase("Boolean")) {
+						types[i] = FieldType.BOOLEAN;
+					}else if(sfType.equalsIgnoreCase("DateTime")) {
+						types[i] = FieldType.DATETIME;
+					}
+					break;
+				}
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * Add the value to the row. Blank values, and values that don't match the field type, are left out and read as null.
+	 */
+	private static void addValue(Group group, int index, FieldType type, String value) {
+		if(value == null || value.isEmpty()) return;
+		try {
+			switch(type) {
+				case NUMBER:
+					group.add(index, Double.parseDouble(value));
+					break;
+				case BOOLEAN:
+					group.add(index, value.equalsIgnoreCase("true") || value.equals("1"));
+					break;
+				case DATETIME:
+					group.add(index, Instant.parse(value).toEpochMilli());
+					break;
+				default:
+					group.add(index, value);
+			}
+		}catch(RuntimeException e) {
+			// Leave the value out
+		}
+	}
+
+	/**
+	 * Parquet OutputFile that writes to a stream, keeping track of the position Parquet needs for its footer.
+	 */
+	private static class StreamOutputFile implements OutputFile {
+
+		private OutputStream out;
+
+		StreamOutputFile(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public PositionOutputStream create(long blockSizeHint) {
+			return new PositionOutputStream() {
+				private long position = 0;
+
+				@Override
+				public long getPos() {
+					return position;
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					position++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					position += len;
+				}
+
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+			};
+		}
+
+		@Override
+		public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+			return this.create(blockSizeHint);
+		}
+
+		@Override
+		public boolean supportsBlockSize() {
+			return false;
+		}
+
+		@Override
+		public long defaultBlockSize() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.WorkItem;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Work queue kept in memory, to run the coordinator and the workers in a single JVM when testing locally.
+ * The items are copied through JSON like they would be through SQS, so a worker never shares objects with the coordinator.
+ * @author andersx
+ *
+ */
+public class InMemoryWorkQueue implements WorkQueue {
+
+	private BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+	@Override
+	public void send(WorkItem item) throws Exception {
+		messages.add(LambdaResources.getObjectMapper().writeValueAsString(item));
+	}
+
+	/**
+	 * @return The next work item, or null if the queue is empty.
+	 * @throws Exception
+	 */
+	public WorkItem poll() throws Exception {
+		String message = messages.poll();
+		return message != null ? LambdaResources.getObjectMapper().readValue(message, WorkItem.class) : null;
+	}
+
+	public int size() {
+		return messages.size();
+	}
+}
@@ -0,0 +1,120 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.IngestedLogFile;
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Record of the event log files that have already been stored in S3, keyed by the EventLogFile Id.
+ * The manifest is stored as JSON next to the water-mark file, so a file is only downloaded again
+ * if Salesforce has changed it (its LogFileLength or LastModifiedDate is different).
+ * Files can be marked as ingested from several transfer threads at the same time.
+ * @author andersx
+ *
+ */
+public class IngestionManifest {
+
+	private static final TypeReference<Map<String, IngestedLogFile>> ENTRIES_TYPE = new TypeReference<Map<String, IngestedLogFile>>() {};
+
+	private String bucket;
+	private String key;
+	private Map<String, IngestedLogFile> entries = new ConcurrentHashMap<>();
+
+	private IngestionManifest(String bucket, String key) {
+		this.bucket = bucket;
+		this.key = key;
+	}
+
+	/**
+	 * Read the manifest from S3. If the manifest file does not exist, an empty manifest is returned.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @return The manifest.
+	 * @throws Exception
+	 */
+	public static IngestionManifest load(AmazonS3 s3Client, String bucket, String key) throws Exception {
+		IngestionManifest manifest = new IngestionManifest(bucket, key);
+		try {
+			if(s3Client.doesObjectExist(bucket, key)) {
+				S3Object s3Object = s3Client.getObject(bucket, key);
+				try (InputStream in = s3Object.getObjectContent()) {
+					Map<String, IngestedLogFile> entries = LambdaResources.getObjectMapper().readValue(in, ENTRIES_TYPE);
+					if(entries != null) manifest.entries.putAll(entries);
+				}
+			}
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error reading ingestion manifest file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ IngestionManifest.class.getName() + "::load");
+	    	throw ex;
+		}
+		return manifest;
+	}
+
+	/**
+	 * Write the manifest to S3.
+	 * @param s3Client
+	 * @throws Exception
+	 */
+	public void save(AmazonS3 s3Client) throws Exception {
+		try {
+			s3Client.putObject(bucket, key, LambdaResources.getObjectMapper().writeValueAsString(entries));
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error writing ingestion manifest file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ IngestionManifest.class.getName() + "::save");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * @param eventLog
+	 * @return True if this version of the event log file has already been stored in S3.
+	 */
+	public boolean isIngested(SFEventLogFile eventLog) {
+		IngestedLogFile entry = entries.get(eventLog.getId());
+		return entry != null && entry.matches(eventLog);
+	}
+
+	public void markIngested(SFEventLogFile eventLog) {
+		entries.put(eventLog.getId(), new IngestedLogFile(eventLog));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The latest LogDate of all the ingested event log files as a SOQL date-time, or null if the manifest is empty.
+	 */
+	public String getHighWaterMark() {
+		String highWaterMark = null;
+		for(IngestedLogFile entry: entries.values()) {
+			String logDate = SalesforceBO.toSoqlDateTime(entry.getLogDate());
+			if(logDate != null && (highWaterMark == null || logDate.compareTo(highWaterMark) > 0)) {
+				highWaterMark = logDate;
+			}
+		}
+		return highWaterMark;
+	}
+
+	/**
+	 * Remove the entries for files with a LogDate before the water-mark.
+	 * These files will not be returned by the query again, so we don't need to remember them.
+	 * @param wtrMrkTimestampStr
+	 */
+	public void prune(String wtrMrkTimestampStr) {
+		entries.values().removeIf(entry -> {
+			String logDate = SalesforceBO.toSoqlDateTime(entry.getLogDate());
+			return logDate != null && logDate.compareTo(wtrMrkTimestampStr) < 0;
+		});
+	}
+}
@@ -0,0 +1,157 @@
+package gov.wisconsin.cares.lambda;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Holds the expensive resources that can be reused between invocations of the Lambda function
+ * while the container stays warm: the S3 and SQS clients, the pooled Salesforce http client and the Jackson ObjectMapper.
+ * Each resource is created the first time it is needed. If a run fails, call invalidate()
+ * and the resources will be rebuilt by the next invocation.
+ * The time it took to create a resource is remembered, so we can report how much setup time each warm invocation saved.
+ * Each resource counts once per invocation, however many times it is used, and not at all in the invocation that created it.
+ * @author andersx
+ *
+ */
+public class LambdaResources {
+
+	private static final long IDLE_CONNECTION_SECONDS = 30;
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private static AmazonS3 s3Client;
+	private static AmazonSQS sqsClient;
+	private static CloseableHttpClient httpClient;
+	private static PoolingHttpClientConnectionManager connectionManager;
+	private static int maxConnections;
+	private static long s3SetupMillis;
+	private static long httpSetupMillis;
+	private static int s3Invocation;
+	private static int httpInvocation;
+	private static long savedSetupMillis;
+	private static int invocationCount;
+
+	private LambdaResources() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * Start a new invocation, this resets the saved setup time reported by getSavedSetupMillis().
+	 * @return Number of invocations handled by this container, including this one.
+	 */
+	public static synchronized int startInvocation() {
+		savedSetupMillis = 0;
+		return ++invocationCount;
+	}
+
+	/**
+	 * @return Setup time in milliseconds saved in the current invocation by reusing resources created by earlier invocations.
+	 */
+	public static synchronized long getSavedSetupMillis() {
+		return savedSetupMillis;
+	}
+
+	public static ObjectMapper getObjectMapper() {
+		return OBJECT_MAPPER;
+	}
+
+	/**
+	 * @return The S3 client, created on first use.
+	 */
+	public static synchronized AmazonS3 getS3Client() {
+		if(s3Client == null) {
+			long start = System.currentTimeMillis();
+			s3Client = AmazonS3ClientBuilder.standard()
+					.withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+					.build();
+			s3SetupMillis = System.currentTimeMillis() - start;
+		}else if(s3Invocation != invocationCount) {
+			savedSetupMillis += s3SetupMillis;
+		}
+		s3Invocation = invocationCount;
+		return s3Client;
+	}
+
+	/**
+	 * Use the passed in S3 client instead of creating one, E.G. an in-memory stand-in when the function is load tested locally.
+	 * @param client
+	 */
+	public static synchronized void setS3Client(AmazonS3 client) {
+		s3Client = client;
+		s3SetupMillis = 0;
+		s3Invocation = invocationCount;
+	}
+
+	/**
+	 * @return The SQS client used by the fan-out coordinator to send work items, created on first use.
+	 */
+	public static synchronized AmazonSQS getSqsClient() {
+		if(sqsClient == null) {
+			sqsClient = AmazonSQSClientBuilder.standard()
+					.withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+					.build();
+		}
+		return sqsClient;
+	}
+
+	/**
+	 * Get the pooled http client used for the Salesforce api calls. Before a warm client is reused,
+	 * expired and idle connections are evicted so a stale connection is not handed to a transfer.
+	 * @param connections Number of connections needed, the pool is rebuilt if it is too small.
+	 * @return The http client, created on first use.
+	 */
+	public static synchronized CloseableHttpClient getHttpClient(int connections) {
+		if(httpClient != null && connections <= maxConnections) {
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+			if(httpInvocation != invocationCount) savedSetupMillis += httpSetupMillis;
+		}else {
+			closeHttpClient();
+			long start = System.currentTimeMillis();
+			maxConnections = connections;
+			connectionManager = new PoolingHttpClientConnectionManager();
+			connectionManager.setMaxTotal(connections);
+			connectionManager.setDefaultMaxPerRoute(connections);
+			httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+			httpSetupMillis = System.currentTimeMillis() - start;
+		}
+		httpInvocation = invocationCount;
+		return httpClient;
+	}
+
+	/**
+	 * Drop all the resources, so the next invocation will create new ones. Used after a failed run,
+	 * since we can not tell if the failure left a client in a bad state.
+	 */
+	public static synchronized void invalidate() {
+		if(s3Client != null) {
+			s3Client.shutdown();
+			s3Client = null;
+		}
+		if(sqsClient != null) {
+			sqsClient.shutdown();
+			sqsClient = null;
+		}
+		closeHttpClient();
+	}
+
+	private static void closeHttpClient() {
+		if(httpClient != null) {
+			try {
+				httpClient.close();
+			}catch(Exception e) {
+				System.out.println("\n Error: Unable to close http client, " + e.getMessage());
+			}
+			httpClient = null;
+			connectionManager = null;
+			maxConnections = 0;
+		}
+	}
+}
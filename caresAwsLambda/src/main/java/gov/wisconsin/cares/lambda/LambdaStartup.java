@@ -0,0 +1,141 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFaccessToken;
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.util.CsvProjectionInputStream;
+import gov.wisconsin.cares.util.CsvStageInputStream;
+import gov.wisconsin.cares.util.CsvTokenizer;
+import gov.wisconsin.cares.util.EnvUtils;
+import gov.wisconsin.cares.util.JWTUtils;
+import gov.wisconsin.cares.util.ResumableInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The one-time startup work of the function, done while Lambda initializes the container instead of in the first invocation.
+ * The handlers call prime() when their class is loaded, which loads the classes of a run, warms up the Jackson mappers,
+ * parses the JWT signing key and signs a token, and builds the http and S3 clients. Lambda gives the init phase
+ * a full CPU, and snapshot-restore runtimes, E.G. Lambda SnapStart, take the snapshot after it, so restored containers
+ * start primed. Nothing primed holds a connection, a token or per-container state, so one snapshot can be restored many times.
+ * <p>
+ * Set 'primeOnInit' to false to leave the work to the first invocation. A step that fails is logged and
+ * done again by the first invocation, which reports the error as usual.
+ * @author andersx
+ *
+ */
+public class LambdaStartup {
+
+	private static final String PRIME_QUERY_JSON = "{\"totalSize\":1,\"done\":true,\"records\":[{\"attributes\":{\"type\":\"EventLogFile\"},"
+			+ "\"Id\":\"0AT000000000001\",\"EventType\":\"API\",\"LogDate\":\"2020-06-29T00:00:00.000+0000\",\"LogFileLength\":1024.0,"
+			+ "\"LastModifiedDate\":\"2020-06-30T02:00:00.000+0000\",\"Interval\":\"Daily\",\"Sequence\":1,"
+			+ "\"LogFile\":\"/services/data/v48.0/sobjects/EventLogFile/0AT000000000001/LogFile\"}]}";
+	private static final String PRIME_TOKEN_JSON = "{\"access_token\":\"prime\",\"instance_url\":\"https://localhost\",\"token_type\":\"Bearer\"}";
+	private static final String PRIME_CSV = "\"EVENT_TYPE\",\"TIMESTAMP\",\"USER_ID\"\n\"API\",\"20200629000000.000\",\"005000000000001\"\n";
+
+	/*** Classes used by every run, loaded and initialized up front ***/
+	private static final Class<?>[] RUN_CLASSES = {
+			SalesforceBO.class, SFApiController.class, SFTokenManager.class, LogFileTransferEngine.class, TransferScheduler.class,
+			TransferSummary.class, IngestionManifest.class, RunMetrics.class, S3LogFileMetadata.class, S3MultipartOutputStream.class,
+			EmailManager.class, ResumableInputStream.class, CsvTokenizer.class, CsvStageInputStream.class, CsvProjectionInputStream.class
+	};
+
+	private static boolean primed = false;
+	private static boolean reported = false;
+	private static long initMillis = -1;
+	private static Map<String, Long> stepMillis = new LinkedHashMap<>();
+
+	private LambdaStartup() { /* Prevent class from being instantiated */ }
+
+	/*** A step of the startup work ***/
+	private interface Step {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Do the startup work, unless it is already done or 'primeOnInit' is false.
+	 */
+	public static synchronized void prime() {
+		if(primed || !EnvUtils.getBoolean("primeOnInit", true)) {
+			return;
+		}
+		primed = true;
+		long start = System.currentTimeMillis();
+		step("Classes", LambdaStartup::loadRunClasses);
+		step("Json", LambdaStartup::warmUpJson);
+		if(EnvUtils.getString("jwtSigningKey", null) != null) {
+			step("JwtKey", () -> {
+				JWTUtils.init();
+				JWTUtils.generateSalesforceJWT(JWTUtils.getServiceAccountUser());
+			});
+		}
+		step("HttpClient", () -> LambdaResources.getHttpClient(SFEventLogsHandler.getTransferConcurrency() + 2));
+		step("S3Client", LambdaResources::getS3Client);
+		if(EnvUtils.getString("workQueueUrl", null) != null) {
+			step("SqsClient", LambdaResources::getSqsClient);
+		}
+		initMillis = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Log the time spent on the startup work, once per container.
+	 * @param logger
+	 * @return Milliseconds spent priming, or -1 if it was already reported or the startup work was not done.
+	 */
+	public static synchronized long report(LambdaLogger logger) {
+		if(reported || initMillis < 0) {
+			return -1;
+		}
+		reported = true;
+		logger.log("\n Init phase primed the function in " + initMillis + " ms, steps in ms: " + stepMillis);
+		return initMillis;
+	}
+
+	/**
+	 * @return Milliseconds spent priming, or -1 if the startup work was not done.
+	 */
+	public static synchronized long getInitMillis() {
+		return initMillis;
+	}
+
+	private static void step(String name, Step step) {
+		long start = System.currentTimeMillis();
+		try {
+			step.run();
+			stepMillis.put(name, System.currentTimeMillis() - start);
+		}catch(Throwable e) {
+			System.out.println("\n Error: Unable to prime " + name + " while initializing, it will be done by the first invocation. " + e.getMessage());
+		}
+	}
+
+	private static void loadRunClasses() throws Exception {
+		ClassLoader loader = LambdaStartup.class.getClassLoader();
+		for(Class<?> runClass: RUN_CLASSES) {
+			Class.forName(runClass.getName(), true, loader);
+		}
+		if(SFEventLogsHandler.getOutputFormat() != SFEventLogsHandler.OutputFormat.CSV) {
+			Class.forName(EventLogParquetWriter.class.getName(), true, loader);
+		}
+		S3LogFileMetadata.newDigest();
+	}
+
+	/**
+	 * Run the JSON and CSV parsing of a run once on small samples, so Jackson builds its serializers for the classes.
+	 */
+	private static void warmUpJson() throws Exception {
+		ObjectMapper mapper = LambdaResources.getObjectMapper();
+		SalesforceBO.parseEventLogFilesJson(new ByteArrayInputStream(PRIME_QUERY_JSON.getBytes(StandardCharsets.UTF_8)));
+		mapper.readValue(PRIME_TOKEN_JSON, SFaccessToken.class);
+		WorkItem item = new WorkItem();
+		mapper.readValue(mapper.writeValueAsString(item), WorkItem.class);
+		CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(PRIME_CSV.getBytes(StandardCharsets.UTF_8)));
+		while(tokenizer.nextRecord()) {
+			tokenizer.getValue(0);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.LogFileIndex;
+import gov.wisconsin.cares.util.BloomFilter;
+import gov.wisconsin.cares.util.HashUtils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Finds the stored event log files that may contain a value, using their sidecar indexes, so an investigation
+ * only reads the files that can match. E.G. the files of last month for a USER_ID:
+ * <pre>
+ * LogFileIndexLookup.findLogFiles(s3Client, bucket, "2020-06-", "USER_ID", "0053t000000ABCD", "20200601000000.000", "20200701000000.000");
+ * </pre>
+ * A file is skipped only if its index rules it out. Files without an index are always returned.
+ * @author andersx
+ *
+ */
+public class LogFileIndexLookup {
+
+	private LogFileIndexLookup() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * @param s3Client
+	 * @param bucket
+	 * @param prefix Key prefix of the files to look at, E.G. a month of date folders.
+	 * @param column Column to match, or null to only match on time.
+	 * @param value Value of the column.
+	 * @param fromTimestamp Start of the time range in the TIMESTAMP format (yyyyMMddHHmmss.SSS), or null.
+	 * @param toTimestamp End of the time range, exclusive, or null.
+	 * @return Key names of the files that may have a record matching the column value in the time range.
+	 * @throws Exception
+	 */
+	public static List<String> findLogFiles(AmazonS3 s3Client, String bucket, String prefix, String column, String value,
+			String fromTimestamp, String toTimestamp) throws Exception {
+
+		List<String> dataKeys = new ArrayList<>();
+		Set<String> indexKeys = new HashSet<>();
+		try {
+			ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix);
+			ListObjectsV2Result result;
+			do {
+				result = s3Client.listObjectsV2(request);
+				for(S3ObjectSummary summary: result.getObjectSummaries()) {
+					if(summary.getKey().endsWith(LogFileIndexer.INDEX_SUFFIX)) {
+						indexKeys.add(summary.getKey());
+					}else {
+						dataKeys.add(summary.getKey());
+					}
+				}
+				request.setContinuationToken(result.getNextContinuationToken());
+			}while(result.isTruncated());
+
+			List<String> matches = new ArrayList<>();
+			for(String dataKey: dataKeys) {
+				String indexKey = dataKey + LogFileIndexer.INDEX_SUFFIX;
+				if(!indexKeys.contains(indexKey) || mightMatch(readIndex(s3Client, bucket, indexKey), column, value, fromTimestamp, toTimestamp)) {
+					matches.add(dataKey);
+				}
+			}
+			return matches;
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error looking up log files with prefix:" + prefix + " in S3 bucket:" + bucket + ", "
+	    			+ LogFileIndexLookup.class.getName() + "::findLogFiles");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * @param index
+	 * @param column Column to match, or null to only match on time.
+	 * @param value
+	 * @param fromTimestamp Start of the time range, or null.
+	 * @param toTimestamp End of the time range, exclusive, or null.
+	 * @return False if the file can not have a record matching the column value in the time range.
+	 */
+	public static boolean mightMatch(LogFileIndex index, String column, String value, String fromTimestamp, String toTimestamp) {
+		if(index.getRowCount() == 0) {
+			return false;
+		}
+		if(index.getTimestampMin() != null) {
+			if(toTimestamp != null && index.getTimestampMin().compareTo(toTimestamp) >= 0) return false;
+			if(fromTimestamp != null && index.getTimestampMax().compareTo(fromTimestamp) < 0) return false;
+		}
+		if(column != null) {
+			String bits = index.getBloomFilters().get(column.toUpperCase(Locale.ROOT));
+			if(bits != null) {
+				// The values are hashed as they appear in the file, where quotes are escaped
+				return BloomFilter.fromBase64(bits, index.getBloomHashCount()).mightContain(HashUtils.hash64(value.replace("\"", "\"\"")));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The index stored in S3.
+	 */
+	public static LogFileIndex readIndex(AmazonS3 s3Client, String bucket, String indexKey) throws Exception {
+		S3Object s3Object = s3Client.getObject(bucket, indexKey);
+		try (InputStream in = s3Object.getObjectContent()) {
+			return LambdaResources.getObjectMapper().readValue(in, LogFileIndex.class);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.LogFileIndex;
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.BloomFilter;
+import gov.wisconsin.cares.util.CsvProjectionInputStream;
+import gov.wisconsin.cares.util.CsvRecordStage;
+import gov.wisconsin.cares.util.CsvRecordWriter;
+import gov.wisconsin.cares.util.CsvTokenizer;
+import gov.wisconsin.cares.util.EnvUtils;
+import gov.wisconsin.cares.util.HashUtils;
+import gov.wisconsin.cares.util.HyperLogLog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Builds the sidecar index of an event log file while it is streamed, as a record stage that passes the records on unchanged,
+ * or through the column projection when only some columns are stored. The index has the row count, the min and max TIMESTAMP,
+ * a distinct count sketch of every column, and Bloom filters on the 'logFileIndexBloomColumns' columns
+ * (default USER_ID,REQUEST_ID,CLIENT_IP). The values are hashed from the bytes of the record, so no Strings are created per field.
+ * The index describes the stored file, so a column dropped by the projection is not indexed.
+ * <p>
+ * The Bloom filters are sized for the worst case from the file size, up to 'logFileIndexMaxBloomKB' (default 1024) per column,
+ * and shrunk to the distinct values seen before the index is stored, so a column with few values gets a small filter.
+ * @author andersx
+ *
+ */
+public class LogFileIndexer implements CsvRecordStage {
+
+	public static final String INDEX_SUFFIX = ".index.json";
+	static final String TIMESTAMP_COLUMN = "TIMESTAMP";
+	static final double FALSE_POSITIVE_RATE = 0.01;
+
+	/*** Smallest size of a record in an event log file, used to bound the number of rows from the file size ***/
+	private static final int MIN_RECORD_BYTES = 100;
+
+	private CsvRecordStage next;
+	private Set<String> columns;
+	private Set<String> bloomColumns = new HashSet<>();
+	private long bloomBits;
+	private String[] columnNames = new String[0];
+	private HyperLogLog[] sketches;
+	private BloomFilter[] bloomFilters;
+	private int timestampColumn = -1;
+	private byte[] timestampMin = new byte[32];
+	private int timestampMinLength = -1;
+	private byte[] timestampMax = new byte[32];
+	private int timestampMaxLength = -1;
+	private long rowCount = 0;
+
+	/**
+	 * @param fileSize Size of the file, or -1 if it is not known.
+	 * @param columns Names of the columns kept in the stored file, in upper case, or null to store and index all the columns.
+	 */
+	public LogFileIndexer(long fileSize, Set<String> columns) {
+		this.columns = columns;
+		this.next = columns != null ? CsvProjectionInputStream.newStage(columns) : null;
+		for(String column: EnvUtils.getString("logFileIndexBloomColumns", "USER_ID,REQUEST_ID,CLIENT_IP").split(",")) {
+			if(!column.trim().isEmpty()) bloomColumns.add(column.trim().toUpperCase(Locale.ROOT));
+		}
+		long maxBits = Math.max(EnvUtils.getInt("logFileIndexMaxBloomKB", 1024), 1) * 8192L;
+		long maxRows = fileSize > 0 ? Math.max(fileSize / MIN_RECORD_BYTES, 1) : maxBits;
+		this.bloomBits = Math.min(BloomFilter.optimalBits(maxRows, FALSE_POSITIVE_RATE), maxBits);
+	}
+
+	/**
+	 * @return True if 'logFileIndex' is set to true, default false.
+	 */
+	public static boolean isEnabled() {
+		return EnvUtils.getBoolean("logFileIndex", false);
+	}
+
+	@Override
+	public void process(CsvTokenizer record, long recordNumber, CsvRecordWriter out) throws IOException {
+		if(recordNumber == 0) {
+			this.readHeader(record);
+		}else {
+			this.addRecord(record);
+		}
+		if(next != null) {
+			next.process(record, recordNumber, out);
+		}else {
+			out.writeRecord(record);
+		}
+	}
+
+	/**
+	 * Build the index of the records streamed so far, and store it next to the stored file.
+	 * @param s3Client
+	 * @param bucket
+	 * @param keyName Key name of the stored file, the index is stored as keyName + .index.json.
+	 * @param eventLog
+	 * @throws Exception
+	 */
+	public void save(AmazonS3 s3Client, String bucket, String keyName, SFEventLogFile eventLog) throws Exception {
+		s3Client.putObject(bucket, keyName + INDEX_SUFFIX, LambdaResources.getObjectMapper().writeValueAsString(this.build(eventLog)));
+	}
+
+	/**
+	 * @param eventLog
+	 * @return The index of the records streamed so far.
+	 */
+	public LogFileIndex build(SFEventLogFile eventLog) {
+		LogFileIndex index = new LogFileIndex();
+		index.setEventLogFileId(eventLog.getId());
+		index.setEventType(eventLog.getEventType());
+		index.setRowCount(rowCount);
+		if(timestampMinLength >= 0) {
+			index.setTimestampMin(new String(timestampMin, 0, timestampMinLength, StandardCharsets.UTF_8));
+			index.setTimestampMax(new String(timestampMax, 0, timestampMaxLength, StandardCharsets.UTF_8));
+		}
+		index.setBloomHashCount(BloomFilter.optimalHashCount(FALSE_POSITIVE_RATE));
+		for(int i = 0; i < columnNames.length; i++) {
+			if(sketches[i] == null) continue;
+			long distinct = sketches[i].estimate();
+			index.getDistinctCounts().put(columnNames[i], distinct);
+			if(bloomFilters[i] != null) {
+				bloomFilters[i].shrink(distinct, FALSE_POSITIVE_RATE);
+				index.getBloomFilters().put(columnNames[i], bloomFilters[i].toBase64());
+			}
+		}
+		return index;
+	}
+
+	private void readHeader(CsvTokenizer header) {
+		int count = header.getFieldCount();
+		columnNames = new String[count];
+		sketches = new HyperLogLog[count];
+		bloomFilters = new BloomFilter[count];
+		for(int i = 0; i < count; i++) {
+			columnNames[i] = header.getValue(i).trim().toUpperCase(Locale.ROOT);
+			if(columns != null && !columns.contains(columnNames[i])) continue;
+			sketches[i] = new HyperLogLog();
+			if(bloomColumns.contains(columnNames[i])) {
+				bloomFilters[i] = new BloomFilter(bloomBits, BloomFilter.optimalHashCount(FALSE_POSITIVE_RATE));
+			}
+			if(columnNames[i].equals(TIMESTAMP_COLUMN)) timestampColumn = i;
+		}
+	}
+
+	private void addRecord(CsvTokenizer record) {
+		rowCount++;
+		byte[] buffer = record.getBuffer();
+		int count = Math.min(record.getFieldCount(), columnNames.length);
+		for(int i = 0; i < count; i++) {
+			if(sketches[i] == null) continue;
+			int start = record.getFieldStart(i);
+			int end = record.getFieldEnd(i);
+			if(record.isQuoted(i)) {
+				start++;
+				end--;
+			}
+			if(end <= start) continue;
+
+			long hash = HashUtils.hash64(buffer, start, end - start);
+			sketches[i].add(hash);
+			if(bloomFilters[i] != null) bloomFilters[i].add(hash);
+			if(i == timestampColumn) this.updateTimestampRange(buffer, start, end - start);
+		}
+	}
+
+	/**
+	 * The TIMESTAMP values have a fixed format (yyyyMMddHHmmss.SSS), so comparing the bytes orders them by time.
+	 */
+	private void updateTimestampRange(byte[] buffer, int start, int length) {
+		if(timestampMinLength < 0 || compare(buffer, start, length, timestampMin, timestampMinLength) < 0) {
+			timestampMin = copy(buffer, start, length, timestampMin);
+			timestampMinLength = length;
+		}
+		if(timestampMaxLength < 0 || compare(buffer, start, length, timestampMax, timestampMaxLength) > 0) {
+			timestampMax = copy(buffer, start, length, timestampMax);
+			timestampMaxLength = length;
+		}
+	}
+
+	private static byte[] copy(byte[] buffer, int start, int length, byte[] target) {
+		if(target.length < length) target = new byte[length];
+		System.arraycopy(buffer, start, target, 0, length);
+		return target;
+	}
+
+	private static int compare(byte[] a, int start, int length, byte[] b, int bLength) {
+		int n = Math.min(length, bLength);
+		for(int i = 0; i < n; i++) {
+			int diff = (a[start + i] & 0xff) - (b[i] & 0xff);
+			if(diff != 0) return diff;
+		}
+		return length - bLength;
+	}
+}
@@ -0,0 +1,236 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Transfers event log files from Salesforce to S3 using a bounded pool of worker threads.
+ * Each file is transferred as its own task, so several downloads and uploads can run at the same time.
+ * With the FAIL_FAST error policy the run stops at the first failed file,
+ * with COLLECT_ALL every file is attempted and all the failures are reported at the end.
+ * With an api controller, fewer files than there are worker threads may be transferred at the same time.
+ * @author andersx
+ *
+ */
+public class LogFileTransferEngine {
+
+	public enum ErrorPolicy { FAIL_FAST, COLLECT_ALL }
+
+	/*** Returned by a transfer when the file did not need to be transferred ***/
+	public static final long SKIPPED = -1;
+
+	/**
+	 * Transfer of a single event log file.
+	 */
+	public interface LogFileTransfer {
+		/**
+		 * @param eventLog
+		 * @return Number of bytes transferred, or SKIPPED if the file was not transferred.
+		 * @throws Exception
+		 */
+		long transfer(SFEventLogFile eventLog) throws Exception;
+	}
+
+	private LambdaLogger logger;
+	private int concurrency;
+	private ErrorPolicy errorPolicy;
+	private ExecutorService executor;
+	private SFApiController apiController;
+
+	public LogFileTransferEngine(int concurrency, ErrorPolicy errorPolicy, LambdaLogger logger) {
+		this(concurrency, errorPolicy, null, logger);
+	}
+
+	/**
+	 * @param concurrency Number of worker threads, the most files that are transferred at the same time.
+	 * @param errorPolicy
+	 * @param apiController Lowers the number of files transferred at the same time when Salesforce is under load, or null.
+	 * @param logger
+	 */
+	public LogFileTransferEngine(int concurrency, ErrorPolicy errorPolicy, SFApiController apiController, LambdaLogger logger) {
+		this.logger = logger;
+		this.apiController = apiController;
+		this.concurrency = Math.max(concurrency, 1);
+		this.errorPolicy = errorPolicy;
+		this.executor = Executors.newFixedThreadPool(this.concurrency, new TransferThreadFactory());
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Transfer all the passed in event log files and wait for the transfers to finish.
+	 * @param eventLogsList
+	 * @param transfer
+	 * @return Summary of the files that were transferred.
+	 * @throws Exception if any of the transfers failed.
+	 */
+	public TransferSummary transferAll(List<SFEventLogFile> eventLogsList, LogFileTransfer transfer) throws Exception {
+		return this.transferAll(EventLogFileSource.of(eventLogsList), transfer);
+	}
+
+	/**
+	 * Transfer all the event log files read from the source and wait for the transfers to finish.
+	 * Files are read from the source only as fast as the workers can take them, so the first files 
+	 * start transferring while the source is still fetching later pages, and memory use stays flat.
+	 * @param source
+	 * @param transfer
+	 * @return Summary of the files that were transferred.
+	 * @throws Exception if any of the transfers failed, or the source could not be read.
+	 */
+	public TransferSummary transferAll(EventLogFileSource source, LogFileTransfer transfer) throws Exception {
+		return this.transferAll(source, transfer, null);
+	}
+
+	/**
+	 * Transfer the event log files read from the source that fit in the time left for the run, 
+	 * and wait for the transfers to finish. Files that would not finish in time are deferred, and 
+	 * when the time is up no more files are read from the source. The summary is then marked as incomplete.
+	 * @param source
+	 * @param transfer
+	 * @param scheduler Decides if a file can be started, or null to transfer all files.
+	 * @return Summary of the files that were transferred.
+	 * @throws Exception if any of the transfers failed, or the source could not be read.
+	 */
+	public TransferSummary transferAll(EventLogFileSource source, LogFileTransfer transfer, TransferScheduler scheduler) throws Exception {
+
+		TransferSummary summary = new TransferSummary();
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		CompletionService<SFEventLogFile> completionService = new ExecutorCompletionService<>(executor);
+		Set<Future<SFEventLogFile>> inFlight = ConcurrentHashMap.newKeySet();
+
+		// Allow one queued file per worker, so the next file is ready as soon as a worker is free
+		Semaphore slots = new Semaphore(concurrency * 2);
+		Exception firstError = null;
+		int pending = 0;
+		try {
+			while(!stopped.get() && source.hasNext()) {
+				if(scheduler != null && scheduler.isOutOfTime()) {
+					summary.setIncomplete();
+					break;
+				}
+				SFEventLogFile eventLog = source.next();
+				slots.acquire();
+				inFlight.add(completionService.submit(() -> {
+					try {
+						if(!stopped.get()) {
+							if(scheduler != null && !scheduler.canStart(eventLog)) {
+								summary.addDeferred(eventLog);
+							}else {
+								long start = System.currentTimeMillis();
+								long bytes = this.transfer(transfer, eventLog);
+								if(bytes == SKIPPED) {
+									summary.addSkipped(eventLog);
+								}else {
+									summary.addCompleted(eventLog, bytes);
+									if(scheduler != null) scheduler.recordTransfer(bytes, System.currentTimeMillis() - start);
+								}
+							}
+						}
+					}catch(Exception e) {
+						summary.addFailure(eventLog, e);
+						if(errorPolicy == ErrorPolicy.FAIL_FAST) stopped.set(true);
+						throw e;
+					}finally {
+						slots.release();
+					}
+					return eventLog;
+				}));
+				pending++;
+
+				// Collect the transfers that have already finished
+				Future<SFEventLogFile> done;
+				while((done = completionService.poll()) != null) {
+					pending--;
+					firstError = this.checkTransfer(done, inFlight, firstError);
+				}
+			}
+			while(pending > 0 && !(firstError != null && errorPolicy == ErrorPolicy.FAIL_FAST)) {
+				pending--;
+				firstError = this.checkTransfer(completionService.take(), inFlight, firstError);
+			}
+		}catch(Exception e) {
+			if(firstError == null) firstError = e;
+		}finally {
+			// Cancel transfers that have not finished, if we are stopping early
+			if(firstError != null) stopped.set(true);
+			for(Future<SFEventLogFile> future: inFlight) {
+				future.cancel(true);
+			}
+		}
+
+		logger.log("\n " + summary);
+		if(firstError != null) {
+			Exception ex = new Exception(firstError.getMessage()
+	    			+ "\n Error: " + summary.getFailures().size() + " event log file transfer(s) failed: " + summary.getFailures()
+	    			+ "\n " + LogFileTransferEngine.class.getName() + "::transferAll");
+	    	throw ex;
+		}
+		return summary;
+	}
+
+	/**
+	 * Transfer the file once the api controller allows another transfer to start.
+	 */
+	private long transfer(LogFileTransfer transfer, SFEventLogFile eventLog) throws Exception {
+		if(apiController == null) {
+			return transfer.transfer(eventLog);
+		}
+		apiController.acquire();
+		try {
+			return transfer.transfer(eventLog);
+		}finally {
+			apiController.release();
+		}
+	}
+
+	/**
+	 * @return The first error seen in the run, which is the passed in error or the error of the finished transfer.
+	 */
+	private Exception checkTransfer(Future<SFEventLogFile> done, Set<Future<SFEventLogFile>> inFlight, Exception firstError) throws InterruptedException {
+		inFlight.remove(done);
+		try {
+			done.get();
+		}catch(ExecutionException e) {
+			if(firstError == null) firstError = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+		return firstError;
+	}
+
+	/**
+	 * Stop the worker threads. The engine can not be used after this.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Create the transfer threads as daemon threads, so they will never keep the JVM alive.
+	 */
+	private static class TransferThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "log-file-transfer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
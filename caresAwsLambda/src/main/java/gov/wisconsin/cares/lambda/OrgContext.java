@@ -0,0 +1,94 @@
+package gov.wisconsin.cares.lambda;
+
+import java.nio.charset.StandardCharsets;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * The Lambda context of one org, when several orgs are ingested in the same invocation.
+ * Everything is passed through to the invocation context, except that log messages start with the name of the org,
+ * so the interleaved logs of the orgs can be told apart. The metrics of an org are not written with this logger,
+ * since CloudWatch only reads a log line that starts with '{' as Embedded Metric Format.
+ * @author andersx
+ *
+ */
+class OrgContext implements Context {
+
+	private Context context;
+	private LambdaLogger logger;
+
+	OrgContext(Context context, String orgName) {
+		this.context = context;
+		String prefix = "[" + orgName + "] ";
+		LambdaLogger invocationLogger = context.getLogger();
+		this.logger = new LambdaLogger() {
+			@Override
+			public void log(String message) {
+				invocationLogger.log(message.startsWith("\n") ? "\n " + prefix + message.substring(1).replaceFirst("^ +", "") : prefix + message);
+			}
+
+			@Override
+			public void log(byte[] message) {
+				this.log(new String(message, StandardCharsets.UTF_8));
+			}
+		};
+	}
+
+	@Override
+	public String getAwsRequestId() {
+		return context.getAwsRequestId();
+	}
+
+	@Override
+	public String getLogGroupName() {
+		return context.getLogGroupName();
+	}
+
+	@Override
+	public String getLogStreamName() {
+		return context.getLogStreamName();
+	}
+
+	@Override
+	public String getFunctionName() {
+		return context.getFunctionName();
+	}
+
+	@Override
+	public String getFunctionVersion() {
+		return context.getFunctionVersion();
+	}
+
+	@Override
+	public String getInvokedFunctionArn() {
+		return context.getInvokedFunctionArn();
+	}
+
+	@Override
+	public CognitoIdentity getIdentity() {
+		return context.getIdentity();
+	}
+
+	@Override
+	public ClientContext getClientContext() {
+		return context.getClientContext();
+	}
+
+	@Override
+	public int getRemainingTimeInMillis() {
+		return context.getRemainingTimeInMillis();
+	}
+
+	@Override
+	public int getMemoryLimitInMB() {
+		return context.getMemoryLimitInMB();
+	}
+
+	@Override
+	public LambdaLogger getLogger() {
+		return logger;
+	}
+}
@@ -0,0 +1,193 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Records the timings, byte counts and throughput of each stage of a run, and writes them to the log
+ * in CloudWatch Embedded Metric Format. CloudWatch turns the log lines into metrics in the namespace 'metricsNamespace'
+ * (default SFEventLogs), with the stage as dimension, so no CloudWatch api calls are needed.
+ * Set 'emitMetrics' to false to turn the metrics off.
+ * A metric line is written for the init phase of the container, the token, the query and each transferred file, and a summary line at the end of the run
+ * with the p50, p95 and max per-file latency and the total throughput.
+ * @author andersx
+ *
+ */
+public class RunMetrics {
+
+	public static final String STAGE_INIT = "Init";
+	public static final String STAGE_TOKEN = "Token";
+	public static final String STAGE_QUERY = "Query";
+	public static final String STAGE_TRANSFER = "Transfer";
+	public static final String STAGE_RUN = "Run";
+
+	private static final String MILLISECONDS = "Milliseconds";
+	private static final String BYTES = "Bytes";
+	private static final String COUNT = "Count";
+	private static final String BYTES_PER_SECOND = "Bytes/Second";
+
+	private LambdaLogger logger;
+	private String namespace;
+	private String functionName;
+	private String org;
+	private boolean enabled;
+	private long startTime = System.currentTimeMillis();
+	private List<Long> fileLatencies = Collections.synchronizedList(new ArrayList<Long>());
+
+	public RunMetrics(LambdaLogger logger, String functionName) {
+		this(logger, functionName, null);
+	}
+
+	/**
+	 * @param logger
+	 * @param functionName
+	 * @param org Name of the org, added as a dimension when several orgs are ingested, or null.
+	 */
+	public RunMetrics(LambdaLogger logger, String functionName, String org) {
+		this.logger = logger;
+		this.functionName = functionName;
+		this.org = org;
+		this.namespace = EnvUtils.getString("metricsNamespace", "SFEventLogs");
+		this.enabled = EnvUtils.getBoolean("emitMetrics", true);
+	}
+
+	/**
+	 * Record the time a stage took, E.G. getting the access token.
+	 * @param stage
+	 * @param millis
+	 */
+	public void recordStage(String stage, long millis) {
+		Map<String, Number> metrics = new LinkedHashMap<>();
+		metrics.put("Duration", millis);
+		this.emit(stage, metrics, null);
+	}
+
+	/**
+	 * Record the query of the event log files.
+	 * @param millis Time spent waiting for all the pages of the query result.
+	 * @param pages
+	 * @param files Number of files matching the query.
+	 */
+	public void recordQuery(long millis, int pages, int files) {
+		Map<String, Number> metrics = new LinkedHashMap<>();
+		metrics.put("Duration", millis);
+		metrics.put("Pages", pages);
+		metrics.put("Files", files);
+		this.emit(STAGE_QUERY, metrics, null);
+	}
+
+	/**
+	 * Record the transfer of a single event log file.
+	 * @param eventLog
+	 * @param downloadMillis Time spent waiting for Salesforce, for the response and while reading the file.
+	 * @param uploadMillis Time spent converting, compressing and writing the file to S3.
+	 * @param bytes Number of bytes downloaded.
+	 * @param resumes Number of times the download was resumed after a dropped connection.
+	 */
+	public void recordFileTransfer(SFEventLogFile eventLog, long downloadMillis, long uploadMillis, long bytes, int resumes) {
+		long millis = downloadMillis + uploadMillis;
+		fileLatencies.add(millis);
+
+		Map<String, Number> metrics = new LinkedHashMap<>();
+		metrics.put("DownloadDuration", downloadMillis);
+		metrics.put("UploadDuration", uploadMillis);
+		metrics.put("Duration", millis);
+		metrics.put("Bytes", bytes);
+		metrics.put("Throughput", bytesPerSecond(bytes, millis));
+		metrics.put("Resumes", resumes);
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("EventLogFileId", eventLog.getId());
+		properties.put("EventType", eventLog.getEventType());
+		this.emit(STAGE_TRANSFER, metrics, properties);
+	}
+
+	/**
+	 * Record the summary of the run.
+	 * @param summary
+	 */
+	public void recordRun(TransferSummary summary) {
+		long millis = Math.max(System.currentTimeMillis() - startTime, 1);
+		List<Long> latencies;
+		synchronized(fileLatencies) {
+			latencies = new ArrayList<>(fileLatencies);
+		}
+		Collections.sort(latencies);
+
+		Map<String, Number> metrics = new LinkedHashMap<>();
+		metrics.put("Duration", millis);
+		metrics.put("FilesTransferred", summary.getFilesTransferred());
+		metrics.put("BytesTransferred", summary.getBytesTransferred());
+		metrics.put("FilesSkipped", summary.getFilesSkipped());
+		metrics.put("BytesSkipped", summary.getBytesSkipped());
+		metrics.put("FilesDeferred", summary.getFilesDeferred());
+		metrics.put("FilesFailed", summary.getFailures().size());
+		metrics.put("Throughput", bytesPerSecond(summary.getBytesTransferred(), millis));
+		metrics.put("FileLatencyP50", percentile(latencies, 50));
+		metrics.put("FileLatencyP95", percentile(latencies, 95));
+		metrics.put("FileLatencyMax", latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1));
+		this.emit(STAGE_RUN, metrics, null);
+	}
+
+	/**
+	 * @param sorted Values sorted in ascending order.
+	 * @param percent
+	 * @return The nearest-rank percentile of the values, or 0 if there are none.
+	 */
+	static long percentile(List<Long> sorted, int percent) {
+		if(sorted.isEmpty()) return 0;
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+		return sorted.get(Math.min(Math.max(rank, 1), sorted.size()) - 1);
+	}
+
+	private static long bytesPerSecond(long bytes, long millis) {
+		return bytes * 1000 / Math.max(millis, 1);
+	}
+
+	/**
+	 * Write the metrics as a single Embedded Metric Format log line.
+	 */
+	private void emit(String stage, Map<String, Number> metrics, Map<String, String> properties) {
+		if(!enabled) return;
+
+		ObjectNode root = LambdaResources.getObjectMapper().createObjectNode();
+		ObjectNode aws = root.putObject("_aws");
+		aws.put("Timestamp", System.currentTimeMillis());
+		ObjectNode directive = aws.putArray("CloudWatchMetrics").addObject();
+		directive.put("Namespace", namespace);
+		ArrayNode dimensions = directive.putArray("Dimensions").addArray().add("FunctionName");
+		if(org != null) dimensions.add("Org");
+		dimensions.add("Stage");
+		ArrayNode definitions = directive.putArray("Metrics");
+
+		root.put("FunctionName", functionName);
+		if(org != null) root.put("Org", org);
+		root.put("Stage", stage);
+		for(Map.Entry<String, Number> metric: metrics.entrySet()) {
+			definitions.addObject().put("Name", metric.getKey()).put("Unit", getUnit(metric.getKey()));
+			root.put(metric.getKey(), metric.getValue().longValue());
+		}
+		if(properties != null) {
+			for(Map.Entry<String, String> property: properties.entrySet()) {
+				root.put(property.getKey(), property.getValue());
+			}
+		}
+		logger.log(root.toString() + "\n");
+	}
+
+	private static String getUnit(String metric) {
+		if(metric.contains("Duration") || metric.contains("Latency")) return MILLISECONDS;
+		if(metric.equals("Throughput")) return BYTES_PER_SECOND;
+		if(metric.contains("Bytes")) return BYTES;
+		return COUNT;
+	}
+}
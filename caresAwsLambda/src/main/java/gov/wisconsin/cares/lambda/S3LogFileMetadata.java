@@ -0,0 +1,116 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.security.MessageDigest;
+import java.util.Collections;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.ObjectTagging;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.Tag;
+
+/**
+ * Identifies the Salesforce event log file an S3 object was stored from.
+ * The EventLogFile Id, LogFileLength and LastModifiedDate are stored as user metadata when the upload starts,
+ * so a HEAD request is enough to tell if the object already holds the current version of the file.
+ * The SHA-256 checksum of the downloaded file is only known when the upload is complete, and user metadata
+ * can not be changed without copying the object, so the checksum is stored as an object tag instead.
+ * @author andersx
+ *
+ */
+public class S3LogFileMetadata {
+
+	public static final String EVENT_LOG_ID = "sf-event-log-id";
+	public static final String LOG_FILE_LENGTH = "sf-log-file-length";
+	public static final String LAST_MODIFIED_DATE = "sf-last-modified-date";
+	public static final String CHECKSUM_TAG = "sf-sha256";
+
+	private S3LogFileMetadata() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * Add the source event log file to the metadata of the object to upload.
+	 * @param meta
+	 * @param eventLog
+	 */
+	public static void setSource(ObjectMetadata meta, SFEventLogFile eventLog) {
+		meta.addUserMetadata(EVENT_LOG_ID, eventLog.getId());
+		meta.addUserMetadata(LOG_FILE_LENGTH, String.valueOf(eventLog.getLogFileLength()));
+		if(eventLog.getLastModifiedDate() != null) {
+			meta.addUserMetadata(LAST_MODIFIED_DATE, eventLog.getLastModifiedDate());
+		}
+	}
+
+	/**
+	 * @param meta Metadata of an object in S3.
+	 * @param eventLog
+	 * @return True if the object was stored from this version of the event log file.
+	 */
+	public static boolean matches(ObjectMetadata meta, SFEventLogFile eventLog) {
+		String id = meta.getUserMetaDataOf(EVENT_LOG_ID);
+		String length = meta.getUserMetaDataOf(LOG_FILE_LENGTH);
+		String lastModifiedDate = meta.getUserMetaDataOf(LAST_MODIFIED_DATE);
+		return id != null && id.equals(eventLog.getId())
+				&& String.valueOf(eventLog.getLogFileLength()).equals(length)
+				&& (lastModifiedDate == null ? eventLog.getLastModifiedDate() == null : lastModifiedDate.equals(eventLog.getLastModifiedDate()));
+	}
+
+	/**
+	 * Check with a HEAD request if the object in S3 was stored from this version of the event log file.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @param eventLog
+	 * @return False if the object does not exist, or was stored from another file or version.
+	 * S3 answers 403 instead of 404 for a missing object when the function has no s3:ListBucket permission, 
+	 * so 403 is treated as not stored, and the file is downloaded again.
+	 * @throws Exception
+	 */
+	public static boolean isStored(AmazonS3 s3Client, String bucket, String key, SFEventLogFile eventLog) throws Exception {
+		try {
+			return matches(s3Client.getObjectMetadata(bucket, key), eventLog);
+		}catch(AmazonS3Exception e) {
+			if(e.getStatusCode() == 404 || e.getStatusCode() == 403) {
+				return false;
+			}
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error reading metadata of:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ S3LogFileMetadata.class.getName() + "::isStored");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * Tag the stored object with the checksum of the event log file it was stored from.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @param checksum Hex encoded SHA-256 of the downloaded file.
+	 */
+	public static void setChecksum(AmazonS3 s3Client, String bucket, String key, String checksum) {
+		ObjectTagging tagging = new ObjectTagging(Collections.singletonList(new Tag(CHECKSUM_TAG, checksum)));
+		s3Client.setObjectTagging(new SetObjectTaggingRequest(bucket, key, tagging));
+	}
+
+	/**
+	 * @return Digest used for the checksum of the downloaded event log files.
+	 * @throws Exception
+	 */
+	public static MessageDigest newDigest() throws Exception {
+		return MessageDigest.getInstance("SHA-256");
+	}
+
+	/**
+	 * @param digest
+	 * @return The digest as a lower case hex string.
+	 */
+	public static String toHex(MessageDigest digest) {
+		StringBuilder hex = new StringBuilder();
+		for(byte b: digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
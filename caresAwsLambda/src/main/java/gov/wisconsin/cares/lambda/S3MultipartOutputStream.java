@@ -0,0 +1,318 @@
+package gov.wisconsin.cares.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * OutputStream that stores everything written to it in S3 as a multipart upload.
+ * The data is cut into fixed size parts, and up to 'partConcurrency' parts are uploaded at the same time
+ * while the next part is being filled. A part that fails to upload is retried on its own,
+ * so a single error does not restart the whole transfer.
+ * The multipart upload is only started when the first part is full. Output that fits in a single part 
+ * is stored with a single PUT when the stream is closed, and the buffer of the first part grows with 
+ * the output, so a small file does not hold a whole part in memory.
+ * If the stream is not closed successfully, call abort() so no orphaned upload is left behind.
+ * @author andersx
+ *
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+	/*** S3 requires all parts, except the last one, to be at least 5 MB ***/
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	public static final int MAX_PARTS = 10000;
+	private static final long RETRY_DELAY_MILLIS = 500;
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	private static final ExecutorService PART_UPLOAD_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "s3-part-upload");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private AmazonS3 s3Client;
+	private String bucket;
+	private String key;
+	private ObjectMetadata meta;
+	private String uploadId;
+	private int partSize;
+	private int maxRetries;
+	private byte[] buffer;
+	private int position = 0;
+	private int partNumber = 1;
+	private long bytesWritten = 0;
+	private boolean closed = false;
+	private Semaphore partsInFlight;
+	private List<Future<PartETag>> partFutures = new ArrayList<>();
+	private AtomicInteger retriedParts = new AtomicInteger();
+
+	public S3MultipartOutputStream(AmazonS3 s3Client, String bucket, String key, ObjectMetadata meta, int partSize) throws Exception {
+		this(s3Client, bucket, key, meta, partSize, 1, 0);
+	}
+
+	/**
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @param meta
+	 * @param partSize Size of each part in bytes, at least 5 MB.
+	 * @param partConcurrency Max number of parts uploading at the same time.
+	 * @param maxRetries Number of times a failed part upload is retried.
+	 * @throws Exception
+	 */
+	public S3MultipartOutputStream(AmazonS3 s3Client, String bucket, String key, ObjectMetadata meta, int partSize, int partConcurrency, int maxRetries) throws Exception {
+		this.s3Client = s3Client;
+		this.bucket = bucket;
+		this.key = key;
+		this.meta = meta != null ? meta : new ObjectMetadata();
+		this.partSize = Math.max(partSize, MIN_PART_SIZE);
+		this.maxRetries = Math.max(maxRetries, 0);
+		this.partsInFlight = new Semaphore(Math.max(partConcurrency, 1));
+		this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, this.partSize)];
+	}
+
+	/**
+	 * Get the part size to use for a file, so the file fits within the S3 limit of 10,000 parts.
+	 * @param partSize The configured part size.
+	 * @param fileSize The size of the file, or -1 if not known.
+	 * @return The part size in bytes.
+	 */
+	public static int getPartSize(int partSize, long fileSize) {
+		long size = Math.max(partSize, MIN_PART_SIZE);
+		if(fileSize > 0) {
+			size = Math.max(size, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+		}
+		return (int) Math.min(size, Integer.MAX_VALUE - 8);
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getRetriedParts() {
+		return retriedParts.get();
+	}
+
+	/**
+	 * @return True if the output was larger than a part and is stored as a multipart upload.
+	 */
+	public boolean isMultipart() {
+		return uploadId != null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(closed) throw new IOException("Stream is closed for key:" + key);
+		while(len > 0) {
+			if(position == buffer.length) {
+				buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(2L * buffer.length, position + len), partSize));
+			}
+			int n = Math.min(len, buffer.length - position);
+			System.arraycopy(b, off, buffer, position, n);
+			position += n;
+			off += n;
+			len -= n;
+			bytesWritten += n;
+			if(position == partSize) {
+				this.submitPart(false);
+			}
+		}
+	}
+
+	/**
+	 * Upload the remaining buffered data as the last part, wait for all parts and complete the multipart upload.
+	 * If the multipart upload was never started, the buffered data is stored with a single PUT.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+
+		if(uploadId == null) {
+			this.putObject();
+			return;
+		}
+		if(position > 0) {
+			this.submitPart(true);
+		}
+		List<PartETag> partETags = new ArrayList<>();
+		for(Future<PartETag> future: partFutures) {
+			partETags.add(this.waitForPart(future));
+		}
+		try {
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+			closed = true;
+		}catch(Exception e) {
+			throw new IOException(e.getMessage()
+	    			+ "\n Error: Unable to complete multipart upload for key:" + key + ", "
+	    			+ S3MultipartOutputStream.class.getName() + "::close", e);
+		}
+	}
+
+	/**
+	 * Cancel the parts still uploading and abort the multipart upload, so S3 can discard the parts already uploaded.
+	 */
+	public void abort() {
+		if(closed) return;
+		closed = true;
+		buffer = null;
+		if(uploadId == null) return;
+		for(Future<PartETag> future: partFutures) {
+			future.cancel(true);
+		}
+		try {
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+		}catch(Exception e) {
+			System.out.println("\n Error: Unable to abort multipart upload for key:" + key + " uploadId:" + uploadId);
+		}
+	}
+
+	/**
+	 * Hand the buffered part over to the upload threads and start filling a new buffer.
+	 * This blocks while 'partConcurrency' parts are already uploading, which keeps the memory use bounded.
+	 */
+	private void submitPart(boolean lastPart) throws IOException {
+		if(uploadId == null) {
+			this.initiateUpload();
+		}
+		this.checkFailedParts();
+		try {
+			partsInFlight.acquire();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to upload part:" + partNumber + " for key:" + key, e);
+		}
+
+		final byte[] data = buffer;
+		final int length = position;
+		final int number = partNumber;
+		try {
+			partFutures.add(PART_UPLOAD_EXECUTOR.submit(() -> {
+				try {
+					return this.uploadPart(data, length, number);
+				}finally {
+					partsInFlight.release();
+				}
+			}));
+		}catch(RuntimeException e) {
+			partsInFlight.release();
+			throw new IOException(e.getMessage() + "\n Error: Unable to submit part:" + number + " for key:" + key, e);
+		}
+		partNumber++;
+		position = 0;
+		buffer = lastPart ? null : new byte[partSize];
+	}
+
+	private void initiateUpload() throws IOException {
+		try {
+			uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, meta)).getUploadId();
+		}catch(Exception e) {
+			throw new IOException(e.getMessage()
+	    			+ "\n Error: Unable to initiate multipart upload for key:" + key + " in bucket:" + bucket + ", "
+	    			+ S3MultipartOutputStream.class.getName() + "::initiateUpload", e);
+		}
+	}
+
+	/**
+	 * Store the buffered data with a single PUT, retrying it up to 'maxRetries' times like a part.
+	 */
+	private void putObject() throws IOException {
+		final byte[] data = buffer;
+		final int length = position;
+		meta.setContentLength(length);
+		try {
+			this.withRetries(() -> s3Client.putObject(bucket, key, new ByteArrayInputStream(data, 0, length), meta), "store", "putObject");
+			closed = true;
+			buffer = null;
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while storing key:" + key, e);
+		}catch(Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Upload a single part, retrying it up to 'maxRetries' times.
+	 */
+	private PartETag uploadPart(byte[] data, int length, int number) throws Exception {
+		return this.withRetries(() -> {
+			UploadPartRequest request = new UploadPartRequest()
+					.withBucketName(bucket)
+					.withKey(key)
+					.withUploadId(uploadId)
+					.withPartNumber(number)
+					.withInputStream(new ByteArrayInputStream(data, 0, length))
+					.withPartSize(length);
+			return s3Client.uploadPart(request).getPartETag();
+		}, "upload part:" + number + " for", "uploadPart");
+	}
+
+	/**
+	 * Make a request to S3, retrying it up to 'maxRetries' times with a growing delay.
+	 * @param request
+	 * @param description What the request does, for the error message.
+	 * @param method Name of the calling method, for the error message.
+	 * @return The result of the request.
+	 * @throws Exception The error of the last attempt.
+	 */
+	private <T> T withRetries(Callable<T> request, String description, String method) throws Exception {
+		int attempt = 0;
+		while(true) {
+			try {
+				return request.call();
+			}catch(Exception e) {
+				if(attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+					Exception ex = new Exception(e.getMessage()
+			    			+ "\n Error: Unable to " + description + " key:" + key + " after " + (attempt + 1) + " attempt(s), "
+			    			+ S3MultipartOutputStream.class.getName() + "::" + method);
+			    	throw ex;
+				}
+				attempt++;
+				retriedParts.incrementAndGet();
+				Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+			}
+		}
+	}
+
+	/**
+	 * Fail early if a part that has already finished could not be uploaded.
+	 */
+	private void checkFailedParts() throws IOException {
+		for(Future<PartETag> future: partFutures) {
+			if(future.isDone()) this.waitForPart(future);
+		}
+	}
+
+	private PartETag waitForPart(Future<PartETag> future) throws IOException {
+		try {
+			return future.get();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for part upload for key:" + key, e);
+		}catch(ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Controls how hard we use the Salesforce api, so the files are moved as fast as the org allows
+ * without using up the daily api requests other integrations depend on.
+ * <ul>
+ * <li>The api usage is read from the Sforce-Limit-Info header Salesforce returns on every response.</li>
+ * <li>Requests failing with 429, 5xx or an I/O error are retried up to 'apiMaxRetries' times (default 3),
+ * with an exponential backoff from 'apiRetryBaseMillis' (default 500) up to 'apiRetryMaxMillis' (default 30000) and full jitter.
+ * A Retry-After header from Salesforce is respected.</li>
+ * <li>The number of concurrent file transfers is adapted with additive increase and multiplicative decrease.
+ * It is halved when Salesforce throttles or fails requests, lowered by one when the response time grows to more than
+ * twice the fastest seen, and otherwise raised slowly back to the maximum. When less than 'apiReservePercent' (default 20)
+ * of the daily api requests remain, only one file is transferred at a time.</li>
+ * </ul>
+ * @author andersx
+ *
+ */
+public class SFApiController {
+
+	private static final String LIMIT_INFO_HEADER = "Sforce-Limit-Info";
+	private static final String API_USAGE = "api-usage=";
+	private static final double LATENCY_SMOOTHING = 0.2;
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	private LambdaLogger logger;
+	private int maxConcurrency;
+	private int maxRetries;
+	private long retryBaseMillis;
+	private long retryMaxMillis;
+	private double reserveFraction;
+
+	private double limit;
+	private int inUse = 0;
+	private double smoothedLatency = -1;
+	private long minLatency = Long.MAX_VALUE;
+	private int responsesSinceDecrease = 0;
+	private long apiUsed = -1;
+	private long apiMax = -1;
+	private int retries = 0;
+	private int throttled = 0;
+
+	/**
+	 * @param maxConcurrency The most files that may be transferred at the same time.
+	 * @param logger
+	 */
+	public SFApiController(int maxConcurrency, LambdaLogger logger) {
+		this.logger = logger;
+		this.maxConcurrency = Math.max(maxConcurrency, 1);
+		this.limit = this.maxConcurrency;
+		this.maxRetries = Math.max(EnvUtils.getInt("apiMaxRetries", 3), 0);
+		this.retryBaseMillis = Math.max(EnvUtils.getInt("apiRetryBaseMillis", 500), 1);
+		this.retryMaxMillis = Math.max(EnvUtils.getInt("apiRetryMaxMillis", 30000), retryBaseMillis);
+		this.reserveFraction = Math.min(Math.max(EnvUtils.getInt("apiReservePercent", 20), 0), 100) / 100.0;
+	}
+
+	/**
+	 * Wait until another file transfer is allowed to start.
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while(inUse >= this.getConcurrencyLimit()) {
+			this.wait();
+		}
+		inUse++;
+	}
+
+	/**
+	 * Release the permit of a finished file transfer.
+	 */
+	public synchronized void release() {
+		inUse--;
+		this.notifyAll();
+	}
+
+	/**
+	 * @return Number of files that may be transferred at the same time now.
+	 */
+	public synchronized int getConcurrencyLimit() {
+		if(this.isApiReserveReached()) {
+			return 1;
+		}
+		return Math.max((int) limit, 1);
+	}
+
+	/**
+	 * Record a response from Salesforce, adjusting the api usage and the concurrency limit.
+	 * @param response
+	 * @param latencyMillis Time until the response headers were received, or -1 if the response time should not be used
+	 * to adjust the concurrency limit, E.G. for query calls which are slower than file downloads.
+	 */
+	public synchronized void recordResponse(HttpResponse response, long latencyMillis) {
+		this.readLimitInfo(response.getFirstHeader(LIMIT_INFO_HEADER));
+		int status = response.getStatusLine().getStatusCode();
+		if(this.isRetryable(status)) {
+			this.decrease("status " + status);
+			return;
+		}
+
+		if(latencyMillis < 0) return;
+		
+		// Give a lower limit time to take effect before lowering it again
+		responsesSinceDecrease++;
+		smoothedLatency = smoothedLatency < 0 ? latencyMillis : smoothedLatency + LATENCY_SMOOTHING * (latencyMillis - smoothedLatency);
+		minLatency = Math.min(minLatency, Math.max(latencyMillis, 1));
+		if(smoothedLatency > minLatency * LATENCY_TOLERANCE) {
+			if(limit > 1 && responsesSinceDecrease >= limit) {
+				limit = Math.max(limit - 1, 1);
+				responsesSinceDecrease = 0;
+			}
+		}else if(limit < maxConcurrency) {
+			limit = Math.min(limit + 1 / limit, maxConcurrency);
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Record a request that failed without a response, E.G. a connection reset.
+	 * @param e
+	 */
+	public synchronized void recordFailure(Exception e) {
+		this.decrease(e.getClass().getSimpleName());
+	}
+
+	/**
+	 * @param status
+	 * @return True if a request that failed with this status code may succeed when it is retried.
+	 */
+	public boolean isRetryable(int status) {
+		return status == 429 || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+	}
+
+	/**
+	 * @param attempt Number of attempts made so far.
+	 * @return True if the request may be retried after this many attempts.
+	 */
+	public boolean canRetry(int attempt) {
+		return attempt <= maxRetries;
+	}
+
+	/**
+	 * Wait before the next attempt of a failed request.
+	 * @param attempt Number of attempts made so far, starting at 1.
+	 * @param response The failed response, or null if there was none.
+	 * @throws InterruptedException
+	 */
+	public void backoff(int attempt, HttpResponse response) throws InterruptedException {
+		synchronized(this) {
+			retries++;
+		}
+		Thread.sleep(this.getBackoffMillis(attempt, response));
+	}
+
+	/**
+	 * @return The delay before the next attempt, from the Retry-After header if Salesforce sent one,
+	 * otherwise a random delay up to the exponential backoff for the attempt.
+	 */
+	long getBackoffMillis(int attempt, HttpResponse response) {
+		Header retryAfter = response != null ? response.getFirstHeader("Retry-After") : null;
+		if(retryAfter != null) {
+			try {
+				return Math.min(Long.parseLong(retryAfter.getValue().trim()) * 1000, retryMaxMillis);
+			}catch(NumberFormatException e) {
+				// Retry-After may also be an HTTP date, use the backoff instead
+			}
+		}
+		// The base is at most an int, so a shift of up to 31 can not overflow the long, and 2^31 ms is past any maximum
+		int shift = Math.min(Math.max(attempt - 1, 0), 31);
+		long ceiling = Math.min(retryBaseMillis << shift, retryMaxMillis);
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * @return Number of daily api requests left in the org, or -1 if Salesforce has not reported the usage yet.
+	 */
+	public synchronized long getApiRemaining() {
+		return apiMax >= 0 ? apiMax - apiUsed : -1;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SFApiController [apiUsage=" + apiUsed + "/" + apiMax + ", concurrencyLimit=" + this.getConcurrencyLimit()
+				+ ", maxConcurrency=" + maxConcurrency + ", retries=" + retries + ", throttled=" + throttled + "]";
+	}
+
+	/**
+	 * Halve the concurrency limit when Salesforce is overloaded or throttling us.
+	 */
+	private void decrease(String reason) {
+		throttled++;
+		responsesSinceDecrease = 0;
+		int before = this.getConcurrencyLimit();
+		limit = Math.max(limit / 2, 1);
+		if(this.getConcurrencyLimit() < before) {
+			logger.log("\n Salesforce api " + reason + ", lowering concurrent transfers to " + this.getConcurrencyLimit());
+		}
+	}
+
+	/**
+	 * Read the api usage from the header, E.G. Sforce-Limit-Info: api-usage=25/15000
+	 */
+	private void readLimitInfo(Header header) {
+		if(header == null) return;
+		String value = header.getValue();
+		int start = value.indexOf(API_USAGE);
+		if(start < 0) return;
+		start += API_USAGE.length();
+		int end = value.indexOf(',', start);
+		String[] usage = value.substring(start, end < 0 ? value.length() : end).trim().split("/");
+		if(usage.length == 2) {
+			try {
+				boolean reserveReached = this.isApiReserveReached();
+				apiUsed = Long.parseLong(usage[0].trim());
+				apiMax = Long.parseLong(usage[1].trim());
+				if(!reserveReached && this.isApiReserveReached()) {
+					logger.log("\n Salesforce api usage is " + apiUsed + "/" + apiMax + ", transferring one file at a time to leave requests for other integrations");
+				}
+			}catch(NumberFormatException e) {
+				// Leave the usage as it was
+			}
+		}
+	}
+
+	private boolean isApiReserveReached() {
+		return apiMax > 0 && apiMax - apiUsed < apiMax * reserveFraction;
+	}
+}
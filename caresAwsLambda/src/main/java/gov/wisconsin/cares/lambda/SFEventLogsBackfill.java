@@ -0,0 +1,207 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Backfill of the event log files in a date range, E.G. the history of an org before the scheduled runs start.
+ * Instead of one query for everything after the water-mark, the range from 'backfillStartDate' up to 'backfillEndDate'
+ * (yyyy-MM-dd, default today) is split into shards of a day or a week ('backfillShard', Day or Week, default Day).
+ * Up to 'backfillShardConcurrency' (default 4) shards are queried at the same time, and their files share the
+ * 'transferConcurrency' transfer threads and the api controller.
+ * <p>
+ * When all the files of a shard are stored, a progress marker is stored for the shard under 'backfillProgressPrefix'
+ * (default the water-mark file + .backfill/) in the water-mark bucket. A shard that failed, or was not finished
+ * before the time limit, has no marker and is done again by the next invocation, where the files it had already
+ * stored are skipped. The function is invoked until it reports that no shards remain.
+ * The water-mark is not changed by the backfill.
+ * @author andersx
+ *
+ */
+public class SFEventLogsBackfill implements RequestHandler<ScheduledEvent, String> {
+
+	/*** Length of a shard of the backfill ***/
+	enum ShardSize { DAY(1), WEEK(7);
+
+		private int days;
+
+		ShardSize(int days) {
+			this.days = days;
+		}
+	}
+
+	private SFEventLogsHandler handler = new SFEventLogsHandler();
+
+	@Override
+	public String handleRequest(ScheduledEvent event, Context context) {
+
+		String response = "200 OK";
+		LambdaLogger logger = context.getLogger();
+		String environment = EnvUtils.getString("ENV", null);
+
+		try {
+
+			logger.log("\n Environment is: " + environment);
+			LambdaResources.startInvocation();
+			LambdaStartup.report(logger);
+			AmazonS3 s3Client = LambdaResources.getS3Client();
+			String bucket = EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null);
+			ShardSize shardSize = ShardSize.valueOf(EnvUtils.getString("backfillShard", "Day").trim().toUpperCase());
+			LocalDate end = getDate("backfillEndDate", LocalDate.now(ZoneOffset.UTC));
+			List<LocalDate> shards = getShards(getDate("backfillStartDate", null), end, shardSize);
+
+			List<LocalDate> pending = new ArrayList<>();
+			for(LocalDate shard: shards) {
+				if(!s3Client.doesObjectExist(bucket, getMarkerKey(shard, shardSize))) pending.add(shard);
+			}
+			logger.log("\n Backfill of " + shards.size() + " shard(s) of a " + shardSize.name().toLowerCase() + ", "
+					+ (shards.size() - pending.size()) + " already done");
+			if(!pending.isEmpty()) {
+				this.backfillShards(pending, shardSize, end, s3Client, bucket, context);
+			}
+
+		}catch (Exception e) {
+			LambdaResources.invalidate();
+			EmailManager.sendFailureNotificationEmail(environment);
+			response = "Error";
+			logger.log("\n Error: Unable to backfill Salesforce event logs to S3 bucket");
+			logger.log("\n Function Name: " + context.getFunctionName() + "\n");
+			e.printStackTrace();
+		}
+		logger.log("\n RESPONSE: " + response + "\n");
+		return response;
+	}
+
+	/**
+	 * Transfer the files of the shards, several shards at a time. A failed shard does not stop the other shards.
+	 * @throws Exception if any shard failed, after all the shards have finished.
+	 */
+	private void backfillShards(List<LocalDate> shards, ShardSize shardSize, LocalDate end, AmazonS3 s3Client, String bucket, Context context) throws Exception {
+
+		LambdaLogger logger = context.getLogger();
+		int shardConcurrency = Math.max(EnvUtils.getInt("backfillShardConcurrency", 4), 1);
+		int transferConcurrency = SFEventLogsHandler.getTransferConcurrency();
+		RunMetrics metrics = new RunMetrics(logger, context.getFunctionName());
+
+		// Each shard holds a connection for its query pages, next to the connections of the transfers
+		SalesforceBO sfBO = new SalesforceBO(context, transferConcurrency + shardConcurrency);
+		sfBO.getSalesforceAccessToken();
+
+		LogFileTransferEngine engine = new LogFileTransferEngine(transferConcurrency, SFEventLogsHandler.getTransferErrorPolicy(), sfBO.getApiController(), logger);
+		ExecutorService shardPool = Executors.newFixedThreadPool(shardConcurrency, r -> {
+			Thread thread = new Thread(r, "backfill-shard");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Map<LocalDate, String> failures = new LinkedHashMap<>();
+		int done = 0;
+		try (TransferScheduler scheduler = new TransferScheduler(context)) {
+
+			Map<LocalDate, Future<Boolean>> futures = new LinkedHashMap<>();
+			for(LocalDate shard: shards) {
+				futures.put(shard, shardPool.submit(() -> this.backfillShard(shard, shardSize, end, engine, scheduler, s3Client, bucket, sfBO, metrics)));
+			}
+			for(Map.Entry<LocalDate, Future<Boolean>> future: futures.entrySet()) {
+				try {
+					if(future.getValue().get()) done++;
+				}catch(ExecutionException e) {
+					failures.put(future.getKey(), e.getCause().getMessage());
+				}
+			}
+		}finally {
+			engine.shutdown();
+			shardPool.shutdownNow();
+			logger.log("\n " + sfBO.getApiController());
+		}
+
+		int remaining = shards.size() - done - failures.size();
+		logger.log("\n Backfill shards done: " + done + ", failed: " + failures.size() + ", not finished before the time limit: " + remaining);
+		if(!failures.isEmpty()) {
+			throw new Exception("Backfill of " + failures.size() + " shard(s) failed: " + failures
+					+ "\n " + SFEventLogsBackfill.class.getName() + "::backfillShards");
+		}
+		if(remaining > 0) {
+			logger.log("\n Invoke the backfill again to finish the remaining shards.");
+		}
+	}
+
+	/**
+	 * Query and transfer the files of a shard, up to the end of the range, and store its progress marker when all the files are stored.
+	 * @return True if the shard is done, false if the time ran out first.
+	 * @throws Exception if any file of the shard could not be stored.
+	 */
+	private boolean backfillShard(LocalDate shard, ShardSize shardSize, LocalDate end, LogFileTransferEngine engine, TransferScheduler scheduler,
+			AmazonS3 s3Client, String bucket, SalesforceBO sfBO, RunMetrics metrics) throws Exception {
+
+		if(scheduler.isOutOfTime()) {
+			return false;
+		}
+		String from = shard.atStartOfDay().format(SalesforceBO.SOQL_DATETIME_FORMATTER);
+		LocalDate next = shard.plusDays(shardSize.days);
+		String to = (next.isAfter(end) ? end : next).atStartOfDay().format(SalesforceBO.SOQL_DATETIME_FORMATTER);
+		EventLogFileCursor eventLogs = sfBO.queryLogFiles(from, to);
+		TransferSummary summary = engine.transferAll(eventLogs, eventLog -> {
+			if(handler.isUnchangedInS3(eventLog, s3Client, sfBO.getOrg())) {
+				return LogFileTransferEngine.SKIPPED;
+			}
+			return handler.storeLogFileInS3(eventLog, s3Client, sfBO, metrics);
+		}, scheduler);
+		if(summary.isIncomplete() || summary.getFilesDeferred() > 0) {
+			return false;
+		}
+		s3Client.putObject(bucket, getMarkerKey(shard, shardSize), summary.toString());
+		return true;
+	}
+
+	/**
+	 * @param start First day of the range.
+	 * @param end Day after the range.
+	 * @param shardSize
+	 * @return The first day of each shard in the range.
+	 */
+	static List<LocalDate> getShards(LocalDate start, LocalDate end, ShardSize shardSize) {
+		List<LocalDate> shards = new ArrayList<>();
+		for(LocalDate shard = start; shard.isBefore(end); shard = shard.plusDays(shardSize.days)) {
+			shards.add(shard);
+		}
+		return shards;
+	}
+
+	private static String getMarkerKey(LocalDate shard, ShardSize shardSize) {
+		return EnvUtils.getString("backfillProgressPrefix", EnvUtils.getString("watermarkFile", null) + ".backfill/")
+				+ shardSize.name().toLowerCase() + "/" + shard + ".done";
+	}
+
+	private static LocalDate getDate(String name, LocalDate defaultValue) throws Exception {
+		String value = EnvUtils.getString(name, null);
+		if(value == null || value.trim().isEmpty()) {
+			if(defaultValue == null) {
+				throw new Exception("Environment variable '" + name + "' is not set, " + SFEventLogsBackfill.class.getName() + "::getDate");
+			}
+			return defaultValue;
+		}
+		try {
+			return LocalDate.parse(value.trim().substring(0, Math.min(value.trim().length(), 10)));
+		}catch(DateTimeParseException e) {
+			throw new Exception(e.getMessage() + "\n Invalid date in '" + name + "', expected yyyy-MM-dd, "
+					+ SFEventLogsBackfill.class.getName() + "::getDate");
+		}
+	}
+}
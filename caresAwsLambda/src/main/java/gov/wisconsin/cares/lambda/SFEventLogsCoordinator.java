@@ -0,0 +1,153 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Coordinator of the fan-out mode, for orgs with more event log files than one container can move in a run.
+ * Instead of transferring the files itself like SFEventLogsHandler, it queries the files after the water-mark,
+ * splits them into work items of about the same size and sends them to the work queue ('workQueueUrl', an SQS queue),
+ * where they are picked up by SFEventLogsWorker functions running in parallel.
+ * <p>
+ * Each scheduled invocation first checks the run in progress. While items are pending the water-mark is kept,
+ * and items pending for longer than 'workItemTimeoutMinutes' are sent again. When all items are done,
+ * the water-mark is advanced and the next run is started.
+ * @author andersx
+ *
+ */
+public class SFEventLogsCoordinator implements RequestHandler<ScheduledEvent, String> {
+
+	private static final DateTimeFormatter RUN_ID_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+	private SFEventLogsHandler handler = new SFEventLogsHandler();
+	private WorkQueue workQueue;
+
+	public SFEventLogsCoordinator() {
+	}
+
+	/**
+	 * @param workQueue Queue to send the work items to, E.G. an InMemoryWorkQueue when testing locally.
+	 */
+	public SFEventLogsCoordinator(WorkQueue workQueue) {
+		this.workQueue = workQueue;
+	}
+
+	@Override
+	public String handleRequest(ScheduledEvent event, Context context) {
+
+		String response = "200 OK";
+		LambdaLogger logger = context.getLogger();
+		String environment = EnvUtils.getString("ENV", null);
+
+		try {
+
+			logger.log("\n Environment is: " + environment);
+			LambdaResources.startInvocation();
+			LambdaStartup.report(logger);
+			AmazonS3 s3Client = LambdaResources.getS3Client();
+			String bucket = EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null);
+			String runFileName = WorkRun.getRunFileName();
+
+			WorkRun run = WorkRun.load(s3Client, bucket, runFileName);
+			if(run != null && !this.finishRun(run, s3Client, logger)) {
+				logger.log("\n RESPONSE: " + response + "\n");
+				return response;
+			}
+			this.startRun(s3Client, bucket, runFileName, context);
+
+		}catch (Exception e) {
+			LambdaResources.invalidate();
+			EmailManager.sendFailureNotificationEmail(environment);
+			response = "Error";
+			logger.log("\n Error: Unable to dispatch Salesforce event logs to the workers");
+			logger.log("\n Function Name: " + context.getFunctionName() + "\n");
+			e.printStackTrace();
+		}
+		logger.log("\n RESPONSE: " + response + "\n");
+		return response;
+	}
+
+	/**
+	 * Advance the water-mark if all the work items of the run are done, otherwise send items again that have been pending too long.
+	 * @param run
+	 * @param s3Client
+	 * @param logger
+	 * @return True if the run is finished and a new run can be started.
+	 * @throws Exception
+	 */
+	private boolean finishRun(WorkRun run, AmazonS3 s3Client, LambdaLogger logger) throws Exception {
+
+		List<WorkItem> pending = run.getPendingItems(s3Client);
+		if(!pending.isEmpty()) {
+			logger.log("\n Run " + run.getRunId() + ": " + pending.size() + " of " + run.getItems().size() + " work item(s) pending");
+			if(run.isDispatchExpired()) {
+				for(WorkItem item: pending) {
+					this.getWorkQueue().send(item);
+				}
+				run.markDispatched();
+				run.save(s3Client);
+				logger.log("\n Run " + run.getRunId() + ": sent " + pending.size() + " pending work item(s) again");
+			}
+			return false;
+		}
+
+		String updatedWtrMrk = SFEventLogsHandler.getUpdatedWatermarkTimestamp(run.getHighWaterMark(), run.getWatermark());
+		handler.updateWatermarkTimestamp(s3Client, SalesforceOrgs.getDefaultOrg(), updatedWtrMrk);
+		run.close(s3Client);
+		logger.log("\n Run " + run.getRunId() + ": all " + run.getItems().size() + " work item(s) done, water-mark is now " + updatedWtrMrk);
+		return true;
+	}
+
+	/**
+	 * Query the event log files after the water-mark, and send them to the workers as work items.
+	 * The run is stored before the items are sent, so an item is never done without the coordinator knowing about it.
+	 */
+	private void startRun(AmazonS3 s3Client, String bucket, String runFileName, Context context) throws Exception {
+
+		LambdaLogger logger = context.getLogger();
+		SalesforceBO sfBO = new SalesforceBO(context);
+		sfBO.getSalesforceAccessToken();
+		String wtrMrkStr = handler.readWatermarkTimestampForEventLogs(s3Client, sfBO.getOrg());
+		EventLogFileCursor cursor = sfBO.queryLogFiles(wtrMrkStr);
+		List<SFEventLogFile> eventLogs = new ArrayList<>(cursor.getTotalSize());
+		while(cursor.hasNext()) {
+			eventLogs.add(cursor.next());
+		}
+		logger.log("\n Number of event logs: " + eventLogs.size());
+		if(eventLogs.isEmpty()) {
+			return;
+		}
+
+		String runId = ZonedDateTime.now(ZoneOffset.UTC).format(RUN_ID_FORMATTER);
+		WorkRun run = WorkRun.start(bucket, runFileName, runId, wtrMrkStr, eventLogs);
+		run.markDispatched();
+		run.save(s3Client);
+		for(WorkItem item: run.getItems()) {
+			this.getWorkQueue().send(item);
+		}
+		logger.log("\n Run " + runId + ": sent " + run.getItems().size() + " work item(s) for " + eventLogs.size() + " event log file(s)");
+	}
+
+	/**
+	 * @return The work queue, the SQS queue from environment variable 'workQueueUrl' unless a queue was passed in.
+	 */
+	private synchronized WorkQueue getWorkQueue() {
+		if(workQueue == null) {
+			workQueue = new SqsWorkQueue(LambdaResources.getSqsClient(), EnvUtils.getString("workQueueUrl", null));
+		}
+		return workQueue;
+	}
+}
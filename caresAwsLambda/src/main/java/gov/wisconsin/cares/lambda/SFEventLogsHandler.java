@@ -1,22 +1,44 @@
 package gov.wisconsin.cares.lambda;
 
+import gov.wisconsin.cares.pojo.OrgConfig;
 import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.CompressionCodec;
+import gov.wisconsin.cares.util.CountingInputStream;
+import gov.wisconsin.cares.util.CsvProjectionInputStream;
+import gov.wisconsin.cares.util.CsvStageInputStream;
+import gov.wisconsin.cares.util.EnvUtils;
+import gov.wisconsin.cares.util.ParallelRangeInputStream;
+import gov.wisconsin.cares.util.RangeSource;
+import gov.wisconsin.cares.util.ResumableInputStream;
+import gov.wisconsin.cares.util.StreamUtils;
+import gov.wisconsin.cares.util.TeeInputStream;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.SimpleDateFormat;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntity;
 
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 
@@ -30,32 +52,55 @@ import com.amazonaws.services.s3.model.S3Object;
  */
 public class SFEventLogsHandler implements RequestHandler<ScheduledEvent, String> {
 	
+	private static final int MB = 1024 * 1024;
+	private static final int DEFAULT_MULTIPART_THRESHOLD_MB = 100;
+	private static final int DEFAULT_PART_SIZE_MB = 16;
+	private static final int DEFAULT_PART_CONCURRENCY = 4;
+	private static final int DEFAULT_PART_RETRIES = 3;
+	private static final int DEFAULT_TRANSFER_CONCURRENCY = 4;
+	private static final int DEFAULT_RESUME_RETRIES = 3;
+	private static final int DEFAULT_RANGE_CONCURRENCY = 4;
+	
+	/*** Format of the files stored in S3 ***/
+	enum OutputFormat { CSV, PARQUET, CSV_AND_PARQUET }
+	
+	/*** The startup work is done while Lambda initializes the container, the other handlers get it through their SFEventLogsHandler ***/
+	static {
+		LambdaStartup.prime();
+	}
+	
 	@Override
 	public String handleRequest(ScheduledEvent event, Context context) {
 		
 		String response = "200 OK";
         LambdaLogger logger = context.getLogger();
-        String environment = System.getenv("ENV");
+        String environment = EnvUtils.getString("ENV", null);
         
         try {
         	
         	logger.log("\n Environment is: " + environment);
-        	AmazonS3 s3Client = AmazonS3ClientBuilder.standard()                  
-        			 .withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
-        			 .build();
+        	int invocation = LambdaResources.startInvocation();
+        	AmazonS3 s3Client = LambdaResources.getS3Client();
+        	long initMillis = LambdaStartup.report(logger);
+        	List<OrgConfig> orgs = SalesforceOrgs.load(s3Client);
         	
-        	// Get the Salesforce access token
-        	SalesforceBO sfBO = new SalesforceBO(context);
-        	sfBO.getSalesforceAccessToken();
-        	
-        	// Get and download the event logs to S3 destination bucket, based on the water-mark time-stamp.
-        	List<SFEventLogFile> eventLogsList = sfBO.getLogFiles(this.readWatermarkTimestampForEventLogs(s3Client));
-        	this.storeAllLogFilesInS3(eventLogsList, s3Client, sfBO, logger);
-        	
-        	// Update the water-mark time-stamp after successful completion
-        	this.updateWatermarkTimestamp(s3Client);
+        	try {
+	        	if(orgs.size() == 1) {
+	        		RunMetrics metrics = new RunMetrics(logger, context.getFunctionName());
+	        		if(initMillis >= 0) metrics.recordStage(RunMetrics.STAGE_INIT, initMillis);
+	        		this.ingestOrg(orgs.get(0), context, s3Client, metrics);
+	        	}else {
+	        		if(initMillis >= 0) new RunMetrics(logger, context.getFunctionName()).recordStage(RunMetrics.STAGE_INIT, initMillis);
+	        		this.ingestOrgs(orgs, context, s3Client);
+	        	}
+        	}finally {
+        		// Logged once the orgs have obtained their http client, so every reused resource is counted
+        		logger.log("\n Invocation " + invocation + " of this container, setup time saved by reusing warm resources: " 
+        				+ LambdaResources.getSavedSetupMillis() + " ms");
+        	}
         	
         }catch (Exception e) {
+        	LambdaResources.invalidate();
         	EmailManager.sendFailureNotificationEmail(environment);
             response = "Error";
             logger.log("\n Error: Unable to move Salesforce event logs to S3 bucket");
@@ -67,59 +112,276 @@ public class SFEventLogsHandler implements RequestHandler<ScheduledEvent, String
 	}
 	
 	/**
-	 * This will loop through all our event log files and download them 
-	 * from Salesforce one by one to S3 destination bucket.
-	 * @param eventLogsList
+	 * Ingest several orgs at the same time, each on its own thread with its own token, transfer pool, water-mark, 
+	 * manifest and metrics, so a slow org does not hold up the others and a failing org does not stop them. 
+	 * The number of orgs run at the same time is set by the environment variable 'orgConcurrency' (default all of them).
+	 * The shared http pool is sized for all the orgs up front, so it is not rebuilt while another org is using it.
+	 * @param orgs
+	 * @param context
+	 * @param s3Client
+	 * @throws Exception If any of the orgs failed, after all the orgs have finished.
+	 */
+	private void ingestOrgs(List<OrgConfig> orgs, Context context, AmazonS3 s3Client) throws Exception{
+		
+		LambdaLogger logger = context.getLogger();
+		int orgConcurrency = Math.min(Math.max(EnvUtils.getInt("orgConcurrency", orgs.size()), 1), orgs.size());
+		LambdaResources.getHttpClient(orgConcurrency * (getTransferConcurrency() + 2));
+		logger.log("\n Ingesting " + orgs.size() + " orgs, " + orgConcurrency + " at a time: " + orgs);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(orgConcurrency);
+		Map<String, Future<?>> results = new LinkedHashMap<>();
+		try {
+			for(OrgConfig org: orgs) {
+				Context orgContext = new OrgContext(context, org.getName());
+				// The metrics go to the invocation logger, a metric line must start with '{' and the Org dimension names the org
+				results.put(org.getName(), pool.submit(() -> {
+					this.ingestOrg(org, orgContext, s3Client, new RunMetrics(logger, context.getFunctionName(), org.getName()));
+					return null;
+				}));
+			}
+			
+			List<String> failed = new ArrayList<>();
+			for(Map.Entry<String, Future<?>> result: results.entrySet()) {
+				try {
+					result.getValue().get();
+				}catch(ExecutionException e) {
+					failed.add(result.getKey());
+					logger.log("\n Error: Unable to ingest org " + result.getKey() + ", " + e.getCause().getMessage());
+				}
+			}
+			if(!failed.isEmpty()) {
+				throw new Exception("Failed to ingest " + failed.size() + " of " + orgs.size() + " orgs: " + failed);
+			}
+		}catch(Exception e){
+			Exception ex = new Exception(e.getMessage() 
+	    			+ "\n Error ingesting the Salesforce orgs, "
+	    			+ SFEventLogsHandler.class.getName() + "::ingestOrgs");
+	    	throw ex;
+		}finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Move the new event log files of one org to S3, and advance the water-mark of the org when all of them are stored.
+	 * @param org
+	 * @param context
+	 * @param s3Client
+	 * @param metrics
+	 * @throws Exception
+	 */
+	private void ingestOrg(OrgConfig org, Context context, AmazonS3 s3Client, RunMetrics metrics) throws Exception{
+		
+		LambdaLogger logger = context.getLogger();
+		
+		// Get the Salesforce access token
+		SalesforceBO sfBO = new SalesforceBO(context, getTransferConcurrency(), org);
+		long start = System.currentTimeMillis();
+		sfBO.getSalesforceAccessToken();
+		metrics.recordStage(RunMetrics.STAGE_TOKEN, System.currentTimeMillis() - start);
+		
+		// Get and download the event logs to S3 destination bucket, based on the water-mark time-stamp.
+		// Files that are already in the ingestion manifest are skipped before they are downloaded.
+		String wtrMrkStr = this.readWatermarkTimestampForEventLogs(s3Client, org);
+		IngestionManifest manifest = IngestionManifest.load(s3Client, EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null), org.getIngestionManifestFile());
+		// The manifest is also saved as a checkpoint while the files are transferred, and the run stops 
+		// starting new files when it runs out of time. The next run will then resume from the checkpoint.
+		start = System.currentTimeMillis();
+		EventLogFileCursor eventLogs = sfBO.queryLogFiles(wtrMrkStr);
+		long firstPageMillis = System.currentTimeMillis() - start;
+		TransferSummary summary = null;
+		try (TransferScheduler scheduler = new TransferScheduler(context)) {
+			scheduler.startCheckpoints(() -> manifest.save(s3Client));
+			summary = this.storeAllLogFilesInS3(eventLogs, manifest, scheduler, s3Client, sfBO, metrics, logger);
+		}catch(Exception e) {
+			this.saveManifestAfterFailure(manifest, s3Client, logger);
+			throw e;
+		}finally {
+			metrics.recordQuery(firstPageMillis + eventLogs.getQueryMillis(), eventLogs.getPageCount(), eventLogs.getTotalSize());
+		}
+		metrics.recordRun(summary);
+		
+		if(summary.isIncomplete()) {
+			
+			// Keep the water-mark, the deferred files will be picked up by the next run
+			manifest.save(s3Client);
+			logger.log("\n Run stopped before the time limit, " + summary.getFilesDeferred() 
+					+ " event log file(s) deferred. The next run will resume from the checkpoint.");
+		}else {
+			
+			// Update the manifest and the water-mark time-stamp after successful completion
+			String updatedWtrMrk = this.getUpdatedWatermarkTimestamp(manifest, wtrMrkStr);
+			manifest.prune(updatedWtrMrk);
+			manifest.save(s3Client);
+			this.updateWatermarkTimestamp(s3Client, org, updatedWtrMrk);
+		}
+	}
+	
+	/**
+	 * This will download all our event log files from Salesforce to S3 destination bucket.
+	 * The files are transferred concurrently by a bounded pool of worker threads, 
+	 * the number of threads is set by the environment variable 'transferConcurrency'.
+	 * The files of the first page of the query result are transferred while the following pages are being fetched.
+	 * Files already recorded in the ingestion manifest, or already stored in S3 from the same version of the file, are skipped. 
+	 * Each stored file is added to the manifest.
+	 * Files are only started if the scheduler expects them to finish before the function times out.
+	 * @param eventLogs
+	 * @param manifest
+	 * @param scheduler
 	 * @param s3Client
 	 * @param sfBO
+	 * @param metrics
 	 * @param logger
+	 * @return Summary of the transferred files.
 	 * @throws Exception
 	 */
-	private void storeAllLogFilesInS3(List<SFEventLogFile> eventLogsList, AmazonS3 s3Client, SalesforceBO sfBO, LambdaLogger logger) throws Exception{
+	private TransferSummary storeAllLogFilesInS3(EventLogFileCursor eventLogs, IngestionManifest manifest, TransferScheduler scheduler, 
+			AmazonS3 s3Client, SalesforceBO sfBO, RunMetrics metrics, LambdaLogger logger) throws Exception{
 		
-		if(!eventLogsList.isEmpty()){
+		TransferSummary summary = new TransferSummary();
+		if(eventLogs.getTotalSize() > 0){
     		
-    		int count = 0;
-    		logger.log("\n Number of event logs: " + eventLogsList.size());
-    		for(SFEventLogFile eventLog: eventLogsList){
-    			this.storeLogFileInS3(eventLog, s3Client, sfBO);
-    			count++;
+    		logger.log("\n Number of event logs: " + eventLogs.getTotalSize());
+    		LogFileTransferEngine engine = new LogFileTransferEngine(getTransferConcurrency(), getTransferErrorPolicy(), sfBO.getApiController(), logger);
+    		try {
+    			summary = engine.transferAll(eventLogs, eventLog -> {
+    				if(manifest.isIngested(eventLog)) {
+    					return LogFileTransferEngine.SKIPPED;
+    				}
+    				if(this.isUnchangedInS3(eventLog, s3Client, sfBO.getOrg())) {
+    					manifest.markIngested(eventLog);
+    					return LogFileTransferEngine.SKIPPED;
+    				}
+    				long bytes = this.storeLogFileInS3(eventLog, s3Client, sfBO, metrics);
+    				manifest.markIngested(eventLog);
+    				return bytes;
+    			}, scheduler);
+    			logger.log("\n Number of event logs downloaded: " + summary.getFilesTransferred() + " (" + summary.getBytesTransferred() + " bytes)"
+    					+ " from " + eventLogs.getPageCount() + " page(s)"
+    					+ ", skipped as already stored: " + summary.getFilesSkipped() + " (" + summary.getBytesSkipped() + " bytes)");
+    		}finally {
+    			engine.shutdown();
+    			logger.log("\n " + sfBO.getApiController());
     		}
-    		logger.log("\n Number of event logs downloaded: " + count);
     	}
+		return summary;
 	}
 	
 	/**
 	 * This will download the passed in event log file from Salesforce and store it in S3 destination bucket.
 	 * A destination folder with the log file date will be created in the destination bucket, 
-	 * and the .csv log file will be down-loaded to that folder.
+	 * and the .csv log file will be down-loaded to that folder. Hourly log files are stored in a sub folder per hour.
+	 * The file is downloaded only once and streamed directly to S3. If the response has no Content-Length, 
+	 * or the file is above the 'multipartThresholdMB' threshold, it will be streamed to S3 as a parallel multipart upload.
+	 * If 'logFileCompression' is set to gzip, the file is compressed while it is streamed and stored as .csv.gz.
+	 * If 'logFileOutputFormat' is PARQUET or CSV_AND_PARQUET, the file is converted to Parquet while it is streamed, 
+	 * and stored under the 'parquetKeyPrefix' prefix instead of, or next to, the .csv file.
+	 * If 'logFileColumns' selects columns for the EventType, the other columns are dropped while the file is streamed.
+	 * If 'logFileIndex' is true, a sidecar index of the file is built while it is streamed, and stored next to it as .index.json.
+	 * If the connection drops, the download is resumed from the last byte read, up to 'downloadResumeRetries' times.
+	 * Files of 'rangeDownloadThresholdMB' or larger are downloaded as 'rangeDownloadConcurrency' byte ranges at the same time.
+	 * The stored objects record the source file in their metadata, and are tagged with the checksum of the downloaded file.
+	 * The time spent downloading and uploading the file is recorded in the run metrics.
 	 * @param eventLog
 	 * @param s3Client
 	 * @param sfBO
+	 * @param metrics
+	 * @return Number of bytes downloaded from Salesforce and stored in S3
 	 * @throws Exception
 	 */
-	private void storeLogFileInS3(SFEventLogFile eventLog, AmazonS3 s3Client, SalesforceBO sfBO) throws Exception{
+	long storeLogFileInS3(SFEventLogFile eventLog, AmazonS3 s3Client, SalesforceBO sfBO, RunMetrics metrics) throws Exception{
 		
+		long bytesStored = 0;
 		InputStream in = null;
+		List<S3MultipartOutputStream> uploads = new ArrayList<>();
 		try{
 			
-			// Determine folder location based on Log Date
-			String destFolder = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
-			if(eventLog.getLogDate() != null && !eventLog.getLogDate().trim().equals("")) {
-				destFolder = eventLog.getLogDate().substring(0, 10);
+			// Build the destination key names and get the file size.
+			OutputFormat outputFormat = getOutputFormat();
+			CompressionCodec codec = getCompressionCodec();
+			String destBucket = EnvUtils.getString("salesforceLogFileDstBkt", null);
+			List<String> destKeyNames = getDestKeyNames(eventLog, outputFormat, codec, sfBO.getOrg().getLogFileKeyPrefix());
+			long start = System.currentTimeMillis();
+			long responseMillis = 0;
+			long fileSize;
+			long contentLength = -1;
+			
+			// A dropped connection is resumed with a Range request from the last byte read
+			RangeSource ranges = (from, to) -> sfBO.getEventLogFileRange(eventLog.getLogFile(), from, to);
+			int maxResumes = Math.max(EnvUtils.getInt("downloadResumeRetries", DEFAULT_RESUME_RETRIES), 0);
+			ResumableInputStream resumable = null;
+			ParallelRangeInputStream parallel = null;
+			long rangeThreshold = getRangeDownloadThreshold();
+			if(rangeThreshold > 0 && eventLog.getLogFileLength() >= rangeThreshold) {
+				
+				// Large files are downloaded as several ranges at the same time, one multipart part per range
+				fileSize = eventLog.getLogFileLength();
+				int rangeSize = S3MultipartOutputStream.getPartSize(EnvUtils.getInt("multipartPartSizeMB", DEFAULT_PART_SIZE_MB) * MB, fileSize);
+				parallel = new ParallelRangeInputStream(ranges, fileSize, rangeSize, 
+						EnvUtils.getInt("rangeDownloadConcurrency", DEFAULT_RANGE_CONCURRENCY), maxResumes);
+				in = parallel;
+			}else {
+				HttpEntity entity = sfBO.getEventLogFileEntity(eventLog.getLogFile());
+				responseMillis = System.currentTimeMillis() - start;
+				contentLength = entity.getContentLength();
+				fileSize = getFileSize(eventLog, entity);
+				resumable = new ResumableInputStream(ranges, entity.getContent(), 0, contentLength, maxResumes);
+				in = resumable;
 			}
 			
-			// Build the destination key name and get the file size.
-			String destFolderKeyName = destFolder + File.separator + (eventLog.getEventType() + ".csv");
-			long fileSize = getFileSize(sfBO.getEventLogFile(eventLog.getLogFile()));
+			// The checksum is computed from the downloaded bytes while they are streamed
+			MessageDigest digest = S3LogFileMetadata.newDigest();
+			CountingInputStream download = new CountingInputStream(in);
+			in = new DigestInputStream(download, digest);
+			Set<String> columns = getProjectedColumns(eventLog.getEventType());
+			LogFileIndexer indexer = LogFileIndexer.isEnabled() ? new LogFileIndexer(fileSize, columns) : null;
+			if(indexer != null) {
+				in = new CsvStageInputStream(in, indexer);
+			}else if(columns != null) {
+				in = new CsvProjectionInputStream(in, columns);
+			}
 			
-			// Set meta-data and store it in S3 destination folder
-	        ObjectMetadata meta = new ObjectMetadata();
-	        meta.setContentLength(fileSize);
-	        in = sfBO.getEventLogFile(eventLog.getLogFile());
-	        s3Client.putObject(System.getenv("salesforceLogFileDstBkt"), destFolderKeyName, in, meta);
+			// Set meta-data and store it in S3 destination folder. Only the Content-Length of the response is trusted 
+			// as the length of a single PUT, a wrong LogFileLength would fail or truncate the upload.
+	        if(outputFormat == OutputFormat.CSV && codec == null && columns == null && contentLength >= 0 && contentLength < getMultipartThreshold()) {
+	        	ObjectMetadata meta = new ObjectMetadata();
+	        	meta.setContentLength(contentLength);
+	        	S3LogFileMetadata.setSource(meta, eventLog);
+	        	s3Client.putObject(destBucket, destKeyNames.get(0), in, meta);
+	        	bytesStored = contentLength;
+	        }else {
+	        	
+	        	// Converted, projected and compressed sizes are not known up front, so these files are streamed to S3,
+	        	// as a multipart upload when they are larger than a part and with a single PUT otherwise
+	        	OutputStream csvOut = null;
+	        	if(outputFormat != OutputFormat.PARQUET) {
+	        		csvOut = this.openS3Upload(s3Client, destBucket, destKeyNames.get(0), "text/csv", eventLog, fileSize, codec, uploads);
+	        	}
+	        	if(outputFormat == OutputFormat.CSV) {
+	        		StreamUtils.copy(in, csvOut);
+	        	}else {
+	        		String parquetKeyName = destKeyNames.get(destKeyNames.size() - 1);
+	        		OutputStream parquetOut = this.openS3Upload(s3Client, destBucket, parquetKeyName, "application/octet-stream", eventLog, fileSize, null, uploads);
+	        		EventLogParquetWriter.write(eventLog, csvOut != null ? new TeeInputStream(in, csvOut) : in, parquetOut);
+	        	}
+	        	bytesStored = download.getCount();
+	        	if(csvOut != null) csvOut.close();
+	        }
+	        
+	        this.setChecksum(s3Client, destBucket, destKeyNames, S3LogFileMetadata.toHex(digest), sfBO.getLogger());
+	        if(indexer != null) {
+	        	indexer.save(s3Client, destBucket, destKeyNames.get(0), eventLog);
+	        }
+	        
+	        // Time not spent waiting for Salesforce was spent converting, compressing and uploading to S3
+	        long downloadMillis = responseMillis + download.getReadMillis();
+	        int resumes = parallel != null ? parallel.getResumeCount() : resumable.getResumeCount();
+	        metrics.recordFileTransfer(eventLog, downloadMillis, Math.max(System.currentTimeMillis() - start - downloadMillis, 0), download.getCount(), resumes);
 	        
 		}catch(Exception e){
+			for(S3MultipartOutputStream upload: uploads) {
+				upload.abort();
+			}
 			Exception ex = new Exception(e.getMessage() 
 	    			+ "\n Error storing .csv event log file in S3. "
 	    			+ " Event log file::" + eventLog + " Class::"
@@ -132,28 +394,172 @@ public class SFEventLogsHandler implements RequestHandler<ScheduledEvent, String
 				e.printStackTrace();
 			}
 		}
+		return bytesStored;
+	}
+	
+	/**
+	 * Check if the event log file is already stored in S3, because a run stored it without updating the manifest, 
+	 * E.G. when the function timed out. Every object the file is stored as must have been stored from the same 
+	 * Id, LogFileLength and LastModifiedDate. This is a HEAD request per object, so it can be turned off 
+	 * with the environment variable 'skipUnchangedInS3' set to false. Without the s3:ListBucket permission
+	 * S3 answers 403 for a missing object, which is treated as not stored.
+	 * @param eventLog
+	 * @param s3Client
+	 * @param org The org the file is from.
+	 * @return True if the file does not need to be downloaded again.
+	 * @throws Exception
+	 */
+	boolean isUnchangedInS3(SFEventLogFile eventLog, AmazonS3 s3Client, OrgConfig org) throws Exception{
+		if(!EnvUtils.getBoolean("skipUnchangedInS3", true)) {
+			return false;
+		}
+		String destBucket = EnvUtils.getString("salesforceLogFileDstBkt", null);
+		for(String keyName: getDestKeyNames(eventLog, getOutputFormat(), getCompressionCodec(), org.getLogFileKeyPrefix())) {
+			if(!S3LogFileMetadata.isStored(s3Client, destBucket, keyName, eventLog)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Tag the stored objects with the checksum of the downloaded file. The file has been stored at this point, 
+	 * so a failure to tag it, E.G. a missing s3:PutObjectTagging permission, is only logged.
+	 */
+	private void setChecksum(AmazonS3 s3Client, String bucket, List<String> keyNames, String checksum, LambdaLogger logger) {
+		for(String keyName: keyNames) {
+			try {
+				S3LogFileMetadata.setChecksum(s3Client, bucket, keyName, checksum);
+			}catch(Exception e) {
+				logger.log("\n Warning: Unable to tag " + keyName + " with its checksum, " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Open a parallel multipart upload to S3, and return the stream to write the file to.
+	 * The upload is only started once the file is larger than a part, smaller files are stored with a single PUT.
+	 * The upload is added to the passed in list, so it can be aborted if the transfer fails.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @param contentType
+	 * @param eventLog The source event log file, stored in the metadata of the object.
+	 * @param fileSize Size of the source file, or -1 if not known. Used to choose the part size.
+	 * @param codec Codec to compress the file with, or null.
+	 * @param uploads
+	 * @return Stream to write the file to, closing it completes the upload.
+	 * @throws Exception
+	 */
+	private OutputStream openS3Upload(AmazonS3 s3Client, String bucket, String key, String contentType, SFEventLogFile eventLog, 
+			long fileSize, CompressionCodec codec, List<S3MultipartOutputStream> uploads) throws Exception {
+		
+		ObjectMetadata meta = new ObjectMetadata();
+		meta.setContentType(contentType);
+		S3LogFileMetadata.setSource(meta, eventLog);
+		if(codec != null) {
+			meta.setContentEncoding(codec.getContentEncoding());
+		}
+		int partSize = S3MultipartOutputStream.getPartSize(EnvUtils.getInt("multipartPartSizeMB", DEFAULT_PART_SIZE_MB) * MB, fileSize);
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, bucket, key, meta, partSize, 
+				EnvUtils.getInt("multipartPartConcurrency", DEFAULT_PART_CONCURRENCY), EnvUtils.getInt("multipartPartRetries", DEFAULT_PART_RETRIES));
+		uploads.add(out);
+		return (codec != null) ? codec.compress(out) : out;
+	}
+	
+	/**
+	 * Get the key names of all the objects the event log file is stored as, for the output format.
+	 * The .csv key name is first, and the .parquet key name is last.
+	 * @param eventLog
+	 * @param outputFormat
+	 * @param codec Codec the .csv file is compressed with, or null.
+	 * @param keyPrefix Key prefix of the org, E.G. prod/ when several orgs are ingested, or an empty string.
+	 * @return The key names.
+	 */
+	static List<String> getDestKeyNames(SFEventLogFile eventLog, OutputFormat outputFormat, CompressionCodec codec, String keyPrefix) {
+		List<String> keyNames = new ArrayList<>();
+		String destKeyName = getDestKeyName(eventLog);
+		if(outputFormat != OutputFormat.PARQUET) {
+			keyNames.add(keyPrefix + destKeyName + ".csv" + (codec != null ? codec.getFileExtension() : ""));
+		}
+		if(outputFormat != OutputFormat.CSV) {
+			keyNames.add(keyPrefix + EnvUtils.getString("parquetKeyPrefix", "parquet/") + destKeyName + ".parquet");
+		}
+		return keyNames;
+	}
+	
+	/**
+	 * Get the destination key name of the event log file, without the file extension.
+	 * Daily log files are stored as yyyy-MM-dd/EventType. Salesforce can publish several hourly log files for the same 
+	 * EventType and hour, so hourly log files are stored as yyyy-MM-dd/HH/EventType-Sequence to keep them from overwriting each other.
+	 * @param eventLog
+	 * @return The key name.
+	 */
+	static String getDestKeyName(SFEventLogFile eventLog) {
+		
+		// Determine folder location based on Log Date
+		String logDate = SalesforceBO.toSoqlDateTime(eventLog.getLogDate());
+		if(logDate == null) {
+			logDate = LocalDateTime.now().format(SalesforceBO.SOQL_DATETIME_FORMATTER);
+		}
+		String destFolder = logDate.substring(0, 10);
+		
+		if("Hourly".equalsIgnoreCase(eventLog.getInterval())) {
+			return destFolder + File.separator + logDate.substring(11, 13) + File.separator + eventLog.getEventType() + "-" + eventLog.getSequence();
+		}
+		return destFolder + File.separator + eventLog.getEventType();
+	}
+	
+	/**
+	 * Get the new water-mark time-stamp from the ingestion manifest. This is the latest LogDate of all the ingested 
+	 * event log files, minus 'watermarkOverlapDays' days (default 1), or minus 'watermarkOverlapHours' hours if it is set. 
+	 * A short overlap in hours keeps the query small when the function runs hourly on hourly event log files. The overlap makes sure we will also get event log files 
+	 * that are made available late by Salesforce. Files in the overlap that we already have are skipped by the manifest, 
+	 * so the overlap only costs query rows, not downloads.
+	 * The water-mark is never moved backwards.
+	 * @param manifest
+	 * @param wtrMrkStr The current water-mark time-stamp.
+	 * @return The new water-mark time-stamp.
+	 */
+	private String getUpdatedWatermarkTimestamp(IngestionManifest manifest, String wtrMrkStr) {
+		return getUpdatedWatermarkTimestamp(manifest.getHighWaterMark(), wtrMrkStr);
+	}
+	
+	/**
+	 * Get the new water-mark time-stamp from the latest LogDate of the ingested event log files, minus the overlap.
+	 * @param highWaterMark The latest LogDate as a SOQL date-time, or null if no files were ingested.
+	 * @param wtrMrkStr The current water-mark time-stamp.
+	 * @return The new water-mark time-stamp.
+	 */
+	static String getUpdatedWatermarkTimestamp(String highWaterMark, String wtrMrkStr) {
+		
+		String updatedWtrMrk = wtrMrkStr;
+		if(highWaterMark != null) {
+			
+			int overlapHours = Math.max(EnvUtils.getInt("watermarkOverlapHours", EnvUtils.getInt("watermarkOverlapDays", 1) * 24), 0);
+			highWaterMark = LocalDateTime.parse(highWaterMark, SalesforceBO.SOQL_DATETIME_FORMATTER).minusHours(overlapHours).format(SalesforceBO.SOQL_DATETIME_FORMATTER);
+			if(highWaterMark.compareTo(wtrMrkStr) > 0) {
+				updatedWtrMrk = highWaterMark;
+			}
+		}
+		return updatedWtrMrk;
 	}
 	
 	/**
 	 * Update the water-mark time stamp when the process has successfully ended.
-	 * We will update the water-mark time-stamp to the current time - 1 day. 
-	 * This is because an event log file is first created when an event occurs, 
-	 * but won't be available for download before 24 hours later. So by subtracting 1 day when updating the water-mark, 
-	 * will ensure that we will get all the log files.
 	 * @param s3Client
+	 * @param org The org the water-mark file belongs to.
+	 * @param updatedWtrMrk
 	 * @throws Exception 
 	 */
-	private void updateWatermarkTimestamp(AmazonS3 s3Client) throws Exception{
+	void updateWatermarkTimestamp(AmazonS3 s3Client, OrgConfig org, String updatedWtrMrk) throws Exception{
 		String wtrMrkFileBkt  = "";
 		String wtrMrkFileName = "";
 		try {
 			
-			if(Boolean.valueOf(System.getenv("updateWtrMrkTimestamp"))){
-		 		wtrMrkFileBkt  = System.getenv("salesforceEventLogFilesWatermarkBkt");
-				wtrMrkFileName = System.getenv("watermarkFile");
-				
-				// Update water-mark with current time stamp value.
-				String updatedWtrMrk = LocalDateTime.now().minusDays(1).format(SalesforceBO.formatter);
+			if(EnvUtils.getBoolean("updateWtrMrkTimestamp", false)){
+		 		wtrMrkFileBkt  = EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null);
+				wtrMrkFileName = org.getWatermarkFile();
 				s3Client.putObject(wtrMrkFileBkt, wtrMrkFileName, updatedWtrMrk);
 			}
 			
@@ -165,26 +571,42 @@ public class SFEventLogsHandler implements RequestHandler<ScheduledEvent, String
 		}
 	}
 	
+	/**
+	 * Save the files that were stored before a run failed, so the next run will not download them again.
+	 * Errors are only logged, so they don't hide the error that failed the run.
+	 * @param manifest
+	 * @param s3Client
+	 * @param logger
+	 */
+	private void saveManifestAfterFailure(IngestionManifest manifest, AmazonS3 s3Client, LambdaLogger logger) {
+		try {
+			manifest.save(s3Client);
+		}catch(Exception e) {
+			logger.log("\n " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Read the water-mark from file in S3 bucket location. If the water-mark time-stamp file does not exist, 
-	 * then we will create it and default time-stamp to 2020-01-01 in order to get all logs available after this date.
+	 * then we will create it with the time-stamp from 'initialWatermark', default 2020-01-01, in order to get all logs available after this date.
 	 * @param s3Client
+	 * @param org The org the water-mark file belongs to.
 	 * @return The water-mark time-stamp value
 	 * @throws Exception 
 	 */
-	private String readWatermarkTimestampForEventLogs(AmazonS3 s3Client) throws Exception{
+	String readWatermarkTimestampForEventLogs(AmazonS3 s3Client, OrgConfig org) throws Exception{
 		String wtrMrkStr      = "";
 		String wtrMrkFileBkt  = "";
 		String wtrMrkFileName = "";
 		try {
 				
-			wtrMrkFileBkt  = System.getenv("salesforceEventLogFilesWatermarkBkt");
-			wtrMrkFileName = System.getenv("watermarkFile");
+			wtrMrkFileBkt  = EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null);
+			wtrMrkFileName = org.getWatermarkFile();
 			
 			// Create the file if it does not exist and write water-mark date to file
 			if(!s3Client.doesObjectExist(wtrMrkFileBkt, wtrMrkFileName)){
 				
-				wtrMrkStr = "2020-01-01T00:00:00Z";
+				wtrMrkStr = EnvUtils.getString("initialWatermark", "2020-01-01T00:00:00Z");
 				s3Client.putObject(wtrMrkFileBkt, wtrMrkFileName, wtrMrkStr);
 				
 			}else {
@@ -204,35 +626,92 @@ public class SFEventLogsHandler implements RequestHandler<ScheduledEvent, String
 	}
 	
 	/**
-	 * 
-	 * @param in
-	 * @return The size of the file from the InputStream
-	 * @throws Exception
+	 * Get the size of the event log file without reading it. The Content-Length of the response is used when present, 
+	 * since it is the exact number of bytes we will read. Otherwise we will use the LogFileLength from Salesforce, 
+	 * which is only an estimate used to size the upload parts and the index.
+	 * @param eventLog
+	 * @param entity
+	 * @return The size of the file, or -1 if the size is not known.
 	 */
-	private long getFileSize(InputStream in) throws Exception {
+	static long getFileSize(SFEventLogFile eventLog, HttpEntity entity) {
 		
-		long size = 0;
-		if(in != null) {
-			try {
-				int nRead = 0;
-				byte[] byteArr = new byte[1024 * 1024];
-				while((nRead = in.read(byteArr, 0, byteArr.length)) != -1) {
-					size += nRead;
-				}
-			}catch(Exception e) {
-				Exception ex = new Exception(e.getMessage() 
-		    			+ "\n Error reading the size of .csv event log file " 
-		    			+ SFEventLogsHandler.class.getName() + "::getFileSize");
-		    	throw ex;
-			}finally {
-				try{
-					if(in != null) in.close();
-				}catch(IOException e){
-					e.printStackTrace();
+		long size = entity.getContentLength();
+		if(size < 0 && eventLog.getLogFileLength() > 0) {
+			size = eventLog.getLogFileLength();
+		}
+		return size;
+	}
+	
+	/**
+	 * Get the columns to keep for the EventType, from environment variable 'logFileColumns'. The variable lists the columns 
+	 * per EventType, E.G. API:TIMESTAMP,USER_ID,URI;Login:TIMESTAMP,USER_ID,CLIENT_IP. The columns listed for * are used 
+	 * for the EventTypes that are not listed.
+	 * @param eventType
+	 * @return Names of the columns to keep in upper case, or null to keep all the columns.
+	 */
+	static Set<String> getProjectedColumns(String eventType) {
+		String spec = EnvUtils.getString("logFileColumns", "").trim();
+		if(spec.isEmpty()) {
+			return null;
+		}
+		Set<String> columns = null;
+		for(String entry: spec.split(";")) {
+			int separator = entry.indexOf(':');
+			if(separator < 0) continue;
+			String type = entry.substring(0, separator).trim();
+			if(type.equalsIgnoreCase(eventType) || (type.equals("*") && columns == null)) {
+				columns = new HashSet<>();
+				for(String column: entry.substring(separator + 1).split(",")) {
+					if(!column.trim().isEmpty()) columns.add(column.trim().toUpperCase(Locale.ROOT));
 				}
+				if(type.equalsIgnoreCase(eventType)) break;
 			}
 		}
-		
-		return size;
+		return columns;
+	}
+	
+	/**
+	 * @return Number of event log files to transfer at the same time, from environment variable 'transferConcurrency'.
+	 */
+	static int getTransferConcurrency() {
+		return Math.max(EnvUtils.getInt("transferConcurrency", DEFAULT_TRANSFER_CONCURRENCY), 1);
+	}
+	
+	/**
+	 * @return The error policy from environment variable 'transferErrorPolicy', FAIL_FAST (default) or COLLECT_ALL.
+	 */
+	static LogFileTransferEngine.ErrorPolicy getTransferErrorPolicy() {
+		return LogFileTransferEngine.ErrorPolicy.valueOf(EnvUtils.getString("transferErrorPolicy", "FAIL_FAST").toUpperCase());
+	}
+	
+	/**
+	 * @return Files of this size in bytes or larger are downloaded as parallel byte ranges, from environment variable 
+	 * 'rangeDownloadThresholdMB', 0 (default) to always download files over a single connection.
+	 */
+	private static long getRangeDownloadThreshold() {
+		return (long) EnvUtils.getInt("rangeDownloadThresholdMB", 0) * MB;
+	}
+	
+	/**
+	 * @return Files of this size in bytes or larger are stored as multipart uploads, from environment variable 'multipartThresholdMB'.
+	 */
+	private static long getMultipartThreshold() {
+		return (long) EnvUtils.getInt("multipartThresholdMB", DEFAULT_MULTIPART_THRESHOLD_MB) * MB;
+	}
+	
+	/**
+	 * @return The codec used to compress the event log files, from environment variable 'logFileCompression' (none or gzip), 
+	 * or null if the files are stored uncompressed.
+	 * @throws Exception
+	 */
+	private static CompressionCodec getCompressionCodec() throws Exception {
+		return CompressionCodec.forName(EnvUtils.getString("logFileCompression", "none"));
+	}
+	
+	/**
+	 * @return Format of the stored files, from environment variable 'logFileOutputFormat' (CSV, PARQUET or CSV_AND_PARQUET, default CSV).
+	 */
+	static OutputFormat getOutputFormat() {
+		return OutputFormat.valueOf(EnvUtils.getString("logFileOutputFormat", "CSV").toUpperCase());
 	}
 }
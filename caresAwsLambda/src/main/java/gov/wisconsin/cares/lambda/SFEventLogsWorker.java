@@ -0,0 +1,124 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Worker of the fan-out mode: transfers the event log files of the work items sent by SFEventLogsCoordinator,
+ * triggered by the SQS work queue. Many workers can run at the same time, each in its own Lambda container.
+ * <p>
+ * A work item can be delivered more than once, so processing it again is harmless: an item with a completion marker
+ * is skipped, and files already stored in S3 from the same version are not downloaded again. An item of a run 
+ * the coordinator has already finished is ignored, so no completion marker is left behind.
+ * The completion marker is only stored when every file of the item is stored. If a file fails, or the worker
+ * runs out of time, the invocation fails so SQS delivers the item again after the visibility timeout.
+ * The failure notification email is only sent when the item will not be delivered again.
+ * @author andersx
+ *
+ */
+public class SFEventLogsWorker implements RequestHandler<SQSEvent, String> {
+
+	private SFEventLogsHandler handler = new SFEventLogsHandler();
+
+	@Override
+	public String handleRequest(SQSEvent event, Context context) {
+
+		String response = "200 OK";
+		LambdaLogger logger = context.getLogger();
+		String environment = EnvUtils.getString("ENV", null);
+		boolean lastReceive = false;
+
+		try {
+
+			logger.log("\n Environment is: " + environment);
+			LambdaResources.startInvocation();
+			LambdaStartup.report(logger);
+			for(SQSEvent.SQSMessage message: event.getRecords()) {
+				lastReceive = SqsWorkQueue.isLastReceive(message);
+				this.process(LambdaResources.getObjectMapper().readValue(message.getBody(), WorkItem.class), context);
+			}
+
+		}catch (Exception e) {
+			LambdaResources.invalidate();
+			if(lastReceive) {
+				EmailManager.sendFailureNotificationEmail(environment);
+				logger.log("\n Error: Unable to process work item, it will not be delivered again");
+			}else {
+				logger.log("\n Error: Unable to process work item, it will be delivered again");
+			}
+			logger.log("\n Function Name: " + context.getFunctionName() + "\n");
+			e.printStackTrace();
+
+			// Fail the invocation, so the messages are not deleted from the queue
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		logger.log("\n RESPONSE: " + response + "\n");
+		return response;
+	}
+
+	/**
+	 * Transfer the event log files of the work item to S3, and store its completion marker.
+	 * @param item
+	 * @param context
+	 * @return Summary of the transferred files, or null if the item was already done or its run is finished.
+	 * @throws Exception if any file could not be stored.
+	 */
+	public TransferSummary process(WorkItem item, Context context) throws Exception {
+
+		LambdaLogger logger = context.getLogger();
+		AmazonS3 s3Client = LambdaResources.getS3Client();
+		String bucket = EnvUtils.getString("salesforceEventLogFilesWatermarkBkt", null);
+		String runFileName = WorkRun.getRunFileName();
+		if(!WorkRun.isInProgress(s3Client, bucket, runFileName, item)) {
+			logger.log("\n Run of the work item is finished, ignoring: " + item);
+			return null;
+		}
+		if(WorkRun.isDone(s3Client, bucket, runFileName, item)) {
+			logger.log("\n Work item already done, skipping: " + item);
+			return null;
+		}
+		logger.log("\n Processing " + item);
+
+		RunMetrics metrics = new RunMetrics(logger, context.getFunctionName());
+		SalesforceBO sfBO = new SalesforceBO(context, SFEventLogsHandler.getTransferConcurrency());
+		long start = System.currentTimeMillis();
+		sfBO.getSalesforceAccessToken();
+		metrics.recordStage(RunMetrics.STAGE_TOKEN, System.currentTimeMillis() - start);
+
+		TransferSummary summary;
+		LogFileTransferEngine engine = new LogFileTransferEngine(SFEventLogsHandler.getTransferConcurrency(),
+				SFEventLogsHandler.getTransferErrorPolicy(), sfBO.getApiController(), logger);
+		try (TransferScheduler scheduler = new TransferScheduler(context)) {
+			summary = engine.transferAll(EventLogFileSource.of(item.getEventLogs()), eventLog -> {
+				if(handler.isUnchangedInS3(eventLog, s3Client, sfBO.getOrg())) {
+					return LogFileTransferEngine.SKIPPED;
+				}
+				return handler.storeLogFileInS3(eventLog, s3Client, sfBO, metrics);
+			}, scheduler);
+		}finally {
+			engine.shutdown();
+			logger.log("\n " + sfBO.getApiController());
+		}
+		metrics.recordRun(summary);
+
+		if(summary.isIncomplete()) {
+			throw new Exception("Work item " + item.getItemId() + " stopped before the time limit, " + summary.getFilesDeferred()
+					+ " event log file(s) deferred. Lower 'workItemMaxMB' if this keeps happening. "
+					+ SFEventLogsWorker.class.getName() + "::process");
+		}
+		
+		// The run may have been finished by another delivery of the item while this one was transferring
+		if(!WorkRun.isInProgress(s3Client, bucket, runFileName, item)) {
+			logger.log("\n Run of the work item finished while it was processed, not marking it done: " + item);
+			return summary;
+		}
+		WorkRun.markDone(s3Client, bucket, runFileName, item);
+		return summary;
+	}
+}
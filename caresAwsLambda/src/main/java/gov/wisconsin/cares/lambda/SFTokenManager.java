@@ -0,0 +1,116 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFaccessToken;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the Salesforce access token between invocations while the container stays warm.
+ * Salesforce does not return the lifetime of a token from the JWT bearer flow, so the token is treated as
+ * expired 'salesforceTokenRefreshMarginMinutes' before the org session timeout 'salesforceSessionTimeoutMinutes',
+ * and a new one is requested before that happens.
+ * Refreshes are single-flight: when several transfers find the same token rejected, only the first one
+ * requests a new token and the others reuse it.
+ * @author andersx
+ *
+ */
+public class SFTokenManager {
+
+	/**
+	 * Requests a new access token from Salesforce.
+	 */
+	public interface TokenRequest {
+		SFaccessToken requestToken() throws Exception;
+	}
+
+	private static final Map<String, SFTokenManager> INSTANCES = new ConcurrentHashMap<>();
+
+	private long sessionTimeoutMillis;
+	private long refreshMarginMillis;
+	private volatile SFaccessToken token;
+	private volatile long expiresAt;
+	private int refreshCount;
+
+	SFTokenManager(long sessionTimeoutMillis, long refreshMarginMillis) {
+		this.sessionTimeoutMillis = sessionTimeoutMillis;
+		this.refreshMarginMillis = refreshMarginMillis;
+	}
+
+	/**
+	 * @return The token manager of the org configured by the environment variables, shared by all invocations in this container.
+	 */
+	public static SFTokenManager getInstance() {
+		return getInstance(SalesforceOrgs.DEFAULT_ORG);
+	}
+	
+	/**
+	 * @param orgName
+	 * @return The token manager of the org, shared by all invocations in this container. Each org caches its own token.
+	 */
+	public static SFTokenManager getInstance(String orgName) {
+		return INSTANCES.computeIfAbsent(orgName, name -> new SFTokenManager(
+				TimeUnit.MINUTES.toMillis(EnvUtils.getInt("salesforceSessionTimeoutMinutes", 120)),
+				TimeUnit.MINUTES.toMillis(EnvUtils.getInt("salesforceTokenRefreshMarginMinutes", 10))));
+	}
+
+	/**
+	 * Get the cached token, or request a new one if there is no token or it is about to expire.
+	 * @param tokenRequest
+	 * @return A valid access token.
+	 * @throws Exception
+	 */
+	public SFaccessToken getToken(TokenRequest tokenRequest) throws Exception {
+		SFaccessToken current = token;
+		if(current != null && System.currentTimeMillis() < expiresAt - refreshMarginMillis) {
+			return current;
+		}
+		return this.refresh(current, tokenRequest);
+	}
+
+	/**
+	 * Replace a token that Salesforce has rejected. If another thread already replaced it, that token is returned
+	 * without calling Salesforce again.
+	 * @param staleToken The token that was rejected, or null.
+	 * @param tokenRequest
+	 * @return The new access token.
+	 * @throws Exception
+	 */
+	public synchronized SFaccessToken refresh(SFaccessToken staleToken, TokenRequest tokenRequest) throws Exception {
+		if(token != staleToken && token != null) {
+			return token;
+		}
+		try {
+			long requestedAt = System.currentTimeMillis();
+			SFaccessToken newToken = tokenRequest.requestToken();
+			long issuedAt = newToken.getIssuedAt() > 0 ? Math.min(newToken.getIssuedAt(), requestedAt) : requestedAt;
+			expiresAt = issuedAt + sessionTimeoutMillis;
+			token = newToken;
+			refreshCount++;
+		}catch(Exception e) {
+			token = null;
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error refreshing Salesforce access token in "
+	    			+ SFTokenManager.class.getName() + "::refresh");
+	    	throw ex;
+		}
+		return token;
+	}
+
+	/**
+	 * Drop the cached token, so the next call to getToken will request a new one.
+	 */
+	public synchronized void invalidate() {
+		token = null;
+		expiresAt = 0;
+	}
+
+	/**
+	 * @return Number of tokens requested from Salesforce by this container.
+	 */
+	public synchronized int getRefreshCount() {
+		return refreshCount;
+	}
+}
@@ -1,22 +1,30 @@
 package gov.wisconsin.cares.lambda;
 
+import gov.wisconsin.cares.pojo.OrgConfig;
 import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.SFQueryResult;
 import gov.wisconsin.cares.pojo.SFaccessToken;
+import gov.wisconsin.cares.util.EnvUtils;
 import gov.wisconsin.cares.util.JWTUtils;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
@@ -24,36 +32,129 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.message.BasicNameValuePair;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.apache.http.util.EntityUtils;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.s3.model.S3Object;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 
 public class SalesforceBO {
 	
 	private LambdaLogger logger;
 	private HttpClient httpclient;
-	private SFaccessToken sfAccessToken;
+	private OrgConfig org;
+	private SFTokenManager tokenManager;
+	private SFApiController apiController;
 	private String queryEndpoint = "/services/data/~/query/?q=";
 	public static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'00:00:00'Z'");
-	static final String EVNT_LOG_FILES_QUERY = "SELECT Id, EventType, LogDate, LogFileLength, LogFile FROM EventLogFile Where LogDate >= ";
+	public static final DateTimeFormatter SOQL_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	private static final DateTimeFormatter SF_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	private static final ObjectReader EVENT_LOG_FILE_READER = LambdaResources.getObjectMapper().readerFor(SFEventLogFile.class);
+	static final String EVNT_LOG_FILES_QUERY = "SELECT Id, EventType, LogDate, LogFileLength, LastModifiedDate, LogFileFieldNames, LogFileFieldTypes, Interval, Sequence, CreatedDate, LogFile FROM EventLogFile Where LogDate >= ";
 
 	public SalesforceBO(Context context) throws Exception{
+		this(context, 1);
+	}
+	
+	/**
+	 * @param context
+	 * @param maxConnections Number of pooled connections, should match the number of concurrent file transfers.
+	 * @throws Exception
+	 */
+	public SalesforceBO(Context context, int maxConnections) throws Exception{
+		this(context, maxConnections, SalesforceOrgs.getDefaultOrg());
+	}
+	
+	/**
+	 * @param context
+	 * @param maxConnections Number of pooled connections, should match the number of concurrent file transfers.
+	 * @param org The org to call, with its own credentials, token cache and api version.
+	 * @throws Exception
+	 */
+	public SalesforceBO(Context context, int maxConnections, OrgConfig org) throws Exception{
 		this.logger = context.getLogger();
-		this.httpclient = HttpClientBuilder.create().build();
+		this.org = org;
+		this.tokenManager = SFTokenManager.getInstance(org.getName());
+		
+		// Allow a couple of extra connections for the token and query calls
+		this.httpclient = LambdaResources.getHttpClient(maxConnections + 2);
+		this.apiController = new SFApiController(maxConnections, logger);
 		this.setAPIVersionInQueryEndpoint();
 	}
 	
-	private String getAccessToken(){
-		String token = "";
-		if(sfAccessToken != null) token = sfAccessToken.getAccesToken();
-		return token;
+	/**
+	 * @return The cached access token, a new token is requested from Salesforce if it is missing or about to expire.
+	 * @throws Exception
+	 */
+	private SFaccessToken getAccessToken() throws Exception{
+		return tokenManager.getToken(this::requestAccessToken);
+	}
+	
+	/**
+	 * Execute an authorized request against the Salesforce instance. If Salesforce rejects the access token with a 401, 
+	 * the token is refreshed and the request is retried once.
+	 * Requests failing with 429, 5xx or an I/O error are retried with backoff by the api controller, 
+	 * and every response is recorded by the controller to track the api usage of the org.
+	 * @param request
+	 * @param path Path of the request on the Salesforce instance.
+	 * @param latencySample True if the response time should be used to adjust the number of concurrent transfers.
+	 * @return The response.
+	 * @throws Exception
+	 */
+	private HttpResponse executeAuthorized(HttpRequestBase request, String path, boolean latencySample) throws Exception{
+		for(int attempt = 1; ; attempt++) {
+			
+			HttpResponse response = null;
+			try {
+				long start = System.currentTimeMillis();
+				response = this.executeWithToken(request, path);
+				apiController.recordResponse(response, latencySample ? System.currentTimeMillis() - start : -1);
+			}catch(IOException e) {
+				apiController.recordFailure(e);
+				if(!apiController.canRetry(attempt)) {
+					throw e;
+				}
+				logger.log("\n Salesforce api request failed with " + e + ", attempt " + attempt + ", retrying: " + path);
+			}
+			
+			if(response != null) {
+				int status = response.getStatusLine().getStatusCode();
+				if(!apiController.isRetryable(status) || !apiController.canRetry(attempt)) {
+					return response;
+				}
+				EntityUtils.consumeQuietly(response.getEntity());
+				logger.log("\n Salesforce api request failed with status " + status + ", attempt " + attempt + ", retrying: " + path);
+			}
+			apiController.backoff(attempt, response);
+			request.reset();
+		}
+	}
+	
+	/**
+	 * Execute the request with the cached access token, and retry once with a new token if Salesforce rejects it.
+	 */
+	private HttpResponse executeWithToken(HttpRequestBase request, String path) throws Exception{
+		SFaccessToken token = this.getAccessToken();
+		request.setURI(URI.create(token.getInstanceurl() + path));
+		request.setHeader("Authorization", "Bearer " + token.getAccesToken());
+		
+		HttpResponse response = httpclient.execute(request);
+		if(response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+			
+			EntityUtils.consumeQuietly(response.getEntity());
+			logger.log("\n Salesforce access token was rejected, retrying request with a new token: " + path);
+			token = tokenManager.refresh(token, this::requestAccessToken);
+			request.setURI(URI.create(token.getInstanceurl() + path));
+			request.setHeader("Authorization", "Bearer " + token.getAccesToken());
+			response = httpclient.execute(request);
+		}
+		return response;
 	}
 	
 	private String encodeValue(String value) throws Exception{
@@ -67,7 +168,7 @@ public class SalesforceBO {
 	private void setAPIVersionInQueryEndpoint() throws Exception{
 		
 		try{
-			String apiVersion = System.getenv("salesforceAPIversion");
+			String apiVersion = org.getSalesforceAPIversion();
 			if(apiVersion != null && !apiVersion.trim().equals("")) {
 				
 				apiVersion = apiVersion.trim();
@@ -91,28 +192,154 @@ public class SalesforceBO {
 		}
 	}
 	
+	/**
+	 * @return The org this calls.
+	 */
+	public OrgConfig getOrg() {
+		return org;
+	}
+	
+	/**
+	 * @return The controller of the api usage and the number of concurrent transfers for this org.
+	 */
+	public SFApiController getApiController() {
+		return apiController;
+	}
+	
+	/**
+	 * @return The logger of the invocation this calls Salesforce for.
+	 */
+	public LambdaLogger getLogger() {
+		return logger;
+	}
+	
 	/**
 	 * This will make a call to the Salesforce Rest api to get data for all event log files 
-	 * with log date equal to or after the water-mark time-stamp
+	 * with log date equal to or after the water-mark time-stamp.
+	 * All the pages of the query result are read before returning, use queryLogFiles to read them one page at a time.
 	 * @param wtrMrkTimestampStr
 	 * @return
 	 * @throws Exception
 	 */
 	public List<SFEventLogFile> getLogFiles(String wtrMrkTimestampStr) throws Exception{
+		List<SFEventLogFile> sfLogFileList = new ArrayList<>();
+		EventLogFileCursor cursor = this.queryLogFiles(wtrMrkTimestampStr);
+		while(cursor.hasNext()) {
+			sfLogFileList.add(cursor.next());
+		}
+		return sfLogFileList;
+	}
+	
+	/**
+	 * This will make a call to the Salesforce Rest api to get the first page of event log files 
+	 * with log date equal to or after the water-mark time-stamp. 
+	 * The following pages are requested by the returned cursor as the files are read.
+	 * If 'eventLogInterval' is set to Hourly or Daily, only event log files of that interval are returned,
+	 * and only the EventTypes allowed by 'eventTypeAllowList' and 'eventTypeDenyList' are returned.
+	 * @param wtrMrkTimestampStr
+	 * @return Cursor over all the event log files matching the query.
+	 * @throws Exception
+	 */
+	public EventLogFileCursor queryLogFiles(String wtrMrkTimestampStr) throws Exception{
+		return this.queryLogFiles(wtrMrkTimestampStr, null);
+	}
+	
+	/**
+	 * This will make a call to the Salesforce Rest api to get the first page of event log files 
+	 * with log date equal to or after the from time-stamp, and before the to time-stamp. 
+	 * @param fromTimestampStr
+	 * @param toTimestampStr The end of the range, or null for no end.
+	 * @return Cursor over all the event log files matching the query.
+	 * @throws Exception
+	 */
+	public EventLogFileCursor queryLogFiles(String fromTimestampStr, String toTimestampStr) throws Exception{
+		String query = EVNT_LOG_FILES_QUERY + fromTimestampStr + (toTimestampStr != null ? " AND LogDate < " + toTimestampStr : "") + getIntervalFilter() + getEventTypeFilter();
+		return new EventLogFileCursor(this, this.getLogFilesPage(queryEndpoint + encodeValue(query)));
+	}
+	
+	/**
+	 * Get the query filter for the interval of the event log files, from environment variable 'eventLogInterval'.
+	 * Hourly event log files are only available if hourly event log files are enabled in the org.
+	 * @return The filter for Hourly or Daily, or an empty string if 'eventLogInterval' is not set or is All.
+	 * @throws Exception
+	 */
+	static String getIntervalFilter() throws Exception{
+		String interval = EnvUtils.getString("eventLogInterval", "All").trim();
+		if(interval.equalsIgnoreCase("Hourly")) {
+			return " AND Interval = 'Hourly'";
+		}else if(interval.equalsIgnoreCase("Daily")) {
+			return " AND Interval = 'Daily'";
+		}else if(!interval.equalsIgnoreCase("All") && !interval.isEmpty()) {
+			throw new Exception("Unknown eventLogInterval:" + interval + ", expected Hourly, Daily or All, "
+					+ SalesforceBO.class.getName() + "::getIntervalFilter");
+		}
+		return "";
+	}
+	
+	/**
+	 * Get the query filter for the EventTypes of the event log files, from the comma separated environment variables
+	 * 'eventTypeAllowList' (only these types) and 'eventTypeDenyList' (all types but these). 
+	 * Filtering in the query keeps the files we don't want out of the query result, so they are never downloaded.
+	 * @return The filter, or an empty string if neither list is set.
+	 * @throws Exception if a name in the lists is not a valid EventType name.
+	 */
+	static String getEventTypeFilter() throws Exception{
+		StringBuilder filter = new StringBuilder();
+		String allowList = getEventTypeList("eventTypeAllowList");
+		if(allowList != null) {
+			filter.append(" AND EventType IN (").append(allowList).append(")");
+		}
+		String denyList = getEventTypeList("eventTypeDenyList");
+		if(denyList != null) {
+			filter.append(" AND EventType NOT IN (").append(denyList).append(")");
+		}
+		return filter.toString();
+	}
+	
+	/**
+	 * @return The EventType names in the environment variable as a quoted SOQL list, or null if it is not set.
+	 */
+	private static String getEventTypeList(String name) throws Exception{
+		String value = EnvUtils.getString(name, "").trim();
+		if(value.isEmpty()) {
+			return null;
+		}
+		StringBuilder list = new StringBuilder();
+		for(String eventType: value.split(",")) {
+			eventType = eventType.trim();
+			if(eventType.isEmpty()) continue;
+			if(!eventType.matches("[A-Za-z0-9_]+")) {
+				throw new Exception("Invalid EventType in " + name + ":" + eventType + ", "
+						+ SalesforceBO.class.getName() + "::getEventTypeList");
+			}
+			if(list.length() > 0) list.append(", ");
+			list.append('\'').append(eventType).append('\'');
+		}
+		return list.length() > 0 ? list.toString() : null;
+	}
+	
+	/**
+	 * Get a single page of event log files from the Salesforce Rest api.
+	 * @param queryPath The query endpoint with the query, or the nextRecordsUrl of the previous page.
+	 * @return The page of event log files.
+	 * @throws Exception
+	 */
+	public SFQueryResult getLogFilesPage(String queryPath) throws Exception{
 		HttpGet request = null;
 		HttpResponse response = null;
-		List<SFEventLogFile> sfLogFileList = new ArrayList<>();
+		SFQueryResult page = null;
 		try{
 			
-			request = new HttpGet(sfAccessToken.getInstanceurl() + queryEndpoint + encodeValue(EVNT_LOG_FILES_QUERY + wtrMrkTimestampStr));
-			request.addHeader("Authorization", "Bearer " + this.getAccessToken());
+			request = new HttpGet();
 			request.addHeader("Accept", "application/json");
 			
-			response = httpclient.execute(request);
+			response = this.executeAuthorized(request, queryPath, false);
 			int status = response.getStatusLine().getStatusCode();
 			if(status == HttpStatus.SC_OK){
 				
-	            sfLogFileList = this.parseEventLogFilesJson(this.getResponseStr(response));
+	            try (InputStream in = response.getEntity().getContent()) {
+	            	page = parseEventLogFilesJson(in);
+	            }
 	            
 			}else {
 				throw new Exception("Status code:" + status);
@@ -122,13 +349,13 @@ public class SalesforceBO {
 			if(response != null) logger.log("\n Response: " + response);
 			Exception ex = new Exception(e.getMessage() 
 	    			+ "\n Error: Unsuccessful API call to get Salesforce event logs in " 
-	    			+ SalesforceBO.class.getName() + "::getLogFiles");
+	    			+ SalesforceBO.class.getName() + "::getLogFilesPage");
 	    	throw ex;
 	    	
 		}finally {
 			if(request != null) request.releaseConnection();
 		}
-		return sfLogFileList;
+		return page;
 	}
 	
 	/**
@@ -138,19 +365,29 @@ public class SalesforceBO {
 	 * @throws Exception
 	 */
 	public InputStream getEventLogFile(String logFileQuery) throws Exception{
+		return this.getEventLogFileEntity(logFileQuery).getContent();
+	}
+	
+	/**
+	 * Get specific event log file from Salesforce based on the passed in query.
+	 * The returned entity gives access to both the content stream and the response Content-Length,
+	 * so the file can be streamed to S3 without reading it twice.
+	 * @param logFileQuery
+	 * @return An HttpEntity containing data for the .csv event log file.
+	 * @throws Exception
+	 */
+	public HttpEntity getEventLogFileEntity(String logFileQuery) throws Exception{
 		HttpGet request = null;
 		HttpResponse response = null;
-		InputStream in = null;
+		HttpEntity entity = null;
 		try{
 			
-			request = new HttpGet(sfAccessToken.getInstanceurl() + logFileQuery);
-			request.addHeader("Authorization", "Bearer " + this.getAccessToken());
-			
-			response = httpclient.execute(request);
+			request = new HttpGet();
+			response = this.executeAuthorized(request, logFileQuery, true);
 			int status = response.getStatusLine().getStatusCode();
 			if(status == HttpStatus.SC_OK){
 				
-				in = response.getEntity().getContent();
+				entity = response.getEntity();
 				
 			}else {
 				throw new Exception("Status code:" + status);
@@ -158,58 +395,169 @@ public class SalesforceBO {
 		}catch(Exception e){
 			
 			if(response != null) logger.log("\n Response: " + response);
+			if(request != null) request.releaseConnection();
 			Exception ex = new Exception(e.getMessage() 
 	    			+ "\n Error: Unsuccessful API call to get Salesforce event log .csv file in " 
-	    			+ SalesforceBO.class.getName() + "::getEventLogFile");
+	    			+ SalesforceBO.class.getName() + "::getEventLogFileEntity");
 	    	throw ex;
 		}
-		return in;
+		return entity;
 	}
-	
+
+	/**
+	 * Get a byte range of an event log file with an HTTP Range request, used to resume a dropped download
+	 * and to download a large file over several connections. If Salesforce ignores the Range header and returns
+	 * the whole file, the bytes before the range are skipped.
+	 * Closing the returned stream before the end of the range aborts the request, instead of reading the rest of it.
+	 * @param logFileQuery
+	 * @param start Position of the first byte.
+	 * @param end Position after the last byte, or -1 to read to the end of the file.
+	 * @return An InputStream of the bytes in the range.
+	 * @throws Exception
+	 */
+	public InputStream getEventLogFileRange(String logFileQuery, long start, long end) throws Exception{
+		HttpGet request = null;
+		HttpResponse response = null;
+		try{
+
+			request = new HttpGet();
+			request.setHeader("Range", "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end - 1) : ""));
+			response = this.executeAuthorized(request, logFileQuery, false);
+			int status = response.getStatusLine().getStatusCode();
+			if(status == HttpStatus.SC_PARTIAL_CONTENT){
+
+				return new RangeResponseStream(response.getEntity().getContent(), request);
+
+			}else if(status == HttpStatus.SC_OK) {
+
+				InputStream in = new RangeResponseStream(response.getEntity().getContent(), request);
+				for(long skipped = 0; skipped < start; ) {
+					long n = in.skip(start - skipped);
+					if(n <= 0) throw new Exception("File ended before byte " + start);
+					skipped += n;
+				}
+				return in;
+
+			}else {
+				throw new Exception("Status code:" + status);
+			}
+		}catch(Exception e){
+
+			if(response != null) logger.log("\n Response: " + response);
+			if(request != null) request.abort();
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error: Unsuccessful API call to get bytes " + start + "-" + end + " of Salesforce event log .csv file in "
+	    			+ SalesforceBO.class.getName() + "::getEventLogFileRange");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * Response stream of a range request, that aborts the request when it is closed before the end of the response,
+	 * so a dropped or cancelled range does not read the rest of it just to reuse the connection.
+	 */
+	private static class RangeResponseStream extends FilterInputStream {
+
+		private HttpGet request;
+		private boolean ended = false;
+
+		RangeResponseStream(InputStream in, HttpGet request) {
+			super(in);
+			this.request = request;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b == -1) ended = true;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n == -1) ended = true;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(ended) {
+				super.close();
+			}else {
+				request.abort();
+			}
+		}
+	}
+
 	/**
-	 * Parse the returned JSON for all the event log files and convert into list of event log objects.
-	 * @param responseJsonStr
-	 * @return List of all event log file objects returned from Salesforce.
+	 * Parse the returned JSON for a page of event log files and convert into a query result with the list of event log objects.
+	 * The JSON is read directly from the response stream with a streaming parser, one record at a time, 
+	 * so the response body is never held in memory as a string.
+	 * @param in
+	 * @return The page of event log file objects returned from Salesforce.
 	 * @throws Exception
 	 */
-	private List<SFEventLogFile> parseEventLogFilesJson(String responseJsonStr) throws Exception {
+	static SFQueryResult parseEventLogFilesJson(InputStream in) throws Exception {
 		
-		List<SFEventLogFile> sfLogFileList = new ArrayList<>();
-		if(responseJsonStr != null && !responseJsonStr.trim().equals("")) {
+		SFQueryResult page = new SFQueryResult();
+		try (JsonParser parser = EVENT_LOG_FILE_READER.getFactory().createParser(in)) {
 			
-			try{
-				
-		        JSONObject jsonObj = new JSONObject(responseJsonStr); 
-		   		int count = jsonObj.getInt("totalSize");
-		   		if(count > 0){
-		   			JSONArray records = jsonObj.getJSONArray("records");
-		   			ObjectMapper mapper = new ObjectMapper();
-		   			SFEventLogFile[] sfEventLogArr = mapper.readValue(records.toString(), SFEventLogFile[].class);
-		   			sfLogFileList = Arrays.asList(sfEventLogArr);
-		   		}
-		   		
-			}catch(Exception e){
-				Exception ex = new Exception(e.getMessage() 
-		    			+ "\n Error: Unable to parse event log files JSON response in " 
-		    			+ SalesforceBO.class.getName() + "::parseEventLogFilesJson");
-		    	throw ex;
+			if(parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new Exception("Expected a JSON object, found:" + parser.getCurrentToken());
 			}
-        }
-		return sfLogFileList;
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if("totalSize".equals(field)) {
+					page.setTotalSize(parser.getIntValue());
+				}else if("done".equals(field)) {
+					page.setDone(parser.getBooleanValue());
+				}else if("nextRecordsUrl".equals(field)) {
+					page.setNextRecordsUrl(token == JsonToken.VALUE_NULL ? null : parser.getText());
+				}else if("records".equals(field) && token == JsonToken.START_ARRAY) {
+					List<SFEventLogFile> records = new ArrayList<>();
+					while(parser.nextToken() == JsonToken.START_OBJECT) {
+						records.add(EVENT_LOG_FILE_READER.readValue(parser));
+					}
+					page.setRecords(records);
+				}else {
+					parser.skipChildren();
+				}
+			}
+	   		
+		}catch(Exception e){
+			Exception ex = new Exception(e.getMessage() 
+	    			+ "\n Error: Unable to parse event log files JSON response in " 
+	    			+ SalesforceBO.class.getName() + "::parseEventLogFilesJson");
+	    	throw ex;
+		}
+		return page;
 	}
 	
 	/**
-	 * Get the access token from Salesforce and set it into our AccessToken object.
+	 * Get the access token for making Salesforce api calls. The token is cached between invocations, 
+	 * and is only requested from Salesforce when there is no valid token.
 	 * @return Access token needed for making Salesforce api calls
 	 * @throws Exception
 	 */
 	public String getSalesforceAccessToken() throws Exception {
-		String result = "";
+		return this.getAccessToken().getAccesToken();
+	}
+	
+	/**
+	 * Request a new access token from Salesforce using the JWT bearer flow.
+	 * @return The new access token.
+	 * @throws Exception
+	 */
+	private SFaccessToken requestAccessToken() throws Exception {
+		SFaccessToken result = null;
 		HttpPost httpPost = null;
 		try {
 			
-			String jwt = JWTUtils.generateSalesforceJWT(JWTUtils.SALESFORCE_SERVICE_ACCOUNT_USER);
-	        httpPost = new HttpPost(JWTUtils.SALESFORCE_OAUTH2_URL);
+			String jwt = JWTUtils.generateSalesforceJWT(org.getSalesforceServiceAccountUser(), org.getSalesforceJWTIssuer(), 
+					org.getSalesforceJWTAudience(), SalesforceOrgs.getSigningKey(org));
+	        httpPost = new HttpPost(org.getSalesforceOauth2Url() + "/services/oauth2/token");
 	        httpPost.addHeader("Content-Type", "application/x-www-form-urlencoded");
 			
 			List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
@@ -221,9 +569,8 @@ public class SalesforceBO {
 	        int statusCode = response.getStatusLine().getStatusCode();
 	        if(statusCode == HttpStatus.SC_OK){
 	        	
-	        	ObjectMapper mapper = new ObjectMapper();
-	        	sfAccessToken = mapper.readValue(this.getResponseStr(response), SFaccessToken.class);
-	        	result = sfAccessToken.getAccesToken();
+	        	result = LambdaResources.getObjectMapper().readValue(this.getResponseStr(response), SFaccessToken.class);
+	        	logger.log("\n New Salesforce access token issued at: " + result.getIssuedAt());
 	        	
 	        }else {
 	        	throw new Exception("\n Status: " + statusCode + "\n Response: " + this.getResponseStr(response));
@@ -232,7 +579,7 @@ public class SalesforceBO {
 		}catch(Exception e){
         	Exception ex = new Exception(e.getMessage() 
 	    			+ "\n Error getting Saleforce access token in " 
-	    			+ SalesforceBO.class.getName() + "::getSalesforceAccessToken");
+	    			+ SalesforceBO.class.getName() + "::requestAccessToken");
 	    	throw ex;
 		}finally{
 	        if(httpPost != null) httpPost.releaseConnection();
@@ -291,5 +638,23 @@ public class SalesforceBO {
 		}
 		return result;
 	}
+	
+	/**
+	 * Convert a date-time returned by Salesforce, E.G. 2020-06-29T00:00:00.000+0000, 
+	 * to a UTC date-time that can be used in a SOQL query, E.G. 2020-06-29T00:00:00Z.
+	 * @param sfDateTime
+	 * @return The SOQL date-time, or null if the value could not be parsed.
+	 */
+	public static String toSoqlDateTime(String sfDateTime){
+		String result = null;
+		if(sfDateTime != null && !sfDateTime.trim().equals("")) {
+			try {
+				result = OffsetDateTime.parse(sfDateTime.trim(), SF_DATETIME_FORMATTER).withOffsetSameInstant(ZoneOffset.UTC).format(SOQL_DATETIME_FORMATTER);
+			}catch(DateTimeParseException e) {
+				System.out.println("\n Unable to parse Salesforce date-time:" + sfDateTime);
+			}
+		}
+		return result;
+	}
 }
 
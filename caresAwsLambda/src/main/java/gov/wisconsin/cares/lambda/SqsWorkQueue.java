@@ -0,0 +1,55 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sqs.AmazonSQS;
+
+/**
+ * Work queue backed by an SQS queue, which triggers the worker function SFEventLogsWorker.
+ * The work item is sent as the JSON body of the message. SQS messages are limited to 256 KB,
+ * which is well above a work item of 'workItemMaxFiles' files.
+ * A message that fails is received again by the worker after the visibility timeout, until the redrive policy
+ * of the queue moves it to the dead-letter queue after 'workQueueMaxReceiveCount' receives.
+ * @author andersx
+ *
+ */
+public class SqsWorkQueue implements WorkQueue {
+
+	public static final String RECEIVE_COUNT = "ApproximateReceiveCount";
+
+	private AmazonSQS sqsClient;
+	private String queueUrl;
+
+	public SqsWorkQueue(AmazonSQS sqsClient, String queueUrl) {
+		this.sqsClient = sqsClient;
+		this.queueUrl = queueUrl;
+	}
+
+	@Override
+	public void send(WorkItem item) throws Exception {
+		try {
+			sqsClient.sendMessage(queueUrl, LambdaResources.getObjectMapper().writeValueAsString(item));
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error sending work item:" + item + " to SQS queue:" + queueUrl + ", "
+	    			+ SqsWorkQueue.class.getName() + "::send");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * @param message
+	 * @return True if the message will not be received again when it fails, because it has been received 
+	 * 'workQueueMaxReceiveCount' (default 3, the maxReceiveCount of the redrive policy) times, or the count is not known.
+	 */
+	public static boolean isLastReceive(SQSEvent.SQSMessage message) {
+		String receiveCount = message.getAttributes() != null ? message.getAttributes().get(RECEIVE_COUNT) : null;
+		try {
+			return receiveCount == null || Integer.parseInt(receiveCount) >= EnvUtils.getInt("workQueueMaxReceiveCount", 3);
+		}catch(NumberFormatException e) {
+			return true;
+		}
+	}
+}
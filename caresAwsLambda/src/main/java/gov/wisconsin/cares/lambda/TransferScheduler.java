@@ -0,0 +1,133 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Keeps a run within the time the Lambda function has left.
+ * Before a file is started, the time needed to transfer it is estimated from its LogFileLength and the throughput
+ * observed so far. If the remaining time can not fit the file, the file is deferred to the next run.
+ * While the run is going, a checkpoint of the completed files is saved every 'checkpointIntervalSeconds',
+ * so the next invocation can resume from the checkpoint even if this one is stopped by the timeout.
+ * @author andersx
+ *
+ */
+public class TransferScheduler implements AutoCloseable {
+
+	/**
+	 * Saves the files completed so far.
+	 */
+	public interface Checkpoint {
+		void save() throws Exception;
+	}
+
+	private static final double ESTIMATE_HEADROOM = 1.25;
+
+	private Context context;
+	private LambdaLogger logger;
+	private long marginMillis;
+	private long initialRemainingMillis;
+	private double assumedBytesPerMilli;
+	private long observedBytes;
+	private long observedMillis;
+	private ScheduledExecutorService checkpointTimer;
+
+	public TransferScheduler(Context context) {
+		this.context = context;
+		this.logger = context.getLogger();
+		this.marginMillis = TimeUnit.SECONDS.toMillis(EnvUtils.getInt("timeBudgetMarginSeconds", 30));
+		this.assumedBytesPerMilli = EnvUtils.getInt("assumedThroughputMBps", 10) * 1048576.0 / 1000.0;
+		this.initialRemainingMillis = context.getRemainingTimeInMillis();
+	}
+
+	/**
+	 * @return True if there is no time left to start any more transfers.
+	 */
+	public boolean isOutOfTime() {
+		return context.getRemainingTimeInMillis() <= marginMillis;
+	}
+
+	/**
+	 * @param eventLog
+	 * @return True if the transfer of the event log file is expected to finish before the time runs out.
+	 */
+	public boolean canStart(SFEventLogFile eventLog) {
+		long estimate = this.estimateMillis(eventLog);
+		long remaining = context.getRemainingTimeInMillis() - marginMillis;
+		if(estimate <= remaining) {
+			return true;
+		}
+
+		// A file that would not fit even in a whole invocation can never be deferred to a run where it fits
+		if(estimate > initialRemainingMillis - marginMillis && remaining > 0) {
+			logger.log("\n Warning: Event log file " + eventLog.getId() + " is estimated to take " + estimate
+					+ " ms, longer than a whole invocation. Starting it anyway.");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record a finished transfer, used to estimate the time of the next transfers.
+	 * @param bytes
+	 * @param millis
+	 */
+	public synchronized void recordTransfer(long bytes, long millis) {
+		if(bytes > 0) {
+			observedBytes += bytes;
+			observedMillis += Math.max(millis, 1);
+		}
+	}
+
+	/**
+	 * Start saving a checkpoint every 'checkpointIntervalSeconds' (default 60) until the scheduler is closed.
+	 * @param checkpoint
+	 */
+	public synchronized void startCheckpoints(Checkpoint checkpoint) {
+		long interval = Math.max(EnvUtils.getInt("checkpointIntervalSeconds", 60), 1);
+		checkpointTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "transfer-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checkpointTimer.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint.save();
+			}catch(Exception e) {
+				logger.log("\n Error: Unable to save checkpoint, " + e.getMessage());
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop the checkpoints, waiting for a checkpoint in progress so it can not overwrite a later save.
+	 */
+	@Override
+	public synchronized void close() {
+		if(checkpointTimer != null) {
+			checkpointTimer.shutdown();
+			try {
+				checkpointTimer.awaitTermination(marginMillis, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			checkpointTimer = null;
+		}
+	}
+
+	/**
+	 * Estimate the time to transfer a file on one worker, from the throughput per transfer observed so far in the run,
+	 * or from 'assumedThroughputMBps' (default 10) before any transfer has finished.
+	 */
+	private synchronized long estimateMillis(SFEventLogFile eventLog) {
+		double bytesPerMilli = observedMillis > 0 ? (double) observedBytes / observedMillis : assumedBytesPerMilli;
+		return (long) (Math.max(eventLog.getLogFileLength(), 0) / bytesPerMilli * ESTIMATE_HEADROOM);
+	}
+}
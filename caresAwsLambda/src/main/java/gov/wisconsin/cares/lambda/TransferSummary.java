@@ -0,0 +1,114 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the event log files that have been transferred to S3 during a run.
+ * The counters can be updated from several transfer threads at the same time, in any order.
+ * @author andersx
+ *
+ */
+public class TransferSummary {
+
+	private AtomicLong filesTransferred = new AtomicLong();
+	private AtomicLong bytesTransferred = new AtomicLong();
+	private AtomicLong filesSkipped = new AtomicLong();
+	private AtomicLong bytesSkipped = new AtomicLong();
+	private Set<String> completedIds = ConcurrentHashMap.newKeySet();
+	private AtomicLong filesDeferred = new AtomicLong();
+	private volatile boolean incomplete = false;
+	private List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+	private long startTime = System.currentTimeMillis();
+
+	public void addCompleted(SFEventLogFile eventLog, long bytes) {
+		completedIds.add(eventLog.getId());
+		filesTransferred.incrementAndGet();
+		bytesTransferred.addAndGet(bytes);
+	}
+
+	/**
+	 * Record a file that did not need to be transferred, E.G. because it is already in S3.
+	 * @param eventLog
+	 */
+	public void addSkipped(SFEventLogFile eventLog) {
+		completedIds.add(eventLog.getId());
+		filesSkipped.incrementAndGet();
+		bytesSkipped.addAndGet(Math.max(eventLog.getLogFileLength(), 0));
+	}
+
+	/**
+	 * Record a file that was not started because it would not finish in the time left for the run.
+	 * @param eventLog
+	 */
+	public void addDeferred(SFEventLogFile eventLog) {
+		filesDeferred.incrementAndGet();
+		incomplete = true;
+	}
+
+	/**
+	 * Mark that the run stopped before all the files were read.
+	 */
+	public void setIncomplete() {
+		incomplete = true;
+	}
+
+	/**
+	 * @return True if some files were deferred to the next run.
+	 */
+	public boolean isIncomplete() {
+		return incomplete;
+	}
+
+	public long getFilesDeferred() {
+		return filesDeferred.get();
+	}
+
+	public void addFailure(SFEventLogFile eventLog, Throwable e) {
+		failures.add(eventLog.getId() + " (" + eventLog.getEventType() + "): " + e.getMessage());
+	}
+
+	public long getFilesTransferred() {
+		return filesTransferred.get();
+	}
+
+	public long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+
+	public long getFilesSkipped() {
+		return filesSkipped.get();
+	}
+
+	public long getBytesSkipped() {
+		return bytesSkipped.get();
+	}
+
+	public boolean isCompleted(String id) {
+		return completedIds.contains(id);
+	}
+
+	public List<String> getFailures() {
+		synchronized(failures) {
+			return new ArrayList<>(failures);
+		}
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+		return "TransferSummary [filesTransferred=" + filesTransferred + ", bytesTransferred=" + bytesTransferred
+				+ ", filesSkipped=" + filesSkipped + ", bytesSkipped=" + bytesSkipped + ", filesDeferred=" + filesDeferred + ", incomplete=" + incomplete + ", failures=" + failures.size() + ", elapsedMillis=" + elapsed
+				+ ", MBps=" + String.format("%.2f", (bytesTransferred.get() / 1048576.0) / (elapsed / 1000.0)) + "]";
+	}
+}
@@ -0,0 +1,14 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.WorkItem;
+
+/**
+ * Queue the coordinator sends the work items through. Each item is delivered to a worker at least once,
+ * so the workers must be able to process the same item again.
+ * @author andersx
+ *
+ */
+public interface WorkQueue {
+
+	void send(WorkItem item) throws Exception;
+}
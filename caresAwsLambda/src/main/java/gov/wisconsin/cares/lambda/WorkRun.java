@@ -0,0 +1,279 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.pojo.WorkRunState;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * A fan-out run: the event log files found by the coordinator, split into work items for the workers.
+ * The state of the run is stored as JSON in the water-mark bucket ('workRunFile', default the water-mark file + .run.json),
+ * and each worker stores an empty completion marker next to it when its item is done. The coordinator only
+ * advances the water-mark when every item of the run has its marker, so a lost or failed item is never skipped.
+ * The run id is stored in the metadata of the run file, so a worker can tell with a HEAD request if the run of its item is still in progress.
+ * @author andersx
+ *
+ */
+public class WorkRun {
+
+	public static final String RUN_ID_METADATA = "run-id";
+
+	private String bucket;
+	private String key;
+	private WorkRunState state;
+
+	private WorkRun(String bucket, String key, WorkRunState state) {
+		this.bucket = bucket;
+		this.key = key;
+		this.state = state;
+	}
+
+	/**
+	 * Read the run in progress from S3.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key
+	 * @return The run, or null if no run is in progress.
+	 * @throws Exception
+	 */
+	public static WorkRun load(AmazonS3 s3Client, String bucket, String key) throws Exception {
+		try {
+			if(!s3Client.doesObjectExist(bucket, key)) {
+				return null;
+			}
+			S3Object s3Object = s3Client.getObject(bucket, key);
+			try (InputStream in = s3Object.getObjectContent()) {
+				return new WorkRun(bucket, key, LambdaResources.getObjectMapper().readValue(in, WorkRunState.class));
+			}
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error reading work run file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ WorkRun.class.getName() + "::load");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * Start a new run, splitting the files into work items of at most 'workItemMaxMB' (default 1024) and
+	 * 'workItemMaxFiles' (default 50) files. The run is not stored until save() is called.
+	 * @param bucket
+	 * @param key
+	 * @param runId
+	 * @param watermark The water-mark time-stamp the files were queried from.
+	 * @param eventLogs
+	 * @return The run.
+	 */
+	public static WorkRun start(String bucket, String key, String runId, String watermark, List<SFEventLogFile> eventLogs) {
+		WorkRunState state = new WorkRunState();
+		state.setRunId(runId);
+		state.setWatermark(watermark);
+		for(SFEventLogFile eventLog: eventLogs) {
+			String logDate = SalesforceBO.toSoqlDateTime(eventLog.getLogDate());
+			if(logDate != null && (state.getHighWaterMark() == null || logDate.compareTo(state.getHighWaterMark()) > 0)) {
+				state.setHighWaterMark(logDate);
+			}
+		}
+		long maxBytes = Math.max(EnvUtils.getInt("workItemMaxMB", 1024), 1) * 1048576L;
+		int maxFiles = Math.max(EnvUtils.getInt("workItemMaxFiles", 50), 1);
+		state.setItems(planItems(runId, eventLogs, maxBytes, maxFiles));
+		return new WorkRun(bucket, key, state);
+	}
+
+	/**
+	 * Split the files into work items of about the same size, so the workers finish at about the same time.
+	 * The files are placed largest first, each in the first item it fits in (first-fit decreasing).
+	 * A file larger than maxBytes gets an item of its own.
+	 * @param runId
+	 * @param eventLogs
+	 * @param maxBytes
+	 * @param maxFiles
+	 * @return The work items.
+	 */
+	static List<WorkItem> planItems(String runId, List<SFEventLogFile> eventLogs, long maxBytes, int maxFiles) {
+		List<SFEventLogFile> sorted = new ArrayList<>(eventLogs);
+		sorted.sort(Comparator.comparingLong(SFEventLogFile::getLogFileLength).reversed());
+
+		List<WorkItem> items = new ArrayList<>();
+		List<Long> itemBytes = new ArrayList<>();
+		for(SFEventLogFile eventLog: sorted) {
+			long size = Math.max(eventLog.getLogFileLength(), 0);
+			int index = 0;
+			while(index < items.size() && (itemBytes.get(index) + size > maxBytes || items.get(index).getEventLogs().size() >= maxFiles)) {
+				index++;
+			}
+			if(index == items.size()) {
+				items.add(new WorkItem(runId, String.format("item-%05d", index + 1)));
+				itemBytes.add(0L);
+			}
+			items.get(index).getEventLogs().add(eventLog);
+			itemBytes.set(index, itemBytes.get(index) + size);
+		}
+		return items;
+	}
+
+	/**
+	 * Write the run to S3.
+	 * @param s3Client
+	 * @throws Exception
+	 */
+	public void save(AmazonS3 s3Client) throws Exception {
+		try {
+			byte[] content = LambdaResources.getObjectMapper().writeValueAsBytes(state);
+			ObjectMetadata meta = new ObjectMetadata();
+			meta.setContentType("application/json");
+			meta.setContentLength(content.length);
+			meta.addUserMetadata(RUN_ID_METADATA, state.getRunId());
+			s3Client.putObject(bucket, key, new ByteArrayInputStream(content), meta);
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error writing work run file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ WorkRun.class.getName() + "::save");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * Remove the run from S3 once it is finished, the completion markers are removed with it.
+	 * The run file is removed first, so a worker that gets an item of the run again from now on ignores it.
+	 * @param s3Client
+	 * @throws Exception
+	 */
+	public void close(AmazonS3 s3Client) throws Exception {
+		try {
+			s3Client.deleteObject(bucket, key);
+			for(WorkItem item: state.getItems()) {
+				s3Client.deleteObject(bucket, getDoneKey(key, item));
+			}
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error removing work run file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ WorkRun.class.getName() + "::close");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * @param s3Client
+	 * @return The work items of the run that have no completion marker yet.
+	 */
+	public List<WorkItem> getPendingItems(AmazonS3 s3Client) {
+		List<WorkItem> pending = new ArrayList<>();
+		for(WorkItem item: state.getItems()) {
+			if(!isDone(s3Client, bucket, key, item)) pending.add(item);
+		}
+		return pending;
+	}
+
+	/**
+	 * Record that the pending items were sent to the queue now.
+	 */
+	public void markDispatched() {
+		state.setDispatchedMillis(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return True if the items were sent more than 'workItemTimeoutMinutes' (default 30) ago, so an item that
+	 * is still pending has been lost or has failed on every delivery, and should be sent again.
+	 */
+	public boolean isDispatchExpired() {
+		long timeoutMillis = Math.max(EnvUtils.getInt("workItemTimeoutMinutes", 30), 1) * 60000L;
+		return System.currentTimeMillis() - state.getDispatchedMillis() > timeoutMillis;
+	}
+
+	public String getRunId() {
+		return state.getRunId();
+	}
+
+	public String getWatermark() {
+		return state.getWatermark();
+	}
+
+	public String getHighWaterMark() {
+		return state.getHighWaterMark();
+	}
+
+	public List<WorkItem> getItems() {
+		return state.getItems();
+	}
+
+	/**
+	 * Store the completion marker of the work item.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key Key of the run file.
+	 * @param item
+	 * @throws Exception
+	 */
+	public static void markDone(AmazonS3 s3Client, String bucket, String key, WorkItem item) throws Exception {
+		try {
+			s3Client.putObject(bucket, getDoneKey(key, item), "");
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error writing completion marker of work item:" + item + " in S3 bucket:" + bucket + ", "
+	    			+ WorkRun.class.getName() + "::markDone");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * Check if the run of the work item is still in progress. Once the coordinator has finished the run, the run file 
+	 * is removed or belongs to a newer run, and an item delivered again must not be transferred or marked as done, 
+	 * or its completion marker would never be removed.
+	 * @param s3Client
+	 * @param bucket
+	 * @param key Key of the run file.
+	 * @param item
+	 * @return True if the run file is stored and is the run of the work item.
+	 * @throws Exception
+	 */
+	public static boolean isInProgress(AmazonS3 s3Client, String bucket, String key, WorkItem item) throws Exception {
+		try {
+			String runId = s3Client.getObjectMetadata(bucket, key).getUserMetaDataOf(RUN_ID_METADATA);
+			if(runId == null) {
+				
+				// Run file stored without the run id in its metadata
+				WorkRun run = load(s3Client, bucket, key);
+				runId = run != null ? run.getRunId() : null;
+			}
+			return runId != null && runId.equals(item.getRunId());
+		}catch(AmazonS3Exception e) {
+			if(e.getStatusCode() == 404) {
+				return false;
+			}
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error reading work run file:" + key + " in S3 bucket:" + bucket + ", "
+	    			+ WorkRun.class.getName() + "::isInProgress");
+	    	throw ex;
+		}
+	}
+
+	/**
+	 * @return True if the completion marker of the work item is stored.
+	 */
+	public static boolean isDone(AmazonS3 s3Client, String bucket, String key, WorkItem item) {
+		return s3Client.doesObjectExist(bucket, getDoneKey(key, item));
+	}
+
+	/**
+	 * @return Name of the work run file in the water-mark bucket, from environment variable 'workRunFile'.
+	 */
+	public static String getRunFileName() {
+		return EnvUtils.getString("workRunFile", EnvUtils.getString("watermarkFile", null) + ".run.json");
+	}
+
+	private static String getDoneKey(String key, WorkItem item) {
+		return key + ".done/" + item.getRunId() + "/" + item.getItemId();
+	}
+}
@@ -0,0 +1,78 @@
+package gov.wisconsin.cares.pojo;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Entry in the ingestion manifest for an event log file that has been stored in S3.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class IngestedLogFile {
+	
+	private String id;
+	private String logDate;
+	private long logFileLength;
+	private String lastModifiedDate;
+	
+	public IngestedLogFile() {
+	}
+	
+	public IngestedLogFile(SFEventLogFile eventLog) {
+		this.id = eventLog.getId();
+		this.logDate = eventLog.getLogDate();
+		this.logFileLength = eventLog.getLogFileLength();
+		this.lastModifiedDate = eventLog.getLastModifiedDate();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	@JsonProperty("id")
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getLogDate() {
+		return logDate;
+	}
+
+	@JsonProperty("logDate")
+	public void setLogDate(String logDate) {
+		this.logDate = logDate;
+	}
+
+	public long getLogFileLength() {
+		return logFileLength;
+	}
+
+	@JsonProperty("logFileLength")
+	public void setLogFileLength(long logFileLength) {
+		this.logFileLength = logFileLength;
+	}
+
+	public String getLastModifiedDate() {
+		return lastModifiedDate;
+	}
+
+	@JsonProperty("lastModifiedDate")
+	public void setLastModifiedDate(String lastModifiedDate) {
+		this.lastModifiedDate = lastModifiedDate;
+	}
+	
+	/**
+	 * @param eventLog
+	 * @return True if this entry is for the same version of the passed in event log file.
+	 */
+	public boolean matches(SFEventLogFile eventLog) {
+		return id != null && id.equals(eventLog.getId())
+				&& logFileLength == eventLog.getLogFileLength()
+				&& (lastModifiedDate == null ? eventLog.getLastModifiedDate() == null : lastModifiedDate.equals(eventLog.getLastModifiedDate()));
+	}
+
+	@Override
+	public String toString() {
+		return "IngestedLogFile [id=" + id + ", logDate=" + logDate
+				+ ", logFileLength=" + logFileLength + ", lastModifiedDate=" + lastModifiedDate + "]";
+	}
+}
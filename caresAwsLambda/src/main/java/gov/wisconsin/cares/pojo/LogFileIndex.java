@@ -0,0 +1,103 @@
+package gov.wisconsin.cares.pojo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Sidecar index of a stored event log file, written as JSON next to the file so downstream queries can skip
+ * files without reading them: the row count, the TIMESTAMP range, the estimated distinct values per column,
+ * and base64 Bloom filters of the values of selected columns.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class LogFileIndex {
+
+	private String eventLogFileId;
+	private String eventType;
+	private long rowCount;
+	private String timestampMin;
+	private String timestampMax;
+	private Map<String, Long> distinctCounts = new LinkedHashMap<>();
+	private int bloomHashCount;
+	private Map<String, String> bloomFilters = new LinkedHashMap<>();
+
+	public String getEventLogFileId() {
+		return eventLogFileId;
+	}
+
+	@JsonProperty("eventLogFileId")
+	public void setEventLogFileId(String eventLogFileId) {
+		this.eventLogFileId = eventLogFileId;
+	}
+
+	public String getEventType() {
+		return eventType;
+	}
+
+	@JsonProperty("eventType")
+	public void setEventType(String eventType) {
+		this.eventType = eventType;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	@JsonProperty("rowCount")
+	public void setRowCount(long rowCount) {
+		this.rowCount = rowCount;
+	}
+
+	public String getTimestampMin() {
+		return timestampMin;
+	}
+
+	@JsonProperty("timestampMin")
+	public void setTimestampMin(String timestampMin) {
+		this.timestampMin = timestampMin;
+	}
+
+	public String getTimestampMax() {
+		return timestampMax;
+	}
+
+	@JsonProperty("timestampMax")
+	public void setTimestampMax(String timestampMax) {
+		this.timestampMax = timestampMax;
+	}
+
+	public Map<String, Long> getDistinctCounts() {
+		return distinctCounts;
+	}
+
+	@JsonProperty("distinctCounts")
+	public void setDistinctCounts(Map<String, Long> distinctCounts) {
+		this.distinctCounts = distinctCounts;
+	}
+
+	public int getBloomHashCount() {
+		return bloomHashCount;
+	}
+
+	@JsonProperty("bloomHashCount")
+	public void setBloomHashCount(int bloomHashCount) {
+		this.bloomHashCount = bloomHashCount;
+	}
+
+	public Map<String, String> getBloomFilters() {
+		return bloomFilters;
+	}
+
+	@JsonProperty("bloomFilters")
+	public void setBloomFilters(Map<String, String> bloomFilters) {
+		this.bloomFilters = bloomFilters;
+	}
+
+	@Override
+	public String toString() {
+		return "LogFileIndex [eventLogFileId=" + eventLogFileId + ", eventType=" + eventType + ", rowCount=" + rowCount
+				+ ", timestampMin=" + timestampMin + ", timestampMax=" + timestampMax + ", bloomFilters=" + bloomFilters.keySet() + "]";
+	}
+}
@@ -0,0 +1,130 @@
+package gov.wisconsin.cares.pojo;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings of one Salesforce org, when a single deployment ingests the event logs of several orgs.
+ * The properties are named as the environment variables they replace. The signing key is given inline in jwtSigningKey,
+ * or as the name of the environment variable holding it in jwtSigningKeyVariable.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class OrgConfig {
+
+	private String name;
+	private String salesforceOauth2Url;
+	private String salesforceJWTIssuer;
+	private String salesforceJWTAudience;
+	private String salesforceServiceAccountUser;
+	private String jwtSigningKey;
+	private String jwtSigningKeyVariable;
+	private String salesforceAPIversion;
+	private String watermarkFile;
+	private String ingestionManifestFile;
+	private String logFileKeyPrefix;
+
+	public String getName() {
+		return name;
+	}
+
+	@JsonProperty("name")
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getSalesforceOauth2Url() {
+		return salesforceOauth2Url;
+	}
+
+	@JsonProperty("salesforceOauth2Url")
+	public void setSalesforceOauth2Url(String salesforceOauth2Url) {
+		this.salesforceOauth2Url = salesforceOauth2Url;
+	}
+
+	public String getSalesforceJWTIssuer() {
+		return salesforceJWTIssuer;
+	}
+
+	@JsonProperty("salesforceJWTIssuer")
+	public void setSalesforceJWTIssuer(String salesforceJWTIssuer) {
+		this.salesforceJWTIssuer = salesforceJWTIssuer;
+	}
+
+	public String getSalesforceJWTAudience() {
+		return salesforceJWTAudience;
+	}
+
+	@JsonProperty("salesforceJWTAudience")
+	public void setSalesforceJWTAudience(String salesforceJWTAudience) {
+		this.salesforceJWTAudience = salesforceJWTAudience;
+	}
+
+	public String getSalesforceServiceAccountUser() {
+		return salesforceServiceAccountUser;
+	}
+
+	@JsonProperty("salesforceServiceAccountUser")
+	public void setSalesforceServiceAccountUser(String salesforceServiceAccountUser) {
+		this.salesforceServiceAccountUser = salesforceServiceAccountUser;
+	}
+
+	public String getJwtSigningKey() {
+		return jwtSigningKey;
+	}
+
+	@JsonProperty("jwtSigningKey")
+	public void setJwtSigningKey(String jwtSigningKey) {
+		this.jwtSigningKey = jwtSigningKey;
+	}
+
+	public String getJwtSigningKeyVariable() {
+		return jwtSigningKeyVariable;
+	}
+
+	@JsonProperty("jwtSigningKeyVariable")
+	public void setJwtSigningKeyVariable(String jwtSigningKeyVariable) {
+		this.jwtSigningKeyVariable = jwtSigningKeyVariable;
+	}
+
+	public String getSalesforceAPIversion() {
+		return salesforceAPIversion;
+	}
+
+	@JsonProperty("salesforceAPIversion")
+	public void setSalesforceAPIversion(String salesforceAPIversion) {
+		this.salesforceAPIversion = salesforceAPIversion;
+	}
+
+	public String getWatermarkFile() {
+		return watermarkFile;
+	}
+
+	@JsonProperty("watermarkFile")
+	public void setWatermarkFile(String watermarkFile) {
+		this.watermarkFile = watermarkFile;
+	}
+
+	public String getIngestionManifestFile() {
+		return ingestionManifestFile;
+	}
+
+	@JsonProperty("ingestionManifestFile")
+	public void setIngestionManifestFile(String ingestionManifestFile) {
+		this.ingestionManifestFile = ingestionManifestFile;
+	}
+
+	public String getLogFileKeyPrefix() {
+		return logFileKeyPrefix;
+	}
+
+	@JsonProperty("logFileKeyPrefix")
+	public void setLogFileKeyPrefix(String logFileKeyPrefix) {
+		this.logFileKeyPrefix = logFileKeyPrefix;
+	}
+
+	@Override
+	public String toString() {
+		return "OrgConfig [name=" + name + ", salesforceOauth2Url=" + salesforceOauth2Url + ", salesforceServiceAccountUser=" + salesforceServiceAccountUser
+				+ ", salesforceAPIversion=" + salesforceAPIversion + ", watermarkFile=" + watermarkFile + ", logFileKeyPrefix=" + logFileKeyPrefix + "]";
+	}
+}
@@ -11,6 +11,12 @@ public class SFEventLogFile {
 	private String logFile;
 	private String logDate;
 	private long logFileLength;
+	private String lastModifiedDate;
+	private String logFileFieldNames;
+	private String logFileFieldTypes;
+	private String interval;
+	private int sequence;
+	private String createdDate;
 
 	public String getId() {
 		return id;
@@ -57,10 +63,65 @@ public class SFEventLogFile {
 		this.logFileLength = logFileLength;
 	}
 
+	public String getLastModifiedDate() {
+		return lastModifiedDate;
+	}
+
+	@JsonProperty("LastModifiedDate")
+	public void setLastModifiedDate(String lastModifiedDate) {
+		this.lastModifiedDate = lastModifiedDate;
+	}
+
+	public String getLogFileFieldNames() {
+		return logFileFieldNames;
+	}
+
+	@JsonProperty("LogFileFieldNames")
+	public void setLogFileFieldNames(String logFileFieldNames) {
+		this.logFileFieldNames = logFileFieldNames;
+	}
+
+	public String getLogFileFieldTypes() {
+		return logFileFieldTypes;
+	}
+
+	@JsonProperty("LogFileFieldTypes")
+	public void setLogFileFieldTypes(String logFileFieldTypes) {
+		this.logFileFieldTypes = logFileFieldTypes;
+	}
+
+	public String getInterval() {
+		return interval;
+	}
+
+	@JsonProperty("Interval")
+	public void setInterval(String interval) {
+		this.interval = interval;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	@JsonProperty("Sequence")
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getCreatedDate() {
+		return createdDate;
+	}
+
+	@JsonProperty("CreatedDate")
+	public void setCreatedDate(String createdDate) {
+		this.createdDate = createdDate;
+	}
+
 	@Override
 	public String toString() {
 		return "SFEventLogFile [id=" + id + ", eventType=" + eventType
 				+ ", logFile=" + logFile + ", logDate=" + logDate
-				+ ", logFileLength=" + logFileLength + "]";
+				+ ", logFileLength=" + logFileLength + ", lastModifiedDate=" + lastModifiedDate 
+				+ ", interval=" + interval + ", sequence=" + sequence + ", createdDate=" + createdDate + "]";
 	}
 }
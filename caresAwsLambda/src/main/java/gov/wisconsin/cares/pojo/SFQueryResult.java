@@ -0,0 +1,62 @@
+package gov.wisconsin.cares.pojo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One page of event log file records returned by the Salesforce query api.
+ * When done is false, the next page can be read from nextRecordsUrl.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class SFQueryResult {
+	
+	private int totalSize;
+	private boolean done = true;
+	private String nextRecordsUrl;
+	private List<SFEventLogFile> records = new ArrayList<>();
+
+	public int getTotalSize() {
+		return totalSize;
+	}
+
+	@JsonProperty("totalSize")
+	public void setTotalSize(int totalSize) {
+		this.totalSize = totalSize;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	@JsonProperty("done")
+	public void setDone(boolean done) {
+		this.done = done;
+	}
+
+	public String getNextRecordsUrl() {
+		return nextRecordsUrl;
+	}
+
+	@JsonProperty("nextRecordsUrl")
+	public void setNextRecordsUrl(String nextRecordsUrl) {
+		this.nextRecordsUrl = nextRecordsUrl;
+	}
+
+	public List<SFEventLogFile> getRecords() {
+		return records;
+	}
+
+	@JsonProperty("records")
+	public void setRecords(List<SFEventLogFile> records) {
+		this.records = records;
+	}
+
+	@Override
+	public String toString() {
+		return "SFQueryResult [totalSize=" + totalSize + ", done=" + done
+				+ ", nextRecordsUrl=" + nextRecordsUrl + ", records=" + records.size() + "]";
+	}
+}
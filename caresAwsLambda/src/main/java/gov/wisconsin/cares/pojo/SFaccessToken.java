@@ -11,6 +11,7 @@ public class SFaccessToken {
 	private String tokenType;
 	private String accesToken;
 	private String instanceurl;
+	private long issuedAt;
 	
 	public String getId() {
 		return id;
@@ -57,10 +58,19 @@ public class SFaccessToken {
 		this.instanceurl = instanceurl;
 	}
 
+	public long getIssuedAt() {
+		return issuedAt;
+	}
+
+	@JsonProperty("issued_at")
+	public void setIssuedAt(long issuedAt) {
+		this.issuedAt = issuedAt;
+	}
+
 	@Override
 	public String toString() {
 		return "SFaccessToken [id=" + id + ", scope=" + scope + ", tokenType="
 				+ tokenType + ", accesToken=" + accesToken + ", instanceurl="
-				+ instanceurl + "]";
+				+ instanceurl + ", issuedAt=" + issuedAt + "]";
 	}
 }
@@ -0,0 +1,71 @@
+package gov.wisconsin.cares.pojo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A batch of event log files for a worker to transfer, sent by the coordinator through the work queue.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class WorkItem {
+
+	private String runId;
+	private String itemId;
+	private List<SFEventLogFile> eventLogs = new ArrayList<>();
+
+	public WorkItem() {
+	}
+
+	public WorkItem(String runId, String itemId) {
+		this.runId = runId;
+		this.itemId = itemId;
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	@JsonProperty("runId")
+	public void setRunId(String runId) {
+		this.runId = runId;
+	}
+
+	public String getItemId() {
+		return itemId;
+	}
+
+	@JsonProperty("itemId")
+	public void setItemId(String itemId) {
+		this.itemId = itemId;
+	}
+
+	public List<SFEventLogFile> getEventLogs() {
+		return eventLogs;
+	}
+
+	@JsonProperty("eventLogs")
+	public void setEventLogs(List<SFEventLogFile> eventLogs) {
+		this.eventLogs = eventLogs;
+	}
+
+	/**
+	 * @return Sum of the LogFileLength of the files in the batch.
+	 */
+	@JsonIgnore
+	public long getTotalBytes() {
+		long totalBytes = 0;
+		for(SFEventLogFile eventLog: eventLogs) {
+			totalBytes += Math.max(eventLog.getLogFileLength(), 0);
+		}
+		return totalBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkItem [runId=" + runId + ", itemId=" + itemId + ", files=" + eventLogs.size() + ", totalBytes=" + this.getTotalBytes() + "]";
+	}
+}
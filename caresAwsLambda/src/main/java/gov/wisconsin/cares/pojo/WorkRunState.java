@@ -0,0 +1,72 @@
+package gov.wisconsin.cares.pojo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * State of a fan-out run, stored by the coordinator next to the water-mark file:
+ * the water-mark the run was queried from, the latest LogDate of its files, and the work items sent to the workers.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class WorkRunState {
+
+	private String runId;
+	private String watermark;
+	private String highWaterMark;
+	private long dispatchedMillis;
+	private List<WorkItem> items = new ArrayList<>();
+
+	public String getRunId() {
+		return runId;
+	}
+
+	@JsonProperty("runId")
+	public void setRunId(String runId) {
+		this.runId = runId;
+	}
+
+	public String getWatermark() {
+		return watermark;
+	}
+
+	@JsonProperty("watermark")
+	public void setWatermark(String watermark) {
+		this.watermark = watermark;
+	}
+
+	public String getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	@JsonProperty("highWaterMark")
+	public void setHighWaterMark(String highWaterMark) {
+		this.highWaterMark = highWaterMark;
+	}
+
+	public long getDispatchedMillis() {
+		return dispatchedMillis;
+	}
+
+	@JsonProperty("dispatchedMillis")
+	public void setDispatchedMillis(long dispatchedMillis) {
+		this.dispatchedMillis = dispatchedMillis;
+	}
+
+	public List<WorkItem> getItems() {
+		return items;
+	}
+
+	@JsonProperty("items")
+	public void setItems(List<WorkItem> items) {
+		this.items = items;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkRunState [runId=" + runId + ", watermark=" + watermark + ", highWaterMark=" + highWaterMark
+				+ ", dispatchedMillis=" + dispatchedMillis + ", items=" + items.size() + "]";
+	}
+}
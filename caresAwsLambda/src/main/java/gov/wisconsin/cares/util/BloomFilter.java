@@ -0,0 +1,121 @@
+package gov.wisconsin.cares.util;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Bloom filter over 64 bit hashes. The number of bits is a power of two, so a filter built larger than needed
+ * can be folded in half, by OR-ing the two halves, and still answer for every value added to it.
+ * This lets a filter be sized for the worst case while the file is streamed, and shrunk to the number of
+ * distinct values actually seen before it is stored.
+ * @author andersx
+ *
+ */
+public class BloomFilter {
+
+	private static final int MIN_BITS = 64;
+
+	private long[] words;
+	private int hashCount;
+
+	/**
+	 * @param bits Number of bits, rounded up to a power of two.
+	 * @param hashCount Number of bits set per value.
+	 */
+	public BloomFilter(long bits, int hashCount) {
+		long size = Long.highestOneBit(Math.max(bits, MIN_BITS) - 1) << 1;
+		this.words = new long[(int) Math.min(size / 64, Integer.MAX_VALUE / 2 + 1)];
+		this.hashCount = Math.max(hashCount, 1);
+	}
+
+	private BloomFilter(long[] words, int hashCount) {
+		this.words = words;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * @param expectedValues
+	 * @param falsePositiveRate
+	 * @return Number of bits for the expected number of values at the false positive rate.
+	 */
+	public static long optimalBits(long expectedValues, double falsePositiveRate) {
+		return (long) Math.ceil(-Math.max(expectedValues, 1) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+	}
+
+	/**
+	 * @param falsePositiveRate
+	 * @return Number of bits to set per value for the false positive rate.
+	 */
+	public static int optimalHashCount(double falsePositiveRate) {
+		return Math.max((int) Math.round(-Math.log(falsePositiveRate) / Math.log(2)), 1);
+	}
+
+	public void add(long hash) {
+		long mask = this.getBitCount() - 1;
+		long h1 = hash;
+		long h2 = (hash >>> 32) | 1;
+		for(int i = 0; i < hashCount; i++) {
+			long bit = (h1 + i * h2) & mask;
+			words[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @param hash
+	 * @return False if the value was never added, true if it may have been added.
+	 */
+	public boolean mightContain(long hash) {
+		long mask = this.getBitCount() - 1;
+		long h1 = hash;
+		long h2 = (hash >>> 32) | 1;
+		for(int i = 0; i < hashCount; i++) {
+			long bit = (h1 + i * h2) & mask;
+			if((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Fold the filter in half while it stays within the false positive rate for the number of distinct values.
+	 * @param distinctValues Estimated number of distinct values added.
+	 * @param falsePositiveRate
+	 */
+	public void shrink(long distinctValues, double falsePositiveRate) {
+		while(this.getBitCount() > MIN_BITS && falsePositiveRate(this.getBitCount() / 2, hashCount, distinctValues) <= falsePositiveRate) {
+			int half = words.length / 2;
+			long[] folded = new long[half];
+			for(int i = 0; i < half; i++) {
+				folded[i] = words[i] | words[i + half];
+			}
+			words = folded;
+		}
+	}
+
+	public long getBitCount() {
+		return (long) words.length * 64;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * @return The bits as base64, for the JSON sidecar.
+	 */
+	public String toBase64() {
+		ByteBuffer bytes = ByteBuffer.allocate(words.length * 8);
+		bytes.asLongBuffer().put(words);
+		return Base64.getEncoder().encodeToString(bytes.array());
+	}
+
+	public static BloomFilter fromBase64(String bits, int hashCount) {
+		ByteBuffer bytes = ByteBuffer.wrap(Base64.getDecoder().decode(bits));
+		long[] words = new long[bytes.remaining() / 8];
+		bytes.asLongBuffer().get(words);
+		return new BloomFilter(words, hashCount);
+	}
+
+	private static double falsePositiveRate(long bits, int hashCount, long values) {
+		return Math.pow(1 - Math.exp(-(double) hashCount * values / bits), hashCount);
+	}
+}
@@ -0,0 +1,46 @@
+package gov.wisconsin.cares.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to event log files while they are streamed to S3.
+ * New codecs can be added by implementing this interface and registering them in forName.
+ * @author andersx
+ *
+ */
+public interface CompressionCodec {
+
+	/**
+	 * @return File extension added to the S3 key, E.G. ".gz".
+	 */
+	String getFileExtension();
+
+	/**
+	 * @return Value for the Content-Encoding of the S3 object, E.G. "gzip".
+	 */
+	String getContentEncoding();
+
+	/**
+	 * Wrap the passed in stream, so everything written to the returned stream is compressed.
+	 * Closing the returned stream closes the passed in stream.
+	 * @param out
+	 * @return The compressing stream.
+	 * @throws IOException
+	 */
+	OutputStream compress(OutputStream out) throws IOException;
+
+	/**
+	 * @param name Name of the codec, "none" or "gzip".
+	 * @return The codec, or null for "none".
+	 * @throws Exception if there is no codec with the passed in name.
+	 */
+	static CompressionCodec forName(String name) throws Exception {
+		if(name == null || name.trim().equals("") || name.trim().equalsIgnoreCase("none")) {
+			return null;
+		}else if(name.trim().equalsIgnoreCase("gzip")) {
+			return new GzipCodec(EnvUtils.getInt("compressionLevel", 6), EnvUtils.getInt("compressionBlockSizeKB", 1024) * 1024);
+		}
+		throw new Exception("Unknown compression codec:" + name + ", " + CompressionCodec.class.getName() + "::forName");
+	}
+}
@@ -0,0 +1,61 @@
+package gov.wisconsin.cares.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that counts the bytes read from it, and the time spent waiting for them.
+ * @author andersx
+ *
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long count = 0;
+	private long readNanos = 0;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Milliseconds spent in the read calls of the underlying stream.
+	 */
+	public long getReadMillis() {
+		return readNanos / 1000000;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int b = super.read();
+		readNanos += System.nanoTime() - start;
+		if(b != -1) count++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int n = super.read(b, off, len);
+		readNanos += System.nanoTime() - start;
+		if(n > 0) count += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
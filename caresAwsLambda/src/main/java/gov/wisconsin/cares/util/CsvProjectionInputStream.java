@@ -0,0 +1,68 @@
+package gov.wisconsin.cares.util;
+
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads a .csv file with only the selected columns, dropping the other columns while the file is streamed.
+ * The columns are selected by name from the header line, and keep the order they have in the file.
+ * The kept fields are copied unchanged from the tokenizer, and the records end with a line break.
+ * The projection is also available as a record stage, to run after another stage such as the sidecar index.
+ * @author andersx
+ *
+ */
+public class CsvProjectionInputStream extends CsvStageInputStream {
+
+	/**
+	 * @param in The .csv file.
+	 * @param columns Names of the columns to keep, in upper case.
+	 */
+	public CsvProjectionInputStream(InputStream in, Set<String> columns) {
+		super(in, newStage(columns));
+	}
+
+	/**
+	 * @param columns Names of the columns to keep, in upper case.
+	 * @return A record stage that keeps only the columns.
+	 */
+	public static CsvRecordStage newStage(Set<String> columns) {
+		return new Projection(columns);
+	}
+
+	private static class Projection implements CsvRecordStage {
+
+		private Set<String> columns;
+		private int[] selected;
+
+		Projection(Set<String> columns) {
+			this.columns = columns;
+		}
+
+		@Override
+		public void process(CsvTokenizer record, long recordNumber, CsvRecordWriter out) {
+			if(selected == null) {
+				this.selectColumns(record);
+			}
+			int fieldCount = record.getFieldCount();
+			for(int i = 0; i < selected.length; i++) {
+				if(selected[i] < fieldCount) {
+					out.writeField(record, selected[i]);
+				}else {
+					out.writeValue("");
+				}
+			}
+			out.endRecord();
+		}
+
+		private void selectColumns(CsvTokenizer header) {
+			int[] indexes = new int[header.getFieldCount()];
+			int count = 0;
+			for(int i = 0; i < header.getFieldCount(); i++) {
+				if(columns.contains(header.getValue(i).trim().toUpperCase(Locale.ROOT))) indexes[count++] = i;
+			}
+			selected = new int[count];
+			System.arraycopy(indexes, 0, selected, 0, count);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package gov.wisconsin.cares.util;
+
+import java.io.IOException;
+
+/**
+ * A step applied to every record of a .csv event log file while it is streamed, E.G. to drop columns,
+ * filter records or redact values. The stage writes what should be kept of the record to the writer,
+ * which may be the record unchanged, a changed record, or nothing.
+ * @author andersx
+ *
+ */
+public interface CsvRecordStage {
+
+	/**
+	 * @param record The record, the offsets are only valid during the call.
+	 * @param recordNumber 0 for the header, 1 for the first data record.
+	 * @param out
+	 * @throws IOException
+	 */
+	void process(CsvTokenizer record, long recordNumber, CsvRecordWriter out) throws IOException;
+}
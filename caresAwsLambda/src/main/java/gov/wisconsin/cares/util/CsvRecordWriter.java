@@ -0,0 +1,98 @@
+package gov.wisconsin.cares.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable output buffer for the records written by a CsvRecordStage. Fields are copied from the tokenizer
+ * as raw bytes, so a field that is kept is written exactly as it was read, quotes included.
+ * @author andersx
+ *
+ */
+public class CsvRecordWriter {
+
+	private byte[] buffer;
+	private int count = 0;
+	private boolean fieldWritten = false;
+
+	public CsvRecordWriter(int initialSize) {
+		this.buffer = new byte[Math.max(initialSize, 16)];
+	}
+
+	/**
+	 * Write the whole record unchanged, including its line break.
+	 * @param record
+	 */
+	public void writeRecord(CsvTokenizer record) {
+		this.write(record.getBuffer(), record.getRecordStart(), record.getRecordEnd() - record.getRecordStart());
+		fieldWritten = false;
+	}
+
+	/**
+	 * Write a field of the record unchanged, after a comma if it is not the first field of the output record.
+	 * @param record
+	 * @param field
+	 */
+	public void writeField(CsvTokenizer record, int field) {
+		this.separate();
+		int start = record.getFieldStart(field);
+		this.write(record.getBuffer(), start, record.getFieldEnd(field) - start);
+	}
+
+	/**
+	 * Write a new quoted value, E.G. a value replacing a redacted field.
+	 * @param value
+	 */
+	public void writeValue(String value) {
+		this.separate();
+		byte[] bytes = value.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8);
+		this.ensureCapacity(bytes.length + 2);
+		buffer[count++] = '"';
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+		buffer[count++] = '"';
+	}
+
+	/**
+	 * End the output record with a line break.
+	 */
+	public void endRecord() {
+		this.ensureCapacity(1);
+		buffer[count++] = '\n';
+		fieldWritten = false;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void reset() {
+		count = 0;
+		fieldWritten = false;
+	}
+
+	private void separate() {
+		if(fieldWritten) {
+			this.ensureCapacity(1);
+			buffer[count++] = ',';
+		}
+		fieldWritten = true;
+	}
+
+	private void write(byte[] bytes, int offset, int length) {
+		this.ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+
+	private void ensureCapacity(int length) {
+		if(count + length > buffer.length) {
+			byte[] larger = new byte[Math.max(buffer.length * 2, count + length)];
+			System.arraycopy(buffer, 0, larger, 0, count);
+			buffer = larger;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package gov.wisconsin.cares.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a .csv file through a CsvRecordStage, so the records are processed while the file is streamed.
+ * The records are tokenized and written to reusable buffers, so no objects are created per record.
+ * @author andersx
+ *
+ */
+public class CsvStageInputStream extends InputStream {
+
+	private static final int OUTPUT_CHUNK = 32 * 1024;
+
+	private InputStream in;
+	private CsvTokenizer tokenizer;
+	private CsvRecordStage stage;
+	private CsvRecordWriter out = new CsvRecordWriter(OUTPUT_CHUNK * 2);
+	private long recordNumber = 0;
+	private int position = 0;
+	private boolean done = false;
+
+	public CsvStageInputStream(InputStream in, CsvRecordStage stage) {
+		this.in = in;
+		this.tokenizer = new CsvTokenizer(in);
+		this.stage = stage;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(position == out.size() && !this.fill()) return -1;
+		return out.getBuffer()[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(position == out.size() && !this.fill()) return -1;
+		int n = Math.min(len, out.size() - position);
+		System.arraycopy(out.getBuffer(), position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Process records until there is a chunk of output, or the file ends.
+	 * @return False if there is no more output.
+	 */
+	private boolean fill() throws IOException {
+		out.reset();
+		position = 0;
+		while(!done && out.size() < OUTPUT_CHUNK) {
+			if(!tokenizer.nextRecord()) {
+				done = true;
+				break;
+			}
+			stage.process(tokenizer, recordNumber++, out);
+		}
+		return out.size() > 0;
+	}
+}
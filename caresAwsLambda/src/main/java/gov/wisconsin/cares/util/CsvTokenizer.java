@@ -0,0 +1,242 @@
+package gov.wisconsin.cares.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a .csv event log file into records and fields at the byte level, without creating an object per record or field.
+ * The file is read into a single buffer that is reused for the whole file, and a record is a range of the buffer.
+ * The fields are given as start and end offsets of their raw bytes in the buffer, including the quotes,
+ * so they can be copied to the output unchanged. The buffer only grows if a single record is larger than it.
+ * <p>
+ * Fields may be quoted, and quoted fields may contain commas, line breaks and escaped ("") quotes.
+ * Records end with \n or \r\n. The offsets are only valid until the next record is read.
+ * @author andersx
+ *
+ */
+public class CsvTokenizer {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final byte QUOTE = '"';
+	private static final byte COMMA = ',';
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private InputStream in;
+	private byte[] buffer;
+	private int limit = 0;
+	private int recordStart = 0;
+	private int recordEnd = 0;
+	private int[] fieldStarts = new int[32];
+	private int[] fieldEnds = new int[32];
+	private int fieldCount = 0;
+	private boolean endOfFile = false;
+
+	public CsvTokenizer(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvTokenizer(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * Read the next record.
+	 * @return False at the end of the file.
+	 * @throws IOException
+	 */
+	public boolean nextRecord() throws IOException {
+		int pos = recordEnd;
+		recordStart = pos;
+		fieldCount = 0;
+		int fieldStart = pos;
+		boolean quoted = false;
+		byte[] buf = buffer;
+		while(true) {
+			if(pos == limit) {
+				int shift = recordStart;
+				boolean more = this.fill();
+				buf = buffer;
+				pos -= shift;
+				fieldStart -= shift;
+				if(!more) {
+					if(pos == recordStart) {
+						recordEnd = pos;
+						return false;
+					}
+					this.addField(fieldStart, pos);
+					recordEnd = pos;
+					return true;
+				}
+			}
+			if(quoted) {
+				// Skip to the closing quote, an escaped quote closes and opens the field again
+				int end = limit;
+				while(pos < end && buf[pos] != QUOTE) pos++;
+				if(pos < end) {
+					quoted = false;
+					pos++;
+				}
+				continue;
+			}
+			byte b = buf[pos];
+			if(b == COMMA) {
+				this.addField(fieldStart, pos);
+				fieldStart = ++pos;
+			}else if(b == LF) {
+				this.addField(fieldStart, pos);
+				recordEnd = pos + 1;
+				return true;
+			}else if(b == CR) {
+				this.addField(fieldStart, pos);
+				pos++;
+				if(pos == limit) {
+					int shift = recordStart;
+					this.fill();
+					pos -= shift;
+				}
+				if(pos < limit && buffer[pos] == LF) pos++;
+				recordEnd = pos;
+				return true;
+			}else {
+				if(b == QUOTE) quoted = true;
+				pos++;
+			}
+		}
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @return Offset in the buffer of the first raw byte of the field, the opening quote if it is quoted.
+	 */
+	public int getFieldStart(int field) {
+		return fieldStarts[field];
+	}
+
+	/**
+	 * @return Offset in the buffer after the last raw byte of the field, after the closing quote if it is quoted.
+	 */
+	public int getFieldEnd(int field) {
+		return fieldEnds[field];
+	}
+
+	/**
+	 * @return Offset in the buffer of the first byte of the record.
+	 */
+	public int getRecordStart() {
+		return recordStart;
+	}
+
+	/**
+	 * @return Offset in the buffer after the record, including its line break.
+	 */
+	public int getRecordEnd() {
+		return recordEnd;
+	}
+
+	/**
+	 * @param field
+	 * @return True if the field is enclosed in quotes.
+	 */
+	public boolean isQuoted(int field) {
+		int start = fieldStarts[field];
+		int end = fieldEnds[field];
+		return end - start >= 2 && buffer[start] == QUOTE && buffer[end - 1] == QUOTE;
+	}
+
+	/**
+	 * Compare the value of the field, without its quotes, to an ASCII name ignoring case, without decoding the field.
+	 * @param field
+	 * @param name
+	 * @return True if the value is equal to the name.
+	 */
+	public boolean valueEqualsIgnoreCase(int field, String name) {
+		int start = fieldStarts[field];
+		int end = fieldEnds[field];
+		if(this.isQuoted(field)) {
+			start++;
+			end--;
+		}
+		if(end - start != name.length()) return false;
+		for(int i = 0; i < name.length(); i++) {
+			int b = buffer[start + i];
+			int c = name.charAt(i);
+			if(b != c && Character.toUpperCase(b) != Character.toUpperCase(c)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decode the value of the field, removing the quotes and unescaping quotes. This creates a String,
+	 * so it is meant for the header and not for every record.
+	 * @param field
+	 * @return The value of the field.
+	 */
+	public String getValue(int field) {
+		int start = fieldStarts[field];
+		int end = fieldEnds[field];
+		if(!this.isQuoted(field)) {
+			// A file cut off inside a quoted field leaves the field without its closing quote
+			if(end > start && buffer[start] == QUOTE) start++;
+			return new String(buffer, start, end - start, StandardCharsets.UTF_8).replace("\"\"", "\"");
+		}
+		return new String(buffer, start + 1, end - start - 2, StandardCharsets.UTF_8).replace("\"\"", "\"");
+	}
+
+	private void addField(int start, int end) {
+		if(fieldCount == fieldStarts.length) {
+			int[] starts = new int[fieldCount * 2];
+			int[] ends = new int[fieldCount * 2];
+			System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+			System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+			fieldStarts = starts;
+			fieldEnds = ends;
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldCount++;
+	}
+
+	/**
+	 * Move the current record to the start of the buffer and read more bytes after it.
+	 * The buffer is doubled if the record fills all of it. The offsets of the fields found so far are moved with the record.
+	 * @return False at the end of the file.
+	 */
+	private boolean fill() throws IOException {
+		int shift = recordStart;
+		if(shift > 0) {
+			System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+			for(int i = 0; i < fieldCount; i++) {
+				fieldStarts[i] -= shift;
+				fieldEnds[i] -= shift;
+			}
+			limit -= shift;
+			recordStart = 0;
+		}
+		if(limit == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, limit);
+			buffer = larger;
+		}
+		if(endOfFile) return false;
+		int n = in.read(buffer, limit, buffer.length - limit);
+		while(n == 0) {
+			n = in.read(buffer, limit, buffer.length - limit);
+		}
+		if(n < 0) {
+			endOfFile = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+}
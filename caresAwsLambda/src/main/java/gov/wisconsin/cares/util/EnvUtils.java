@@ -0,0 +1,70 @@
+package gov.wisconsin.cares.util;
+
+import java.util.Properties;
+
+/**
+ * Helper methods for reading optional configuration from environment variables.
+ * The function only reads the environment. To run the code outside of Lambda, the benchmarks and tests
+ * can give the variables that are not set in the environment as properties with setFallback.
+ * @author andersx
+ *
+ */
+public class EnvUtils {
+
+	private static volatile Properties fallback;
+
+	private EnvUtils() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * Read the variables that are not set in the environment from the properties, E.G. System.getProperties() 
+	 * so -DsalesforceAPIversion=48.0 sets salesforceAPIversion. Only used by the benchmarks and tests.
+	 * @param properties The properties, or null to only read the environment again.
+	 */
+	public static void setFallback(Properties properties) {
+		fallback = properties;
+	}
+
+	/**
+	 * @param name
+	 * @param defaultValue
+	 * @return The trimmed value of the environment variable, or the default value if it is not set.
+	 */
+	public static String getString(String name, String defaultValue) {
+		String value = System.getenv(name);
+		Properties properties = fallback;
+		if(value == null && properties != null) {
+			value = properties.getProperty(name);
+		}
+		if(value == null || value.trim().equals("")) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	/**
+	 * @param name
+	 * @param defaultValue
+	 * @return The value of the environment variable as an int, or the default value if it is not set or not a number.
+	 */
+	public static int getInt(String name, int defaultValue) {
+		String value = getString(name, null);
+		if(value != null) {
+			try {
+				return Integer.parseInt(value);
+			}catch(NumberFormatException e) {
+				System.out.println("\n Invalid value '" + value + "' for environment variable '" + name + "', using default " + defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @param name
+	 * @param defaultValue
+	 * @return The value of the environment variable as a boolean, or the default value if it is not set.
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		return value != null ? Boolean.valueOf(value) : defaultValue;
+	}
+}
@@ -0,0 +1,35 @@
+package gov.wisconsin.cares.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Gzip compression, done in parallel blocks by ParallelGzipOutputStream.
+ * @author andersx
+ *
+ */
+public class GzipCodec implements CompressionCodec {
+
+	private int level;
+	private int blockSize;
+
+	public GzipCodec(int level, int blockSize) {
+		this.level = level;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public String getFileExtension() {
+		return ".gz";
+	}
+
+	@Override
+	public String getContentEncoding() {
+		return "gzip";
+	}
+
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException {
+		return new ParallelGzipOutputStream(out, level, blockSize);
+	}
+}
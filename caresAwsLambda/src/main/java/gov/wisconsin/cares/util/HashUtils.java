@@ -0,0 +1,37 @@
+package gov.wisconsin.cares.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64 bit hash of a range of bytes, used by the Bloom filters and distinct count sketches of the log file index.
+ * The hash is FNV-1a with the MurmurHash3 finalizer, so it is cheap for the short values of an event log file
+ * and all of its bits are well mixed.
+ * @author andersx
+ *
+ */
+public class HashUtils {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private HashUtils() { /* Prevent class from being instantiated */ }
+
+	public static long hash64(byte[] bytes, int offset, int length) {
+		long hash = FNV_OFFSET;
+		for(int i = offset; i < offset + length; i++) {
+			hash ^= bytes[i] & 0xff;
+			hash *= FNV_PRIME;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	public static long hash64(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return hash64(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,40 @@
+package gov.wisconsin.cares.util;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values from their 64 bit hashes,
+ * in a fixed 4 KB of registers. The estimate is within about 2% of the true count.
+ * @author andersx
+ *
+ */
+public class HyperLogLog {
+
+	private static final int PRECISION = 12;
+	private static final int REGISTERS = 1 << PRECISION;
+	private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+	private byte[] registers = new byte[REGISTERS];
+
+	public void add(long hash) {
+		int index = (int) (hash >>> (64 - PRECISION));
+		int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+		if(rank > registers[index]) registers[index] = (byte) rank;
+	}
+
+	/**
+	 * @return Estimated number of distinct values added.
+	 */
+	public long estimate() {
+		double sum = 0;
+		int zeros = 0;
+		for(byte register: registers) {
+			sum += 1.0 / (1L << register);
+			if(register == 0) zeros++;
+		}
+		double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+		if(estimate <= 2.5 * REGISTERS && zeros > 0) {
+			// Linear counting is more accurate for small counts
+			estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+		}
+		return Math.round(estimate);
+	}
+}
@@ -8,44 +8,92 @@ import io.jsonwebtoken.SignatureAlgorithm;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-import Decoder.BASE64Decoder;
-
+/**
+ * Signs the JWT used to request a Salesforce access token with the JWT bearer flow.
+ * The settings are read, and the signing key is parsed, the first time a token is signed, or when init() is called
+ * while the function is initialized, so loading the class does not cost anything. Each org has its own signing key,
+ * and a parsed key is kept for the next token of the org.
+ * @author andersx
+ *
+ */
 public class JWTUtils {
 	
-	public static String SALESFORCE_OAUTH2_URL = null;
-	private static String SALESFORCE_JWT_ISSUER = null;
-	private static PrivateKey SALESFORCE_SIGNING_KEY = null;
-	public static String SALESFORCE_SERVICE_ACCOUNT_USER = null;
 	private static long SALESFORCE_JWT_EXPIRATION_SECONDS = 180;
-	private static String SALESFORCE_JWT_AUDIENCE = "https://test.salesforce.com";
+	public static final String SALESFORCE_JWT_AUDIENCE = "https://test.salesforce.com";
 	public static String SALESFORCE_GRANT_TYPE = "urn:ietf:params:oauth:grant-type:jwt-bearer";
 	
-	static {
-		try {
-			
-			SALESFORCE_JWT_ISSUER = System.getenv("salesforceJWTIssuer");
-			SALESFORCE_OAUTH2_URL = (System.getenv("salesforceOauth2Url") + "/services/oauth2/token");
-			SALESFORCE_SERVICE_ACCOUNT_USER = System.getenv("salesforceServiceAccountUser");
-			SALESFORCE_SIGNING_KEY = readPrivateKey(System.getenv("jwtSigningKey"));
-		
-		} catch (Exception e) {
-			System.out.println("\n Error: Unable to instantiate JWTUtils class");
-		}
-	}
+	/*** Parsed signing keys by the key text, one per org ***/
+	private static final Map<String, PrivateKey> SIGNING_KEYS = new ConcurrentHashMap<>();
 	
 	private JWTUtils() { /* Prevent class from being instantiated */ }
+	
+	/**
+	 * Parse the signing key from environment variable 'jwtSigningKey', if it is not parsed yet.
+	 * @throws Exception
+	 */
+	public static void init() throws Exception {
+		getSigningKey(EnvUtils.getString("jwtSigningKey", null));
+	}
+	
+	/**
+	 * @return The Salesforce OAuth token url, from environment variable 'salesforceOauth2Url'.
+	 */
+	public static String getOAuth2Url() {
+		return EnvUtils.getString("salesforceOauth2Url", null) + "/services/oauth2/token";
+	}
+	
+	/**
+	 * @return The user the access token is requested for, from environment variable 'salesforceServiceAccountUser'.
+	 */
+	public static String getServiceAccountUser() {
+		return EnvUtils.getString("salesforceServiceAccountUser", null);
+	}
     
     public static String generateSalesforceJWT(String user) throws Exception {
-		return generateJwtToken(user, null, SALESFORCE_JWT_ISSUER, SALESFORCE_JWT_AUDIENCE, SALESFORCE_JWT_EXPIRATION_SECONDS, SALESFORCE_SIGNING_KEY);
+		return generateJwtToken(user, null, getIssuer(), SALESFORCE_JWT_AUDIENCE, SALESFORCE_JWT_EXPIRATION_SECONDS, 
+				getSigningKey(EnvUtils.getString("jwtSigningKey", null)));
 	}
 	
 	public static String generateSalesforceJWT(String user, Map<String, Object> claims) throws Exception {
-		return generateJwtToken(user, claims, SALESFORCE_JWT_ISSUER, SALESFORCE_JWT_AUDIENCE, SALESFORCE_JWT_EXPIRATION_SECONDS, SALESFORCE_SIGNING_KEY);
+		return generateJwtToken(user, claims, getIssuer(), SALESFORCE_JWT_AUDIENCE, SALESFORCE_JWT_EXPIRATION_SECONDS, 
+				getSigningKey(EnvUtils.getString("jwtSigningKey", null)));
+	}
+	
+	/**
+	 * Sign a JWT for an org with its own connected app and signing key.
+	 * @param user
+	 * @param issuer Consumer key of the connected app.
+	 * @param audience
+	 * @param signingKey The base64 PKCS8 private key.
+	 * @return The signed JWT.
+	 * @throws Exception
+	 */
+	public static String generateSalesforceJWT(String user, String issuer, String audience, String signingKey) throws Exception {
+		return generateJwtToken(user, null, issuer, audience, SALESFORCE_JWT_EXPIRATION_SECONDS, getSigningKey(signingKey));
+	}
+	
+	private static String getIssuer() {
+		return EnvUtils.getString("salesforceJWTIssuer", null);
+	}
+	
+	private static PrivateKey getSigningKey(String signingKey) throws Exception {
+		if(signingKey == null || signingKey.trim().isEmpty()) {
+			throw new Exception("Missing jwt signing key, set environment variable 'jwtSigningKey'"
+					+ "\n Error: Unable to read the private key for jwt token in " + JWTUtils.class.getName() + "::getSigningKey");
+		}
+		PrivateKey key = SIGNING_KEYS.get(signingKey);
+		if(key == null) {
+			key = readPrivateKey(signingKey);
+			SIGNING_KEYS.put(signingKey, key);
+		}
+		return key;
 	}
 	
     
@@ -91,17 +139,10 @@ public class JWTUtils {
     
     private static PrivateKey readPrivateKey(String jwtSigningKeyStr) throws Exception {
 		PrivateKey privateKey = null;
-		String privateKey_string = null;
 		try {
 			
-			jwtSigningKeyStr = jwtSigningKeyStr.replaceAll("\\s", "");
-			byte[] keyBytes = jwtSigningKeyStr.getBytes("UTF-8");
-			
-			privateKey_string = new String(keyBytes, "UTF-8");
-			privateKey_string = privateKey_string.replaceAll("(-+BEGIN PRIVATE KEY-+\\r?\\n|-+END PRIVATE KEY-+\\r?\\n?)", "");
-			
-			BASE64Decoder decoder = new BASE64Decoder();
-			keyBytes = decoder.decodeBuffer(privateKey_string);
+			String privateKey_string = jwtSigningKeyStr.replaceAll("-+(BEGIN|END) PRIVATE KEY-+", "").replaceAll("\\s", "");
+			byte[] keyBytes = Base64.getDecoder().decode(privateKey_string);
 
 			PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
 			KeyFactory keyFactory = KeyFactory.getInstance("RSA");
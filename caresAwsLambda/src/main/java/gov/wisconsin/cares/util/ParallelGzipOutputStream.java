@@ -0,0 +1,122 @@
+package gov.wisconsin.cares.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * OutputStream that gzip compresses the data written to it using all the available processors.
+ * The data is cut into blocks, and each block is compressed on its own as a complete gzip member.
+ * The members are written to the underlying stream in order, and a file made of several gzip members
+ * is a valid gzip file that standard tools, and Athena, read as one.
+ * Only a bounded number of blocks are compressed at the same time, so memory use does not grow with the file size.
+ * @author andersx
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	private static final int THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+	private static final ExecutorService COMPRESS_EXECUTOR = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread thread = new Thread(r, "gzip-block-compress");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private OutputStream out;
+	private int level;
+	private byte[] block;
+	private int position = 0;
+	private int maxPending;
+	private boolean anyBlock = false;
+	private boolean closed = false;
+	private Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+	/**
+	 * @param out
+	 * @param level Compression level 1-9, or -1 for the default level.
+	 * @param blockSize Size of the uncompressed blocks in bytes.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, int blockSize) {
+		this.out = out;
+		this.level = (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION) ? level : Deflater.DEFAULT_COMPRESSION;
+		this.block = new byte[Math.max(blockSize, 64 * 1024)];
+		this.maxPending = THREADS * 2;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(closed) throw new IOException("Stream is closed");
+		while(len > 0) {
+			int n = Math.min(len, block.length - position);
+			System.arraycopy(b, off, block, position, n);
+			position += n;
+			off += n;
+			len -= n;
+			if(position == block.length) {
+				this.submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compress the remaining data, write all blocks to the underlying stream and close it.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+
+		// An empty file still needs one gzip member
+		if(position > 0 || !anyBlock) {
+			this.submitBlock();
+		}
+		while(!pending.isEmpty()) {
+			this.writeNextBlock();
+		}
+		closed = true;
+		out.close();
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] data = block;
+		final int length = position;
+		pending.addLast(COMPRESS_EXECUTOR.submit(() -> compressBlock(data, length, level)));
+		anyBlock = true;
+		block = new byte[block.length];
+		position = 0;
+		while(pending.size() >= maxPending) {
+			this.writeNextBlock();
+		}
+	}
+
+	private void writeNextBlock() throws IOException {
+		try {
+			out.write(pending.removeFirst().get());
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing block", e);
+		}catch(ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	private static byte[] compressBlock(byte[] data, int length, int level) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(length / 4, 512));
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bos, 64 * 1024) { { def.setLevel(level); } }) {
+			gzip.write(data, 0, length);
+		}
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,149 @@
+package gov.wisconsin.cares.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InputStream over a remote file of known size, that downloads it as consecutive byte ranges over several connections
+ * at the same time and returns them in order. A single large file can then use more than one connection's bandwidth,
+ * while the streams reading from this one, E.G. the checksum and the multipart upload, still see the file in order.
+ * With the range size set to the multipart part size, each range becomes one part of the upload.
+ * Each range is read with a ResumableInputStream, so a dropped connection only re-requests the rest of that range.
+ * Up to 'concurrency' ranges are downloading, plus the one being read, so the memory use is bounded by (concurrency + 1) * rangeSize.
+ * @author andersx
+ *
+ */
+public class ParallelRangeInputStream extends InputStream {
+
+	private static final ExecutorService RANGE_DOWNLOAD_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "range-download");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private RangeSource source;
+	private long size;
+	private int rangeSize;
+	private int maxResumes;
+	private long nextRangeStart = 0;
+	private Deque<Future<byte[]>> ranges = new ArrayDeque<>();
+	private byte[] current = new byte[0];
+	private int currentPosition = 0;
+	private volatile boolean closed = false;
+	private AtomicInteger resumes = new AtomicInteger();
+
+	/**
+	 * @param source
+	 * @param size Size of the file in bytes.
+	 * @param rangeSize Size of each range in bytes.
+	 * @param concurrency Number of ranges downloading at the same time.
+	 * @param maxResumes Number of times each range is reopened before the error is thrown.
+	 */
+	public ParallelRangeInputStream(RangeSource source, long size, int rangeSize, int concurrency, int maxResumes) {
+		this.source = source;
+		this.size = size;
+		this.rangeSize = Math.max(rangeSize, 1);
+		this.maxResumes = maxResumes;
+		for(int i = 0; i < Math.max(concurrency, 1); i++) {
+			this.submitNextRange();
+		}
+	}
+
+	/**
+	 * @return Number of times a range was reopened after a dropped connection.
+	 */
+	public int getResumeCount() {
+		return resumes.get();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!this.fill()) return -1;
+		return current[currentPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(!this.fill()) return -1;
+		int n = Math.min(len, current.length - currentPosition);
+		System.arraycopy(current, currentPosition, b, off, n);
+		currentPosition += n;
+		return n;
+	}
+
+	/**
+	 * Cancel the ranges still downloading.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for(Future<byte[]> range: ranges) {
+			range.cancel(true);
+		}
+		ranges.clear();
+		current = new byte[0];
+		currentPosition = 0;
+	}
+
+	/**
+	 * Move to the next range when the current one is read, and start downloading the range after the last one started.
+	 * @return False at the end of the file.
+	 */
+	private boolean fill() throws IOException {
+		if(closed) throw new IOException("Stream is closed");
+		while(currentPosition == current.length) {
+			Future<byte[]> range = ranges.poll();
+			if(range == null) return false;
+			current = this.waitForRange(range);
+			currentPosition = 0;
+			this.submitNextRange();
+		}
+		return true;
+	}
+
+	private void submitNextRange() {
+		if(nextRangeStart >= size) return;
+		final long start = nextRangeStart;
+		final long end = Math.min(start + rangeSize, size);
+		ranges.add(RANGE_DOWNLOAD_EXECUTOR.submit(() -> this.download(start, end)));
+		nextRangeStart = end;
+	}
+
+	private byte[] download(long start, long end) throws IOException {
+		byte[] data = new byte[(int) (end - start)];
+		ResumableInputStream in = new ResumableInputStream(source, null, start, end, maxResumes);
+		try {
+			int offset = 0;
+			while(offset < data.length) {
+				if(closed) throw new IOException("Stream is closed");
+				int n = in.read(data, offset, data.length - offset);
+				if(n == -1) throw new EOFException("Range ended at byte " + (start + offset) + " of " + end);
+				offset += n;
+			}
+		}finally {
+			resumes.addAndGet(in.getResumeCount());
+			in.close();
+		}
+		return data;
+	}
+
+	private byte[] waitForRange(Future<byte[]> range) throws IOException {
+		try {
+			return range.get();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a range of the file", e);
+		}catch(ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+}
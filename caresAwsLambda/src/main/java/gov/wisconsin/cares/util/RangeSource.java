@@ -0,0 +1,19 @@
+package gov.wisconsin.cares.util;
+
+import java.io.InputStream;
+
+/**
+ * Opens a byte range of a remote file, E.G. with an HTTP Range request.
+ * @author andersx
+ *
+ */
+public interface RangeSource {
+
+	/**
+	 * @param start Position of the first byte.
+	 * @param end Position after the last byte, or -1 to read to the end of the file.
+	 * @return A stream of the bytes from start to end.
+	 * @throws Exception
+	 */
+	InputStream open(long start, long end) throws Exception;
+}
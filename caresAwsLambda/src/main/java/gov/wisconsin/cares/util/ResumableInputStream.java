@@ -0,0 +1,103 @@
+package gov.wisconsin.cares.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream over a byte range of a remote file, that reopens the range from the last byte read
+ * when the connection fails, instead of failing the whole transfer. A stream ending before the end of the range
+ * is treated as a dropped connection. The bytes already read are never requested again, so streams reading
+ * from this one, E.G. a checksum, see every byte exactly once.
+ * @author andersx
+ *
+ */
+public class ResumableInputStream extends InputStream {
+
+	private RangeSource source;
+	private InputStream in;
+	private long position;
+	private long end;
+	private int maxResumes;
+	private int resumes = 0;
+
+	/**
+	 * @param source Opens the range again from the position reached.
+	 * @param in Stream already opened at start, or null to open it on the first read.
+	 * @param start Position of the first byte.
+	 * @param end Position after the last byte, or -1 if the size is not known.
+	 * @param maxResumes Number of times the range is reopened before the error is thrown.
+	 */
+	public ResumableInputStream(RangeSource source, InputStream in, long start, long end, int maxResumes) {
+		this.source = source;
+		this.in = in;
+		this.position = start;
+		this.end = end;
+		this.maxResumes = Math.max(maxResumes, 0);
+	}
+
+	/**
+	 * @return Number of times the range was reopened.
+	 */
+	public int getResumeCount() {
+		return resumes;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = this.read(b, 0, 1);
+		return n == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(end >= 0) {
+			if(position >= end) return -1;
+			len = (int) Math.min(len, end - position);
+		}
+		while(true) {
+			if(in == null) in = this.open();
+			try {
+				int n = in.read(b, off, len);
+				if(n == -1 && end >= 0) {
+					throw new EOFException("Stream ended at byte " + position + " of " + end);
+				}
+				if(n > 0) position += n;
+				return n;
+			}catch(IOException e) {
+				if(resumes >= maxResumes) throw e;
+				resumes++;
+				closeQuietly(in);
+				in = null;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+	private InputStream open() throws IOException {
+		try {
+			return source.open(position, end);
+		}catch(IOException e) {
+			throw e;
+		}catch(Exception e) {
+			throw new IOException(e.getMessage() + "\n Error: Unable to open range from byte " + position, e);
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		}catch(IOException e) {
+			// The connection is already broken
+		}
+	}
+}
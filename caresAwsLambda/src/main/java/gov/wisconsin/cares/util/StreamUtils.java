@@ -0,0 +1,36 @@
+package gov.wisconsin.cares.util;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class StreamUtils {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private StreamUtils() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * Copy all bytes from the InputStream to the OutputStream. None of the streams are closed.
+	 * @param in
+	 * @param out
+	 * @return Number of bytes copied
+	 * @throws Exception
+	 */
+	public static long copy(InputStream in, OutputStream out) throws Exception {
+		long size = 0;
+		try {
+			int nRead = 0;
+			byte[] byteArr = new byte[BUFFER_SIZE];
+			while((nRead = in.read(byteArr, 0, byteArr.length)) != -1) {
+				out.write(byteArr, 0, nRead);
+				size += nRead;
+			}
+		}catch(Exception e) {
+			Exception ex = new Exception(e.getMessage()
+	    			+ "\n Error: Unable to copy stream after " + size + " bytes in "
+	    			+ StreamUtils.class.getName() + "::copy");
+	    	throw ex;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,49 @@
+package gov.wisconsin.cares.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * InputStream that writes a copy of every byte read from it to an OutputStream.
+ * Used to store the original file while it is also being read by a conversion stage.
+ * Closing this stream does not close the OutputStream.
+ * @author andersx
+ *
+ */
+public class TeeInputStream extends FilterInputStream {
+
+	private OutputStream copy;
+
+	public TeeInputStream(InputStream in, OutputStream copy) {
+		super(in);
+		this.copy = copy;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b != -1) copy.write(b);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if(n > 0) copy.write(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+		int read = this.read(buffer, 0, buffer.length);
+		return Math.max(read, 0);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,93 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class IngestionManifestTest {
+
+	private static final String BUCKET = "test-watermark";
+	private static final String KEY = "manifest.json";
+
+	private static SFEventLogFile eventLog(String id, String logDate, long logFileLength, String lastModifiedDate) {
+		SFEventLogFile eventLog = new SFEventLogFile();
+		eventLog.setId(id);
+		eventLog.setEventType("API");
+		eventLog.setLogDate(logDate);
+		eventLog.setLogFileLength(logFileLength);
+		eventLog.setLastModifiedDate(lastModifiedDate);
+		return eventLog;
+	}
+
+	@Test
+	public void missingManifestIsEmpty() throws Exception {
+		IngestionManifest manifest = IngestionManifest.load(new TestS3(), BUCKET, KEY);
+
+		assertEquals(0, manifest.size());
+		assertNull(manifest.getHighWaterMark());
+	}
+
+	@Test
+	public void savedManifestLoadsTheSameEntries() throws Exception {
+		TestS3 s3 = new TestS3();
+		IngestionManifest manifest = IngestionManifest.load(s3, BUCKET, KEY);
+		SFEventLogFile first = eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 100, "2020-07-02T01:00:00.000+0000");
+		SFEventLogFile second = eventLog("0AT000000000002", "2020-07-02T00:00:00.000+0000", 200, null);
+		manifest.markIngested(first);
+		manifest.markIngested(second);
+		manifest.save(s3);
+
+		IngestionManifest loaded = IngestionManifest.load(s3, BUCKET, KEY);
+
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.isIngested(first));
+		assertTrue(loaded.isIngested(second));
+	}
+
+	@Test
+	public void changedFileIsNotIngested() throws Exception {
+		IngestionManifest manifest = IngestionManifest.load(new TestS3(), BUCKET, KEY);
+		manifest.markIngested(eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 100, "2020-07-02T01:00:00.000+0000"));
+
+		assertFalse("different length", manifest.isIngested(
+				eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 150, "2020-07-02T01:00:00.000+0000")));
+		assertFalse("different LastModifiedDate", manifest.isIngested(
+				eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 100, "2020-07-03T01:00:00.000+0000")));
+		assertFalse("different file", manifest.isIngested(
+				eventLog("0AT000000000002", "2020-07-01T00:00:00.000+0000", 100, "2020-07-02T01:00:00.000+0000")));
+	}
+
+	@Test
+	public void highWaterMarkIsLatestLogDateInUtc() throws Exception {
+		IngestionManifest manifest = IngestionManifest.load(new TestS3(), BUCKET, KEY);
+		manifest.markIngested(eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 100, null));
+		manifest.markIngested(eventLog("0AT000000000002", "2020-07-03T00:00:00.000-0500", 100, null));
+		manifest.markIngested(eventLog("0AT000000000003", "2020-07-03T04:00:00.000+0000", 100, null));
+
+		assertEquals("2020-07-03T05:00:00Z", manifest.getHighWaterMark());
+	}
+
+	@Test
+	public void pruneRemovesFilesBeforeWaterMark() throws Exception {
+		IngestionManifest manifest = IngestionManifest.load(new TestS3(), BUCKET, KEY);
+		SFEventLogFile old = eventLog("0AT000000000001", "2020-07-01T00:00:00.000+0000", 100, null);
+		SFEventLogFile current = eventLog("0AT000000000002", "2020-07-02T00:00:00.000+0000", 100, null);
+		manifest.markIngested(old);
+		manifest.markIngested(current);
+
+		manifest.prune("2020-07-02T00:00:00Z");
+
+		assertEquals(1, manifest.size());
+		assertFalse(manifest.isIngested(old));
+		assertTrue(manifest.isIngested(current));
+	}
+}
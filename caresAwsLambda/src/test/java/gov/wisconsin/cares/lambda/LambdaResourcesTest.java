@@ -0,0 +1,39 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class LambdaResourcesTest {
+
+	@Test
+	public void clientCreatedInTheInvocationSavesNothing() {
+		LambdaResources.startInvocation();
+		// Larger than any pool built so far, so the client is rebuilt
+		CloseableHttpClient client = LambdaResources.getHttpClient(10000);
+
+		assertSame(client, LambdaResources.getHttpClient(10000));
+		assertSame(client, LambdaResources.getHttpClient(1));
+		assertEquals(0, LambdaResources.getSavedSetupMillis());
+	}
+
+	@Test
+	public void reusedClientCountsOncePerInvocation() {
+		LambdaResources.startInvocation();
+		LambdaResources.getHttpClient(10001);
+
+		LambdaResources.startInvocation();
+		LambdaResources.getHttpClient(10001);
+		long saved = LambdaResources.getSavedSetupMillis();
+		LambdaResources.getHttpClient(10001);
+		LambdaResources.getHttpClient(2);
+
+		assertEquals(saved, LambdaResources.getSavedSetupMillis());
+	}
+}
@@ -0,0 +1,157 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.wisconsin.cares.pojo.LogFileIndex;
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.CsvStageInputStream;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Builds sidecar indexes with LogFileIndexer and checks which files LogFileIndexLookup.mightMatch keeps.
+ * @author andersx
+ *
+ */
+public class LogFileIndexLookupTest {
+
+	private static final int ROWS = 2000;
+
+	@Before
+	public void setUp() {
+		EnvUtils.setFallback(new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		EnvUtils.setFallback(null);
+	}
+
+	private static String userId(int row) {
+		// Every tenth value has quotes in it, which are escaped in the file
+		return row % 10 == 0 ? "005 \"" + row + "\" x" : "0053t" + row;
+	}
+
+	/**
+	 * @return A file with TIMESTAMP values from 20200701000000.000 to 20200701000033.190, USER_ID values with quotes,
+	 * and an unquoted CLIENT_IP column.
+	 */
+	private static String csvFile() {
+		StringBuilder csv = new StringBuilder("\"EVENT_TYPE\",\"TIMESTAMP\",\"USER_ID\",CLIENT_IP\r\n");
+		for(int i = 0; i < ROWS; i++) {
+			csv.append("\"API\",\"").append(String.format("202007010000%02d.%03d", i / 60, (i % 60) * 10)).append("\",\"")
+				.append(userId(i).replace("\"", "\"\"")).append("\",10.0.").append(i / 256).append('.').append(i % 256).append("\r\n");
+		}
+		return csv.toString();
+	}
+
+	/**
+	 * Stream the file through the indexer, and read the index back from its JSON, like the lookup does.
+	 */
+	private static LogFileIndex index(String csv, Set<String> columns, ByteArrayOutputStream stored) throws Exception {
+		LogFileIndexer indexer = new LogFileIndexer(csv.length(), columns);
+		try (InputStream in = new CsvStageInputStream(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), indexer)) {
+			byte[] buffer = new byte[4096];
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				stored.write(buffer, 0, n);
+			}
+		}
+		SFEventLogFile eventLog = new SFEventLogFile();
+		eventLog.setId("0AT000000000001");
+		eventLog.setEventType("API");
+		String json = LambdaResources.getObjectMapper().writeValueAsString(indexer.build(eventLog));
+		return LambdaResources.getObjectMapper().readValue(json, LogFileIndex.class);
+	}
+
+	private static LogFileIndex index(String csv) throws Exception {
+		return index(csv, null, new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void indexHasNoFalseNegatives() throws Exception {
+		LogFileIndex index = index(csvFile());
+
+		assertEquals(ROWS, index.getRowCount());
+		assertEquals(new HashSet<>(Arrays.asList("USER_ID", "CLIENT_IP")), index.getBloomFilters().keySet());
+		for(int i = 0; i < ROWS; i++) {
+			assertTrue(userId(i), LogFileIndexLookup.mightMatch(index, "USER_ID", userId(i), null, null));
+			assertTrue(LogFileIndexLookup.mightMatch(index, "client_ip", "10.0." + (i / 256) + "." + (i % 256), null, null));
+		}
+		int falsePositives = 0;
+		for(int i = 0; i < 10000; i++) {
+			if(LogFileIndexLookup.mightMatch(index, "USER_ID", "0054t" + i, null, null)) falsePositives++;
+		}
+		assertTrue(falsePositives + " false positives", falsePositives < 300);
+	}
+
+	@Test
+	public void columnWithoutBloomFilterMightMatch() throws Exception {
+		LogFileIndex index = index(csvFile());
+
+		assertTrue(LogFileIndexLookup.mightMatch(index, "EVENT_TYPE", "Login", null, null));
+		assertTrue(LogFileIndexLookup.mightMatch(index, "NO_SUCH_COLUMN", "x", null, null));
+		assertTrue(LogFileIndexLookup.mightMatch(index, null, null, null, null));
+	}
+
+	@Test
+	public void timeRangeEdges() throws Exception {
+		LogFileIndex index = index(csvFile());
+		assertEquals("20200701000000.000", index.getTimestampMin());
+		assertEquals("20200701000033.190", index.getTimestampMax());
+
+		// The end of the range is exclusive
+		assertFalse(LogFileIndexLookup.mightMatch(index, null, null, null, "20200701000000.000"));
+		assertTrue(LogFileIndexLookup.mightMatch(index, null, null, null, "20200701000000.001"));
+		assertFalse(LogFileIndexLookup.mightMatch(index, null, null, "20200630000000.000", "20200701000000.000"));
+		// The start of the range is inclusive
+		assertTrue(LogFileIndexLookup.mightMatch(index, null, null, "20200701000033.190", null));
+		assertFalse(LogFileIndexLookup.mightMatch(index, null, null, "20200701000033.191", null));
+		assertTrue(LogFileIndexLookup.mightMatch(index, "USER_ID", userId(5), "20200701000010.000", "20200701000011.000"));
+		assertFalse(LogFileIndexLookup.mightMatch(index, "USER_ID", userId(5), "20200702000000.000", null));
+	}
+
+	@Test
+	public void emptyFileNeverMatches() throws Exception {
+		LogFileIndex index = index("\"EVENT_TYPE\",\"TIMESTAMP\",\"USER_ID\"\r\n");
+
+		assertEquals(0, index.getRowCount());
+		assertNull(index.getTimestampMin());
+		assertFalse(LogFileIndexLookup.mightMatch(index, null, null, null, null));
+	}
+
+	@Test
+	public void indexDescribesTheProjectedFile() throws Exception {
+		ByteArrayOutputStream stored = new ByteArrayOutputStream();
+		LogFileIndex index = index(csvFile(), new HashSet<>(Arrays.asList("TIMESTAMP", "USER_ID")), stored);
+
+		assertTrue(new String(stored.toByteArray(), StandardCharsets.UTF_8).startsWith("\"TIMESTAMP\",\"USER_ID\"\n\"20200701000000.000\",\"005 \"\"0\"\" x\"\n"));
+		assertEquals(new HashSet<>(Arrays.asList("TIMESTAMP", "USER_ID")), index.getDistinctCounts().keySet());
+		assertEquals(new HashSet<>(Arrays.asList("USER_ID")), index.getBloomFilters().keySet());
+		assertEquals("20200701000000.000", index.getTimestampMin());
+		assertTrue(LogFileIndexLookup.mightMatch(index, "USER_ID", userId(10), null, null));
+	}
+
+	@Test
+	public void timeRangeOnlyWhenTimestampIsKept() throws Exception {
+		LogFileIndex index = index(csvFile(), new HashSet<>(Arrays.asList("USER_ID")), new ByteArrayOutputStream());
+
+		assertNull(index.getTimestampMin());
+		assertTrue(LogFileIndexLookup.mightMatch(index, "USER_ID", userId(3), "20200801000000.000", null));
+	}
+}
@@ -0,0 +1,114 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class LogFileTransferEngineTest {
+
+	private LogFileTransferEngine engine;
+
+	@After
+	public void tearDown() {
+		if(engine != null) engine.shutdown();
+	}
+
+	static List<SFEventLogFile> eventLogs(int count) {
+		List<SFEventLogFile> eventLogs = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			SFEventLogFile eventLog = new SFEventLogFile();
+			eventLog.setId("file" + i);
+			eventLog.setEventType("API");
+			eventLog.setLogFileLength(100);
+			eventLogs.add(eventLog);
+		}
+		return eventLogs;
+	}
+
+	@Test
+	public void transfersEveryFileWithBoundedConcurrency() throws Exception {
+		engine = new LogFileTransferEngine(4, LogFileTransferEngine.ErrorPolicy.FAIL_FAST, new TestContext().getLogger());
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Set<String> transferred = ConcurrentHashMap.newKeySet();
+
+		TransferSummary summary = engine.transferAll(eventLogs(40), eventLog -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			Thread.sleep(10);
+			running.decrementAndGet();
+			transferred.add(eventLog.getId());
+			return 100;
+		});
+
+		assertEquals(40, transferred.size());
+		assertEquals(40, summary.getFilesTransferred());
+		assertEquals(4000, summary.getBytesTransferred());
+		assertTrue("at most 4 files at the same time, was " + maxRunning.get(), maxRunning.get() <= 4);
+		assertTrue("files transferred at the same time", maxRunning.get() > 1);
+	}
+
+	@Test
+	public void countsSkippedFiles() throws Exception {
+		engine = new LogFileTransferEngine(2, LogFileTransferEngine.ErrorPolicy.FAIL_FAST, new TestContext().getLogger());
+
+		TransferSummary summary = engine.transferAll(eventLogs(10),
+				eventLog -> eventLog.getId().endsWith("0") || eventLog.getId().endsWith("5") ? LogFileTransferEngine.SKIPPED : 100);
+
+		assertEquals(8, summary.getFilesTransferred());
+		assertEquals(2, summary.getFilesSkipped());
+		assertTrue(summary.isCompleted("file5"));
+	}
+
+	@Test
+	public void failFastStopsStartingFiles() throws Exception {
+		engine = new LogFileTransferEngine(2, LogFileTransferEngine.ErrorPolicy.FAIL_FAST, new TestContext().getLogger());
+		AtomicInteger started = new AtomicInteger();
+
+		try {
+			engine.transferAll(eventLogs(100), eventLog -> {
+				started.incrementAndGet();
+				if(eventLog.getId().equals("file3")) throw new Exception("Mock failure");
+				Thread.sleep(10);
+				return 100;
+			});
+			fail("The failed file should fail the run");
+		}catch(Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Mock failure"));
+		}
+		assertTrue("files started after the failure: " + started.get(), started.get() < 100);
+	}
+
+	@Test
+	public void collectAllAttemptsEveryFile() throws Exception {
+		engine = new LogFileTransferEngine(3, LogFileTransferEngine.ErrorPolicy.COLLECT_ALL, new TestContext().getLogger());
+		AtomicInteger started = new AtomicInteger();
+
+		try {
+			engine.transferAll(eventLogs(20), eventLog -> {
+				started.incrementAndGet();
+				if(eventLog.getId().equals("file3") || eventLog.getId().equals("file7")) throw new Exception("Mock failure");
+				return 100;
+			});
+			fail("The failed files should fail the run");
+		}catch(Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("2 event log file transfer(s) failed"));
+			assertTrue(e.getMessage(), e.getMessage().contains("file3") && e.getMessage().contains("file7"));
+		}
+		assertEquals(20, started.get());
+	}
+}
@@ -0,0 +1,173 @@
+package gov.wisconsin.cares.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server for the tests, answering the token request, the EventLogFile query in a single page,
+ * and the LogFile downloads of the files added to it. Every request is counted by method and path,
+ * so a test can check how many times a file was downloaded.
+ * @author andersx
+ *
+ */
+public class MockSalesforce implements AutoCloseable {
+
+	public static final String API_PATH = "/services/data/v48.0";
+	private static final String TOKEN = "test-access-token";
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private List<String> ids = new ArrayList<>();
+	private Map<String, byte[]> files = new ConcurrentHashMap<>();
+	private Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private volatile boolean sendContentLength = true;
+	private volatile long reportedLength = -1;
+
+	public MockSalesforce() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/services/oauth2/token", this::token);
+		server.createContext(API_PATH + "/query", this::query);
+		server.createContext(API_PATH + "/sobjects/EventLogFile", this::logFile);
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "mock-salesforce");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return The url of the server, used as both the OAuth url and the instance url.
+	 */
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Add an event log file, returned by the query with a LogDate of the day after the previous file.
+	 * @param id
+	 * @param content
+	 */
+	public synchronized void addFile(String id, String content) {
+		ids.add(id);
+		files.put(id, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param sendContentLength False to send the files chunked, without a Content-Length.
+	 */
+	public void setSendContentLength(boolean sendContentLength) {
+		this.sendContentLength = sendContentLength;
+	}
+
+	/**
+	 * @param reportedLength LogFileLength returned by the query for every file, or -1 for the real length.
+	 */
+	public void setReportedLength(long reportedLength) {
+		this.reportedLength = reportedLength;
+	}
+
+	/**
+	 * @param id
+	 * @return The path the LogFile of the file is downloaded from.
+	 */
+	public static String getLogFilePath(String id) {
+		return API_PATH + "/sobjects/EventLogFile/" + id + "/LogFile";
+	}
+
+	/**
+	 * @param method E.G. GET
+	 * @param path
+	 * @return Number of requests with the method and path.
+	 */
+	public int getRequests(String method, String path) {
+		AtomicInteger count = requests.get(method + " " + path);
+		return count != null ? count.get() : 0;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void token(HttpExchange exchange) throws IOException {
+		this.count(exchange);
+		try (InputStream in = exchange.getRequestBody()) {
+			while(in.read() != -1) {
+				// Discard the request body
+			}
+		}
+		this.send(exchange, 200, "{\"access_token\":\"" + TOKEN + "\",\"instance_url\":\"" + this.getUrl()
+				+ "\",\"token_type\":\"Bearer\",\"issued_at\":\"" + System.currentTimeMillis() + "\"}");
+	}
+
+	private synchronized void query(HttpExchange exchange) throws IOException {
+		this.count(exchange);
+		if(!this.authorized(exchange)) return;
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"totalSize\":").append(ids.size()).append(",\"done\":true,\"records\":[");
+		for(int i = 0; i < ids.size(); i++) {
+			String id = ids.get(i);
+			String logDate = String.format("2020-07-%02dT00:00:00.000+0000", i % 28 + 1);
+			if(i > 0) sb.append(',');
+			sb.append("{\"Id\":\"").append(id).append("\",\"EventType\":\"API\",\"LogDate\":\"").append(logDate)
+				.append("\",\"LogFileLength\":").append(reportedLength >= 0 ? reportedLength : files.get(id).length)
+				.append(",\"LastModifiedDate\":\"").append(logDate).append("\",\"Interval\":\"Daily\",\"Sequence\":0")
+				.append(",\"LogFile\":\"").append(getLogFilePath(id)).append("\"}");
+		}
+		this.send(exchange, 200, sb.append("]}").toString());
+	}
+
+	private void logFile(HttpExchange exchange) throws IOException {
+		this.count(exchange);
+		if(!this.authorized(exchange)) return;
+		String path = exchange.getRequestURI().getPath();
+		String id = path.substring((API_PATH + "/sobjects/EventLogFile/").length(), path.length() - "/LogFile".length());
+		byte[] content = files.get(id);
+		if(content == null) {
+			this.send(exchange, 404, "[{\"errorCode\":\"NOT_FOUND\",\"message\":\"No such file\"}]");
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "text/csv");
+		exchange.sendResponseHeaders(200, sendContentLength ? content.length : 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content);
+		}
+	}
+
+	private boolean authorized(HttpExchange exchange) throws IOException {
+		if(!("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			this.send(exchange, 401, "[{\"errorCode\":\"INVALID_SESSION_ID\",\"message\":\"Session expired or invalid\"}]");
+			return false;
+		}
+		return true;
+	}
+
+	private void count(HttpExchange exchange) {
+		requests.computeIfAbsent(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(), key -> new AtomicInteger()).incrementAndGet();
+	}
+
+	private void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
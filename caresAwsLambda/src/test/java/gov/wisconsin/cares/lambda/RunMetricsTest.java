@@ -0,0 +1,182 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * @author andersx
+ *
+ */
+public class RunMetricsTest {
+
+	private TestContext context = new TestContext();
+
+	@Before
+	public void setUp() {
+		EnvUtils.setFallback(new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		EnvUtils.setFallback(null);
+	}
+
+	/**
+	 * Find the metric messages in the log, and check that each is an Embedded Metric Format object:
+	 * the message is a bare JSON object, and every dimension and metric it declares has a top-level value.
+	 * @param messages
+	 * @return The metric messages, parsed.
+	 */
+	static List<JsonNode> parseMetrics(List<String> messages) throws Exception {
+		List<JsonNode> metrics = new ArrayList<>();
+		for(String line: messages) {
+			if(!line.contains("\"_aws\"")) continue;
+			assertTrue("Metric line must start with '{': " + line, line.startsWith("{"));
+			JsonNode root = LambdaResources.getObjectMapper().readTree(line);
+
+			JsonNode directive = root.path("_aws").path("CloudWatchMetrics").path(0);
+			assertTrue(line, root.path("_aws").path("Timestamp").isNumber());
+			assertTrue(line, directive.path("Namespace").isTextual());
+			for(JsonNode dimension: directive.path("Dimensions").path(0)) {
+				assertTrue(line, root.path(dimension.asText()).isTextual());
+			}
+			assertTrue(line, directive.path("Metrics").size() > 0);
+			for(JsonNode metric: directive.path("Metrics")) {
+				assertTrue(line, metric.path("Unit").isTextual());
+				assertTrue(line, root.path(metric.path("Name").asText()).isNumber());
+			}
+			metrics.add(root);
+		}
+		return metrics;
+	}
+
+	private static List<String> dimensions(JsonNode metric) {
+		List<String> dimensions = new ArrayList<>();
+		for(JsonNode dimension: metric.path("_aws").path("CloudWatchMetrics").path(0).path("Dimensions").path(0)) {
+			dimensions.add(dimension.asText());
+		}
+		return dimensions;
+	}
+
+	private static SFEventLogFile eventLog(String id) {
+		SFEventLogFile eventLog = new SFEventLogFile();
+		eventLog.setId(id);
+		eventLog.setEventType("API");
+		eventLog.setLogFileLength(100);
+		return eventLog;
+	}
+
+	@Test
+	public void stageIsEmbeddedMetricFormat() throws Exception {
+		new RunMetrics(context.getLogger(), "test").recordStage(RunMetrics.STAGE_TOKEN, 250);
+
+		List<JsonNode> metrics = parseMetrics(context.getMessages());
+		assertEquals(1, metrics.size());
+		JsonNode metric = metrics.get(0);
+		assertEquals(Arrays.asList("FunctionName", "Stage"), dimensions(metric));
+		assertEquals("SFEventLogs", metric.path("_aws").path("CloudWatchMetrics").path(0).path("Namespace").asText());
+		assertEquals("Token", metric.path("Stage").asText());
+		assertEquals(250, metric.path("Duration").asLong());
+		assertEquals("Milliseconds", metric.path("_aws").path("CloudWatchMetrics").path(0).path("Metrics").path(0).path("Unit").asText());
+	}
+
+	@Test
+	public void orgIsADimension() throws Exception {
+		RunMetrics runMetrics = new RunMetrics(context.getLogger(), "test", "sandbox");
+		runMetrics.recordQuery(120, 2, 3000);
+
+		JsonNode metric = parseMetrics(context.getMessages()).get(0);
+		assertEquals(Arrays.asList("FunctionName", "Org", "Stage"), dimensions(metric));
+		assertEquals("sandbox", metric.path("Org").asText());
+		assertEquals(2, metric.path("Pages").asLong());
+		assertEquals(3000, metric.path("Files").asLong());
+	}
+
+	@Test
+	public void fileTransferAndRunSummary() throws Exception {
+		RunMetrics runMetrics = new RunMetrics(context.getLogger(), "test");
+		TransferSummary summary = new TransferSummary();
+		for(int i = 1; i <= 20; i++) {
+			runMetrics.recordFileTransfer(eventLog("0AT" + i), i * 10, i * 10, 1000, i == 1 ? 1 : 0);
+			summary.addCompleted(eventLog("0AT" + i), 1000);
+		}
+		summary.addSkipped(eventLog("0ATskipped"));
+		runMetrics.recordRun(summary);
+
+		List<JsonNode> metrics = parseMetrics(context.getMessages());
+		assertEquals(21, metrics.size());
+		JsonNode first = metrics.get(0);
+		assertEquals("Transfer", first.path("Stage").asText());
+		assertEquals("0AT1", first.path("EventLogFileId").asText());
+		assertEquals("API", first.path("EventType").asText());
+		assertEquals(20, first.path("Duration").asLong());
+		assertEquals(50000, first.path("Throughput").asLong());
+		assertEquals(1, first.path("Resumes").asLong());
+
+		JsonNode run = metrics.get(20);
+		assertEquals("Run", run.path("Stage").asText());
+		assertEquals(20, run.path("FilesTransferred").asLong());
+		assertEquals(20000, run.path("BytesTransferred").asLong());
+		assertEquals(1, run.path("FilesSkipped").asLong());
+		assertEquals(100, run.path("BytesSkipped").asLong());
+		assertEquals(200, run.path("FileLatencyP50").asLong());
+		assertEquals(380, run.path("FileLatencyP95").asLong());
+		assertEquals(400, run.path("FileLatencyMax").asLong());
+	}
+
+	@Test
+	public void metricsCanBeTurnedOff() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("emitMetrics", "false");
+		EnvUtils.setFallback(settings);
+
+		new RunMetrics(context.getLogger(), "test").recordStage(RunMetrics.STAGE_INIT, 10);
+
+		assertFalse(context.getLog(), context.getLog().contains("_aws"));
+	}
+
+	@Test
+	public void percentileOfNoValuesIsZero() {
+		assertEquals(0, RunMetrics.percentile(Collections.<Long>emptyList(), 50));
+		assertEquals(0, RunMetrics.percentile(Collections.<Long>emptyList(), 95));
+	}
+
+	@Test
+	public void percentileOfOneValue() {
+		List<Long> values = Collections.singletonList(42L);
+
+		assertEquals(42, RunMetrics.percentile(values, 0));
+		assertEquals(42, RunMetrics.percentile(values, 50));
+		assertEquals(42, RunMetrics.percentile(values, 100));
+	}
+
+	@Test
+	public void nearestRankPercentiles() {
+		List<Long> values = new ArrayList<>();
+		for(long i = 1; i <= 20; i++) {
+			values.add(i);
+		}
+
+		assertEquals(1, RunMetrics.percentile(values, 0));
+		assertEquals(10, RunMetrics.percentile(values, 50));
+		assertEquals(19, RunMetrics.percentile(values, 95));
+		assertEquals(20, RunMetrics.percentile(values, 99));
+		assertEquals(20, RunMetrics.percentile(values, 100));
+	}
+}
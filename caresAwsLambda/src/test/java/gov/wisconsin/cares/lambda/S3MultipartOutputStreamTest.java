@@ -0,0 +1,108 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * @author andersx
+ *
+ */
+public class S3MultipartOutputStreamTest {
+
+	private static final String BUCKET = "test-logs";
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+
+	private static void write(S3MultipartOutputStream out, byte[] content) throws Exception {
+		// Small writes, like a compressing or converting stream makes
+		for(int off = 0; off < content.length; off += 8192) {
+			out.write(content, off, Math.min(8192, content.length - off));
+		}
+	}
+
+	@Test
+	public void storesSinglePartWithOnePut() throws Exception {
+		TestS3 s3 = new TestS3();
+		byte[] content = content(1024 * 1024);
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3, BUCKET, "small.csv", new ObjectMetadata(),
+				S3MultipartOutputStream.MIN_PART_SIZE, 4, 0);
+
+		write(out, content);
+		out.close();
+
+		assertFalse(out.isMultipart());
+		assertArrayEquals(content, s3.getContent(BUCKET, "small.csv"));
+		assertEquals(1, s3.getCalls("putObject"));
+		assertEquals(0, s3.getCalls("initiateMultipartUpload"));
+	}
+
+	@Test
+	public void storesEmptyFileWithOnePut() throws Exception {
+		TestS3 s3 = new TestS3();
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3, BUCKET, "empty.csv", new ObjectMetadata(),
+				S3MultipartOutputStream.MIN_PART_SIZE, 4, 0);
+
+		out.close();
+
+		assertArrayEquals(new byte[0], s3.getContent(BUCKET, "empty.csv"));
+		assertEquals(0, s3.getCalls("initiateMultipartUpload"));
+	}
+
+	@Test
+	public void storesLargeFileAsMultipartUpload() throws Exception {
+		TestS3 s3 = new TestS3();
+		byte[] content = content(2 * S3MultipartOutputStream.MIN_PART_SIZE + 12345);
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3, BUCKET, "large.csv", new ObjectMetadata(),
+				S3MultipartOutputStream.MIN_PART_SIZE, 2, 0);
+
+		write(out, content);
+		out.close();
+
+		assertTrue(out.isMultipart());
+		assertArrayEquals(content, s3.getContent(BUCKET, "large.csv"));
+		assertEquals(0, s3.getCalls("putObject"));
+		assertEquals(3, s3.getCalls("uploadPart"));
+		assertEquals(0, s3.getOpenUploads());
+	}
+
+	@Test
+	public void abortBeforeFirstPartMakesNoRequests() throws Exception {
+		TestS3 s3 = new TestS3();
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3, BUCKET, "aborted.csv", new ObjectMetadata(),
+				S3MultipartOutputStream.MIN_PART_SIZE, 4, 0);
+
+		write(out, content(1000));
+		out.abort();
+
+		assertNull(s3.getContent(BUCKET, "aborted.csv"));
+		assertEquals(0, s3.getCalls("abortMultipartUpload"));
+		assertEquals(0, s3.getCalls("putObject"));
+	}
+
+	@Test
+	public void abortAfterFirstPartAbortsUpload() throws Exception {
+		TestS3 s3 = new TestS3();
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3, BUCKET, "aborted.csv", new ObjectMetadata(),
+				S3MultipartOutputStream.MIN_PART_SIZE, 4, 0);
+
+		write(out, content(S3MultipartOutputStream.MIN_PART_SIZE + 1000));
+		out.abort();
+
+		assertNull(s3.getContent(BUCKET, "aborted.csv"));
+		assertEquals(1, s3.getCalls("abortMultipartUpload"));
+		assertEquals(0, s3.getOpenUploads());
+	}
+}
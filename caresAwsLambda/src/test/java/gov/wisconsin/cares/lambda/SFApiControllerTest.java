@@ -0,0 +1,222 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.net.SocketException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class SFApiControllerTest {
+
+	private TestContext context = new TestContext();
+
+	@Before
+	public void setUp() {
+		EnvUtils.setFallback(new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		EnvUtils.setFallback(null);
+	}
+
+	private static HttpResponse response(int status, String... headers) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+		for(int i = 0; i < headers.length; i += 2) {
+			response.addHeader(headers[i], headers[i + 1]);
+		}
+		return response;
+	}
+
+	@Test
+	public void throttlingHalvesTheLimit() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+
+		controller.recordResponse(response(429), 100);
+		assertEquals(4, controller.getConcurrencyLimit());
+		controller.recordResponse(response(503), 100);
+		assertEquals(2, controller.getConcurrencyLimit());
+		controller.recordFailure(new SocketException());
+		controller.recordResponse(response(500), -1);
+		assertEquals(1, controller.getConcurrencyLimit());
+		assertTrue(context.getLog(), context.getLog().contains("Salesforce api status 429, lowering concurrent transfers to 4"));
+	}
+
+	@Test
+	public void lowLatencyRaisesTheLimitToTheMaximum() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+		controller.recordResponse(response(429), 100);
+		controller.recordResponse(response(429), 100);
+		assertEquals(2, controller.getConcurrencyLimit());
+
+		// Additive increase of 1/limit per response, 2 + 1/2 + 1/2.5 + 1/2.9 = 3.2
+		for(int i = 0; i < 2; i++) {
+			controller.recordResponse(response(200), 100);
+		}
+		assertEquals(2, controller.getConcurrencyLimit());
+		controller.recordResponse(response(200), 100);
+		assertEquals(3, controller.getConcurrencyLimit());
+		for(int i = 0; i < 100; i++) {
+			controller.recordResponse(response(200), 100);
+		}
+		assertEquals(8, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void highLatencyLowersTheLimitByOne() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+		controller.recordResponse(response(200), 100);
+
+		// Lowered only once 'limit' responses have been seen since the last decrease
+		for(int i = 0; i < 6; i++) {
+			controller.recordResponse(response(200), 1000);
+		}
+		assertEquals(8, controller.getConcurrencyLimit());
+		controller.recordResponse(response(200), 1000);
+		assertEquals(7, controller.getConcurrencyLimit());
+
+		for(int i = 0; i < 200; i++) {
+			controller.recordResponse(response(200), 1000);
+		}
+		assertEquals(1, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void responseTimeOfQueriesIsNotUsed() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+		controller.recordResponse(response(200), 100);
+
+		for(int i = 0; i < 50; i++) {
+			controller.recordResponse(response(200), -1);
+		}
+		assertEquals(8, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void apiReserveLimitsTransfersToOne() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+		assertEquals(-1, controller.getApiRemaining());
+
+		controller.recordResponse(response(200, "Sforce-Limit-Info", "api-usage=25/15000"), -1);
+		assertEquals(14975, controller.getApiRemaining());
+		assertEquals(8, controller.getConcurrencyLimit());
+
+		// Less than 20% of the 15000 requests left
+		controller.recordResponse(response(200, "Sforce-Limit-Info", "api-usage=12001/15000, per-app-api-usage=10/5000(appName=x)"), -1);
+		assertEquals(2999, controller.getApiRemaining());
+		assertEquals(1, controller.getConcurrencyLimit());
+		assertTrue(context.getLog(), context.getLog().contains("Salesforce api usage is 12001/15000"));
+
+		// A header that can not be read leaves the usage as it was
+		controller.recordResponse(response(200, "Sforce-Limit-Info", "api-usage=x/y"), -1);
+		assertEquals(2999, controller.getApiRemaining());
+	}
+
+	@Test
+	public void apiReservePercentIsConfigurable() {
+		Properties settings = new Properties();
+		settings.setProperty("apiReservePercent", "0");
+		EnvUtils.setFallback(settings);
+		SFApiController controller = new SFApiController(8, context.getLogger());
+
+		controller.recordResponse(response(200, "Sforce-Limit-Info", "api-usage=14999/15000"), -1);
+		assertEquals(8, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void backoffUsesRetryAfterSeconds() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+
+		assertEquals(5000, controller.getBackoffMillis(1, response(429, "Retry-After", "5")));
+		assertEquals(30000, controller.getBackoffMillis(1, response(429, "Retry-After", "3600")));
+	}
+
+	@Test
+	public void backoffIsCappedAtApiRetryMaxMillis() {
+		Properties settings = new Properties();
+		settings.setProperty("apiRetryMaxMillis", "2000");
+		EnvUtils.setFallback(settings);
+		SFApiController controller = new SFApiController(8, context.getLogger());
+
+		assertEquals(2000, controller.getBackoffMillis(1, response(503, "Retry-After", "10")));
+		for(int attempt = 1; attempt < 100; attempt++) {
+			long millis = controller.getBackoffMillis(attempt, null);
+			assertTrue(attempt + ": " + millis, millis >= 0 && millis <= 2000);
+		}
+	}
+
+	@Test
+	public void backoffWithHttpDateUsesJitter() {
+		SFApiController controller = new SFApiController(8, context.getLogger());
+		HttpResponse response = response(503, "Retry-After", "Wed, 21 Oct 2026 07:28:00 GMT");
+
+		for(int i = 0; i < 200; i++) {
+			assertTrue(controller.getBackoffMillis(1, response) <= 500);
+			assertTrue(controller.getBackoffMillis(3, response) <= 2000);
+			long millis = controller.getBackoffMillis(64, response);
+			assertTrue(String.valueOf(millis), millis >= 0 && millis <= 30000);
+		}
+	}
+
+	@Test
+	public void acquireWaitsForRelease() throws Exception {
+		SFApiController controller = new SFApiController(2, context.getLogger());
+		controller.acquire();
+		controller.acquire();
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiting = new Thread(() -> {
+			try {
+				controller.acquire();
+				acquired.countDown();
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiting.start();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+		controller.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		waiting.join();
+	}
+
+	@Test
+	public void raisedLimitWakesWaitingTransfers() throws Exception {
+		SFApiController controller = new SFApiController(2, context.getLogger());
+		controller.recordResponse(response(429), -1);
+		controller.acquire();
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiting = new Thread(() -> {
+			try {
+				controller.acquire();
+				acquired.countDown();
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiting.start();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+		controller.recordResponse(response(200), 100);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		waiting.join();
+	}
+}
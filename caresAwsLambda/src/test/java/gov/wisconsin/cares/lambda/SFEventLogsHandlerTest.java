@@ -0,0 +1,189 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Runs SFEventLogsHandler.handleRequest against the mock Salesforce server and the in-memory S3.
+ * @author andersx
+ *
+ */
+public class SFEventLogsHandlerTest {
+
+	static final String DST_BUCKET = "test-logs";
+	static final String WTR_MRK_BUCKET = "test-watermark";
+
+	private static String signingKey;
+	private MockSalesforce salesforce;
+	private TestS3 s3;
+	private Properties settings;
+
+	@BeforeClass
+	public static void createSigningKey() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		signingKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPrivate().getEncoded());
+	}
+
+	@AfterClass
+	public static void clearSettings() {
+		EnvUtils.setFallback(null);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		salesforce = new MockSalesforce();
+		settings = getSettings(salesforce.getUrl(), signingKey);
+		EnvUtils.setFallback(settings);
+		s3 = new TestS3();
+		LambdaResources.setS3Client(s3);
+		SFTokenManager.getInstance().invalidate();
+	}
+
+	@After
+	public void tearDown() {
+		salesforce.close();
+	}
+
+	/**
+	 * @return The settings of a single org deployment against the mock server.
+	 */
+	static Properties getSettings(String salesforceUrl, String signingKey) {
+		Properties settings = new Properties();
+		settings.setProperty("ENV", "test");
+		settings.setProperty("primeOnInit", "false");
+		settings.setProperty("salesforceAPIversion", "48.0");
+		settings.setProperty("salesforceOauth2Url", salesforceUrl);
+		settings.setProperty("salesforceJWTIssuer", "test-connected-app");
+		settings.setProperty("salesforceServiceAccountUser", "test@example.com");
+		settings.setProperty("jwtSigningKey", signingKey);
+		settings.setProperty("salesforceLogFileDstBkt", DST_BUCKET);
+		settings.setProperty("salesforceEventLogFilesWatermarkBkt", WTR_MRK_BUCKET);
+		settings.setProperty("watermarkFile", "watermark.txt");
+		settings.setProperty("updateWtrMrkTimestamp", "true");
+		settings.setProperty("emitMetrics", "false");
+		return settings;
+	}
+
+	static String csvFile(int rows) {
+		StringBuilder sb = new StringBuilder("\"EVENT_TYPE\",\"TIMESTAMP\",\"USER_ID\"\n");
+		for(int i = 0; i < rows; i++) {
+			sb.append("\"API\",\"20200701000000.").append(i).append("\",\"0053t0000001").append(i).append("\"\n");
+		}
+		return sb.toString();
+	}
+
+	private String getKey(int day) {
+		return String.format("2020-07-%02d", day) + File.separator + "API.csv";
+	}
+
+	@Test
+	public void downloadsEachLogFileOnce() throws Exception {
+		for(int i = 1; i <= 5; i++) {
+			salesforce.addFile("0AT00000000000" + i, csvFile(100 * i));
+		}
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), new TestContext()));
+
+		for(int i = 1; i <= 5; i++) {
+			assertEquals("GET requests of file " + i, 1, salesforce.getRequests("GET", MockSalesforce.getLogFilePath("0AT00000000000" + i)));
+			assertArrayEquals(csvFile(100 * i).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, this.getKey(i)));
+		}
+	}
+
+	@Test
+	public void storesWholeFileWithoutContentLength() throws Exception {
+		salesforce.setSendContentLength(false);
+		salesforce.setReportedLength(10);
+		salesforce.addFile("0AT000000000001", csvFile(1000));
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), new TestContext()));
+
+		assertEquals(1, salesforce.getRequests("GET", MockSalesforce.getLogFilePath("0AT000000000001")));
+		assertArrayEquals(csvFile(1000).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, this.getKey(1)));
+	}
+
+	@Test
+	public void forbiddenHeadRequestIsNotStored() throws Exception {
+		s3.setHeadStatus(403);
+		salesforce.addFile("0AT000000000001", csvFile(10));
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), new TestContext()));
+
+		assertEquals(1, salesforce.getRequests("GET", MockSalesforce.getLogFilePath("0AT000000000001")));
+		assertArrayEquals(csvFile(10).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, this.getKey(1)));
+	}
+
+	@Test
+	public void taggingFailureIsLogged() throws Exception {
+		s3.setTaggingStatus(403);
+		salesforce.addFile("0AT000000000001", csvFile(10));
+		TestContext context = new TestContext();
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), context));
+
+		assertArrayEquals(csvFile(10).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, this.getKey(1)));
+		assertNull(s3.getTags(DST_BUCKET, this.getKey(1)));
+		assertTrue(context.getLog(), context.getLog().contains("Warning: Unable to tag " + this.getKey(1)));
+	}
+
+	@Test
+	public void storesProjectedCsvAndParquet() throws Exception {
+		settings.setProperty("logFileOutputFormat", "CSV_AND_PARQUET");
+		settings.setProperty("logFileColumns", "API:USER_ID,TIMESTAMP");
+		salesforce.addFile("0AT000000000001", csvFile(3));
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), new TestContext()));
+
+		assertEquals("\"TIMESTAMP\",\"USER_ID\"\n\"20200701000000.0\",\"0053t00000010\"\n"
+				+ "\"20200701000000.1\",\"0053t00000011\"\n\"20200701000000.2\",\"0053t00000012\"\n", s3.getString(DST_BUCKET, this.getKey(1)));
+		String parquet = s3.getString(DST_BUCKET, "parquet/" + this.getKey(1).replace(".csv", ".parquet"));
+		assertTrue("Parquet file", parquet.startsWith("PAR1") && parquet.endsWith("PAR1"));
+		assertTrue("Parquet columns", parquet.contains("TIMESTAMP") && parquet.contains("USER_ID") && !parquet.contains("EVENT_TYPE"));
+	}
+
+	@Test
+	public void emitsMetricsOfEachOrg() throws Exception {
+		settings.setProperty("emitMetrics", "true");
+		settings.setProperty("salesforceOrgs", "[{\"name\":\"prod\"},{\"name\":\"uat\"}]");
+		salesforce.addFile("0AT000000000001", csvFile(10));
+		TestContext context = new TestContext();
+
+		assertEquals("200 OK", new SFEventLogsHandler().handleRequest(new ScheduledEvent(), context));
+
+		assertArrayEquals(csvFile(10).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, "prod/" + this.getKey(1)));
+		assertArrayEquals(csvFile(10).getBytes(StandardCharsets.UTF_8), s3.getContent(DST_BUCKET, "uat/" + this.getKey(1)));
+		Map<String, Set<String>> stagesByOrg = new TreeMap<>();
+		for(JsonNode metric: RunMetricsTest.parseMetrics(context.getMessages())) {
+			stagesByOrg.computeIfAbsent(metric.path("Org").asText(), org -> new TreeSet<>()).add(metric.path("Stage").asText());
+		}
+		Set<String> stages = new TreeSet<>(Arrays.asList(RunMetrics.STAGE_TOKEN, RunMetrics.STAGE_QUERY, RunMetrics.STAGE_TRANSFER, RunMetrics.STAGE_RUN));
+		assertEquals(stages, stagesByOrg.get("prod"));
+		assertEquals(stages, stagesByOrg.get("uat"));
+		assertEquals(2, stagesByOrg.size());
+	}
+}
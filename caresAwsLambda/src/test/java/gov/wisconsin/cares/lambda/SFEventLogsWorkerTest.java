@@ -0,0 +1,164 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.WorkItem;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+/**
+ * Runs SFEventLogsWorker against the mock Salesforce server and the in-memory S3.
+ * @author andersx
+ *
+ */
+public class SFEventLogsWorkerTest {
+
+	private static final String RUN_FILE = "watermark.txt.run.json";
+
+	private static String signingKey;
+	private MockSalesforce salesforce;
+	private TestS3 s3;
+
+	@BeforeClass
+	public static void createSigningKey() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		signingKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPrivate().getEncoded());
+	}
+
+	@AfterClass
+	public static void clearSettings() {
+		EnvUtils.setFallback(null);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		salesforce = new MockSalesforce();
+		EnvUtils.setFallback(SFEventLogsHandlerTest.getSettings(salesforce.getUrl(), signingKey));
+		s3 = new TestS3();
+		LambdaResources.setS3Client(s3);
+		SFTokenManager.getInstance().invalidate();
+		salesforce.addFile("0AT000000000001", SFEventLogsHandlerTest.csvFile(10));
+	}
+
+	@After
+	public void tearDown() {
+		salesforce.close();
+	}
+
+	private WorkItem startRun(String runId) throws Exception {
+		SFEventLogFile eventLog = new SFEventLogFile();
+		eventLog.setId("0AT000000000001");
+		eventLog.setEventType("API");
+		eventLog.setLogDate("2020-07-01T00:00:00.000+0000");
+		eventLog.setLogFileLength(SFEventLogsHandlerTest.csvFile(10).length());
+		eventLog.setLogFile(MockSalesforce.getLogFilePath("0AT000000000001"));
+		WorkRun run = WorkRun.start(SFEventLogsHandlerTest.WTR_MRK_BUCKET, RUN_FILE, runId, "2020-07-01T00:00:00Z", Collections.singletonList(eventLog));
+		run.save(s3);
+		return run.getItems().get(0);
+	}
+
+	private List<String> getDoneMarkers() {
+		List<String> keys = s3.getKeys(SFEventLogsHandlerTest.WTR_MRK_BUCKET);
+		keys.removeIf(key -> !key.startsWith(RUN_FILE + ".done/"));
+		return keys;
+	}
+
+	private static SQSEvent event(String body, int receiveCount) {
+		SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+		message.setBody(body);
+		message.setAttributes(Collections.singletonMap(SqsWorkQueue.RECEIVE_COUNT, String.valueOf(receiveCount)));
+		SQSEvent event = new SQSEvent();
+		event.setRecords(Collections.singletonList(message));
+		return event;
+	}
+
+	@Test
+	public void storesItemAndMarksItDone() throws Exception {
+		WorkItem item = this.startRun("run-1");
+
+		assertNotNull(new SFEventLogsWorker().process(item, new TestContext()));
+
+		assertArrayEquals(SFEventLogsHandlerTest.csvFile(10).getBytes(StandardCharsets.UTF_8),
+				s3.getContent(SFEventLogsHandlerTest.DST_BUCKET, SFEventLogsHandler.getDestKeyName(item.getEventLogs().get(0)) + ".csv"));
+		assertEquals(1, this.getDoneMarkers().size());
+	}
+
+	@Test
+	public void ignoresItemOfFinishedRun() throws Exception {
+		WorkItem item = this.startRun("run-1");
+		WorkRun.load(s3, SFEventLogsHandlerTest.WTR_MRK_BUCKET, RUN_FILE).close(s3);
+
+		assertNull(new SFEventLogsWorker().process(item, new TestContext()));
+
+		assertEquals(0, salesforce.getRequests("GET", MockSalesforce.getLogFilePath("0AT000000000001")));
+		assertTrue(this.getDoneMarkers().isEmpty());
+	}
+
+	@Test
+	public void ignoresItemOfPreviousRun() throws Exception {
+		WorkItem item = this.startRun("run-1");
+		this.startRun("run-2");
+
+		assertNull(new SFEventLogsWorker().process(item, new TestContext()));
+
+		assertTrue(this.getDoneMarkers().isEmpty());
+	}
+
+	@Test
+	public void failureBeforeLastReceiveIsRetriedQuietly() throws Exception {
+		TestContext context = new TestContext();
+		try {
+			new SFEventLogsWorker().handleRequest(event("not a work item", 1), context);
+			fail("The invocation should fail, so the message is delivered again");
+		}catch(RuntimeException e) {
+			assertTrue(context.getLog(), context.getLog().contains("it will be delivered again"));
+		}
+	}
+
+	@Test
+	public void failureOnLastReceiveNotifies() throws Exception {
+		TestContext context = new TestContext();
+		try {
+			new SFEventLogsWorker().handleRequest(event("not a work item", 3), context);
+			fail("The invocation should fail");
+		}catch(RuntimeException e) {
+			assertTrue(context.getLog(), context.getLog().contains("it will not be delivered again"));
+		}
+	}
+
+	@Test
+	public void lastReceiveFollowsMaxReceiveCount() {
+		SQSEvent.SQSMessage message = event("", 4).getRecords().get(0);
+		assertTrue(SqsWorkQueue.isLastReceive(message));
+
+		Properties settings = SFEventLogsHandlerTest.getSettings(salesforce.getUrl(), signingKey);
+		settings.setProperty("workQueueMaxReceiveCount", "5");
+		EnvUtils.setFallback(settings);
+		assertFalse(SqsWorkQueue.isLastReceive(message));
+
+		message.setAttributes(null);
+		assertTrue("unknown receive count", SqsWorkQueue.isLastReceive(message));
+	}
+}
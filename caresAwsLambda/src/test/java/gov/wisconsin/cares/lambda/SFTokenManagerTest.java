@@ -0,0 +1,132 @@
+package gov.wisconsin.cares.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.wisconsin.cares.pojo.SFaccessToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class SFTokenManagerTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	private static SFaccessToken token(String accessToken, long issuedAt) {
+		SFaccessToken token = new SFaccessToken();
+		token.setAccesToken(accessToken);
+		token.setIssuedAt(issuedAt);
+		return token;
+	}
+
+	@Test
+	public void reusesTokenUntilRefreshMargin() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+		AtomicInteger requests = new AtomicInteger();
+
+		SFaccessToken first = manager.getToken(() -> token("first" + requests.incrementAndGet(), System.currentTimeMillis()));
+		SFaccessToken second = manager.getToken(() -> token("second" + requests.incrementAndGet(), System.currentTimeMillis()));
+
+		assertSame(first, second);
+		assertEquals(1, requests.get());
+		assertEquals(1, manager.getRefreshCount());
+	}
+
+	@Test
+	public void refreshesTokenInsideRefreshMargin() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+		// Issued 1 hour and 55 minutes ago, 5 minutes before the session timeout
+		long issuedAt = System.currentTimeMillis() - 2 * HOUR + TimeUnit.MINUTES.toMillis(5);
+
+		SFaccessToken first = manager.getToken(() -> token("first", issuedAt));
+		SFaccessToken second = manager.getToken(() -> token("second", System.currentTimeMillis()));
+
+		assertEquals("second", second.getAccesToken());
+		assertNotSame(first, second);
+		assertEquals(2, manager.getRefreshCount());
+	}
+
+	@Test
+	public void issuedAtInTheFutureCountsFromTheRequest() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+
+		SFaccessToken first = manager.getToken(() -> token("first", System.currentTimeMillis() + 10 * HOUR));
+
+		assertSame(first, manager.getToken(() -> token("second", System.currentTimeMillis())));
+		assertEquals(1, manager.getRefreshCount());
+	}
+
+	@Test
+	public void concurrentRefreshesRequestOneToken() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+		SFaccessToken stale = manager.getToken(() -> token("stale", System.currentTimeMillis()));
+		AtomicInteger requests = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<SFaccessToken>> results = new ArrayList<>();
+			for(int i = 0; i < 8; i++) {
+				results.add(executor.submit((Callable<SFaccessToken>) () -> {
+					start.await();
+					return manager.refresh(stale, () -> {
+						Thread.sleep(50);
+						return token("fresh" + requests.incrementAndGet(), System.currentTimeMillis());
+					});
+				}));
+			}
+			start.countDown();
+			for(Future<SFaccessToken> result: results) {
+				assertEquals("fresh1", result.get(10, TimeUnit.SECONDS).getAccesToken());
+			}
+		}finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, requests.get());
+		assertEquals(2, manager.getRefreshCount());
+	}
+
+	@Test
+	public void invalidateRequestsNewToken() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+		manager.getToken(() -> token("first", System.currentTimeMillis()));
+
+		manager.invalidate();
+
+		assertEquals("second", manager.getToken(() -> token("second", System.currentTimeMillis())).getAccesToken());
+		assertEquals(2, manager.getRefreshCount());
+	}
+
+	@Test
+	public void failedRefreshDropsToken() throws Exception {
+		SFTokenManager manager = new SFTokenManager(2 * HOUR, TimeUnit.MINUTES.toMillis(10));
+		SFaccessToken first = manager.getToken(() -> token("first", System.currentTimeMillis()));
+
+		try {
+			manager.refresh(first, () -> {
+				throw new Exception("Mock failure");
+			});
+			fail("The failed request should fail the refresh");
+		}catch(Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Mock failure"));
+			assertTrue(e.getMessage(), e.getMessage().contains(SFTokenManager.class.getName() + "::refresh"));
+		}
+
+		assertEquals("second", manager.getToken(() -> token("second", System.currentTimeMillis())).getAccesToken());
+	}
+}
@@ -0,0 +1,115 @@
+package gov.wisconsin.cares.lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Lambda Context for the tests. The log is kept, so a test can check what was logged.
+ * Lambda writes each logged message as its own log event, so the messages are also kept one by one.
+ * @author andersx
+ *
+ */
+public class TestContext implements Context {
+
+	private long deadline;
+	private StringBuffer log = new StringBuffer();
+	private List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+	private LambdaLogger logger = new LambdaLogger() {
+		@Override
+		public void log(String message) {
+			log.append(message);
+			messages.add(message);
+		}
+
+		@Override
+		public void log(byte[] message) {
+			this.log(new String(message, StandardCharsets.UTF_8));
+		}
+	};
+
+	/**
+	 * @param timeoutMillis Time the invocation has, counted from now.
+	 */
+	public TestContext(long timeoutMillis) {
+		this.deadline = System.currentTimeMillis() + timeoutMillis;
+	}
+
+	public TestContext() {
+		this(60000);
+	}
+
+	public String getLog() {
+		return log.toString();
+	}
+
+	/**
+	 * @return The logged messages, in the order they were logged.
+	 */
+	public List<String> getMessages() {
+		synchronized(messages) {
+			return new ArrayList<>(messages);
+		}
+	}
+
+	@Override
+	public String getAwsRequestId() {
+		return "test";
+	}
+
+	@Override
+	public String getLogGroupName() {
+		return "test";
+	}
+
+	@Override
+	public String getLogStreamName() {
+		return "test";
+	}
+
+	@Override
+	public String getFunctionName() {
+		return "test";
+	}
+
+	@Override
+	public String getFunctionVersion() {
+		return "$LATEST";
+	}
+
+	@Override
+	public String getInvokedFunctionArn() {
+		return "arn:aws:lambda:local:000000000000:function:test";
+	}
+
+	@Override
+	public CognitoIdentity getIdentity() {
+		return null;
+	}
+
+	@Override
+	public ClientContext getClientContext() {
+		return null;
+	}
+
+	@Override
+	public int getRemainingTimeInMillis() {
+		return (int) Math.max(Math.min(deadline - System.currentTimeMillis(), Integer.MAX_VALUE), 0);
+	}
+
+	@Override
+	public int getMemoryLimitInMB() {
+		return 1024;
+	}
+
+	@Override
+	public LambdaLogger getLogger() {
+		return logger;
+	}
+}
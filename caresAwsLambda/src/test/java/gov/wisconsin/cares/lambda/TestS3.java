@@ -0,0 +1,285 @@
+package gov.wisconsin.cares.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * In-memory S3 for the tests, implementing the calls the function makes. The content of every object is kept,
+ * and the calls are counted by name, E.G. putObject or uploadPart. A status code can be set for the HEAD and tagging requests,
+ * to test missing permissions.
+ * @author andersx
+ *
+ */
+public class TestS3 extends AbstractAmazonS3 {
+
+	private Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+	private Map<String, ObjectMetadata> metadata = new ConcurrentHashMap<>();
+	private Map<String, Map<String, String>> tags = new ConcurrentHashMap<>();
+	private Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+	private Map<String, ObjectMetadata> uploadMetadata = new ConcurrentHashMap<>();
+	private Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+	private volatile int headStatus = 0;
+	private volatile int taggingStatus = 0;
+
+	/**
+	 * @return The content of the object, or null if it does not exist.
+	 */
+	public byte[] getContent(String bucket, String key) {
+		return objects.get(bucket + "/" + key);
+	}
+
+	/**
+	 * @return The content of the object as a string, or null if it does not exist.
+	 */
+	public String getString(String bucket, String key) {
+		byte[] content = this.getContent(bucket, key);
+		return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * @return Keys of the objects in the bucket, in order.
+	 */
+	public List<String> getKeys(String bucket) {
+		List<String> keys = new ArrayList<>();
+		for(String name: objects.keySet()) {
+			if(name.startsWith(bucket + "/")) keys.add(name.substring(bucket.length() + 1));
+		}
+		return keys;
+	}
+
+	/**
+	 * @return The tags of the object, or null if it has none.
+	 */
+	public Map<String, String> getTags(String bucket, String key) {
+		return tags.get(bucket + "/" + key);
+	}
+
+	/**
+	 * @param name Name of the call, E.G. putObject.
+	 * @return Number of times the call was made.
+	 */
+	public int getCalls(String name) {
+		AtomicInteger count = calls.get(name);
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * @return Number of multipart uploads started and not completed or aborted.
+	 */
+	public int getOpenUploads() {
+		return uploads.size();
+	}
+
+	/**
+	 * @param status Status code to fail getObjectMetadata with, E.G. 403, or 0 to answer normally.
+	 */
+	public void setHeadStatus(int status) {
+		this.headStatus = status;
+	}
+
+	/**
+	 * @param status Status code to fail setObjectTagging with, E.G. 403, or 0 to answer normally.
+	 */
+	public void setTaggingStatus(int status) {
+		this.taggingStatus = status;
+	}
+
+	@Override
+	public boolean doesObjectExist(String bucket, String key) {
+		this.call("doesObjectExist");
+		return objects.containsKey(bucket + "/" + key);
+	}
+
+	@Override
+	public S3Object getObject(String bucket, String key) {
+		this.call("getObject");
+		byte[] content = this.find(bucket, key);
+		S3Object s3Object = new S3Object();
+		s3Object.setBucketName(bucket);
+		s3Object.setKey(key);
+		s3Object.setObjectMetadata(metadata.get(bucket + "/" + key).clone());
+		s3Object.setObjectContent(new ByteArrayInputStream(content));
+		return s3Object;
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(String bucket, String key) {
+		this.call("getObjectMetadata");
+		if(headStatus != 0) {
+			throw error(headStatus, "Mock status " + headStatus);
+		}
+		this.find(bucket, key);
+		return metadata.get(bucket + "/" + key).clone();
+	}
+
+	@Override
+	public PutObjectResult putObject(String bucket, String key, String content) {
+		ObjectMetadata meta = new ObjectMetadata();
+		meta.setContentType("text/plain");
+		return this.putObject(bucket, key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), meta);
+	}
+
+	@Override
+	public PutObjectResult putObject(String bucket, String key, InputStream input, ObjectMetadata meta) {
+		this.call("putObject");
+		byte[] content = read(input);
+		if(meta != null && meta.getRawMetadataValue("Content-Length") != null && meta.getContentLength() != content.length) {
+			throw error(400, "Content-Length " + meta.getContentLength() + " does not match the " + content.length + " bytes sent");
+		}
+		this.store(bucket + "/" + key, content, meta);
+		return new PutObjectResult();
+	}
+
+	@Override
+	public void deleteObject(String bucket, String key) {
+		this.call("deleteObject");
+		objects.remove(bucket + "/" + key);
+		metadata.remove(bucket + "/" + key);
+		tags.remove(bucket + "/" + key);
+	}
+
+	@Override
+	public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+		this.call("initiateMultipartUpload");
+		String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+		uploadMetadata.put(uploadId, request.getObjectMetadata() != null ? request.getObjectMetadata().clone() : new ObjectMetadata());
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setUploadId(uploadId);
+		return result;
+	}
+
+	@Override
+	public UploadPartResult uploadPart(UploadPartRequest request) {
+		this.call("uploadPart");
+		Map<Integer, byte[]> parts = uploads.get(request.getUploadId());
+		if(parts == null) {
+			throw error(404, "No such upload " + request.getUploadId());
+		}
+		parts.put(request.getPartNumber(), read(request.getInputStream()));
+		UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag("etag-" + request.getPartNumber());
+		return result;
+	}
+
+	@Override
+	public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+		this.call("completeMultipartUpload");
+		Map<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+		if(parts == null) {
+			throw error(404, "No such upload " + request.getUploadId());
+		}
+		Map<Integer, byte[]> ordered = new TreeMap<>();
+		for(PartETag part: request.getPartETags()) {
+			byte[] content = parts.get(part.getPartNumber());
+			if(content == null) {
+				throw error(400, "Invalid part " + part.getPartNumber());
+			}
+			ordered.put(part.getPartNumber(), content);
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for(byte[] part: ordered.values()) {
+			content.write(part, 0, part.length);
+		}
+		this.store(request.getBucketName() + "/" + request.getKey(), content.toByteArray(), uploadMetadata.remove(request.getUploadId()));
+
+		CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		return result;
+	}
+
+	@Override
+	public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+		this.call("abortMultipartUpload");
+		uploads.remove(request.getUploadId());
+		uploadMetadata.remove(request.getUploadId());
+	}
+
+	@Override
+	public SetObjectTaggingResult setObjectTagging(SetObjectTaggingRequest request) {
+		this.call("setObjectTagging");
+		if(taggingStatus != 0) {
+			throw error(taggingStatus, "Mock status " + taggingStatus);
+		}
+		this.find(request.getBucketName(), request.getKey());
+		Map<String, String> objectTags = new ConcurrentHashMap<>();
+		request.getTagging().getTagSet().forEach(tag -> objectTags.put(tag.getKey(), tag.getValue()));
+		tags.put(request.getBucketName() + "/" + request.getKey(), objectTags);
+		return new SetObjectTaggingResult();
+	}
+
+	@Override
+	public void shutdown() {
+		// Nothing to release, the objects are kept
+	}
+
+	private void store(String name, byte[] content, ObjectMetadata meta) {
+		ObjectMetadata stored = meta != null ? meta.clone() : new ObjectMetadata();
+		stored.setContentLength(content.length);
+		objects.put(name, content);
+		metadata.put(name, stored);
+	}
+
+	private byte[] find(String bucket, String key) {
+		byte[] content = objects.get(bucket + "/" + key);
+		if(content == null) {
+			throw error(404, "The specified key does not exist: " + key);
+		}
+		return content;
+	}
+
+	private void call(String name) {
+		calls.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+	}
+
+	private static AmazonS3Exception error(int status, String message) {
+		AmazonS3Exception e = new AmazonS3Exception(message);
+		e.setStatusCode(status);
+		return e;
+	}
+
+	private static byte[] read(InputStream input) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		try {
+			int n;
+			while((n = input.read(buffer)) != -1) {
+				content.write(buffer, 0, n);
+			}
+		}catch(IOException e) {
+			throw error(400, "Unable to read the request body, " + e.getMessage());
+		}
+		return content.toByteArray();
+	}
+}
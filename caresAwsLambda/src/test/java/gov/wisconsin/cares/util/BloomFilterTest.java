@@ -0,0 +1,105 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class BloomFilterTest {
+
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+
+	private static List<String> values(String prefix, int count) {
+		List<String> values = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			values.add(prefix + i);
+		}
+		// Values as they appear in the file, with escaped quotes
+		values.add("Mozilla \"\"5.0\"\" (Windows)");
+		values.add("\"\"");
+		values.add("");
+		return values;
+	}
+
+	private static BloomFilter filter(List<String> values, long bits) {
+		BloomFilter filter = new BloomFilter(bits, BloomFilter.optimalHashCount(FALSE_POSITIVE_RATE));
+		for(String value: values) {
+			filter.add(HashUtils.hash64(value));
+		}
+		return filter;
+	}
+
+	private static double falsePositives(BloomFilter filter, int tries) {
+		int positives = 0;
+		for(int i = 0; i < tries; i++) {
+			if(filter.mightContain(HashUtils.hash64("absent" + i))) positives++;
+		}
+		return (double) positives / tries;
+	}
+
+	@Test
+	public void hasNoFalseNegatives() {
+		List<String> values = values("0053t000000", 10000);
+		BloomFilter filter = filter(values, BloomFilter.optimalBits(values.size(), FALSE_POSITIVE_RATE));
+
+		for(String value: values) {
+			assertTrue(value, filter.mightContain(HashUtils.hash64(value)));
+		}
+		assertTrue(falsePositives(filter, 100000) < 2 * FALSE_POSITIVE_RATE);
+	}
+
+	@Test
+	public void foldedFilterHasNoFalseNegatives() {
+		List<String> values = values("0053t000000", 1000);
+		// Sized for a million values, like a filter sized from the file size before the file is read
+		BloomFilter filter = filter(values, BloomFilter.optimalBits(1000000, FALSE_POSITIVE_RATE));
+		long bits = filter.getBitCount();
+
+		filter.shrink(values.size(), FALSE_POSITIVE_RATE);
+
+		assertTrue(filter.getBitCount() + " of " + bits, filter.getBitCount() <= bits / 512);
+		assertTrue(filter.getBitCount() >= BloomFilter.optimalBits(values.size(), FALSE_POSITIVE_RATE));
+		for(String value: values) {
+			assertTrue(value, filter.mightContain(HashUtils.hash64(value)));
+		}
+		assertTrue(falsePositives(filter, 100000) < 2 * FALSE_POSITIVE_RATE);
+	}
+
+	@Test
+	public void base64RoundTripHasNoFalseNegatives() {
+		List<String> values = values("REQUEST-", 5000);
+		BloomFilter filter = filter(values, BloomFilter.optimalBits(100000, FALSE_POSITIVE_RATE));
+		filter.shrink(values.size(), FALSE_POSITIVE_RATE);
+
+		BloomFilter read = BloomFilter.fromBase64(filter.toBase64(), filter.getHashCount());
+
+		assertEquals(filter.getBitCount(), read.getBitCount());
+		assertEquals(filter.toBase64(), read.toBase64());
+		for(String value: values) {
+			assertTrue(value, read.mightContain(HashUtils.hash64(value)));
+		}
+	}
+
+	@Test
+	public void emptyFilterContainsNothing() {
+		BloomFilter filter = new BloomFilter(0, 7);
+		filter.shrink(0, FALSE_POSITIVE_RATE);
+
+		assertEquals(64, filter.getBitCount());
+		assertEquals(0, falsePositives(BloomFilter.fromBase64(filter.toBase64(), 7), 1000), 0);
+	}
+
+	@Test
+	public void bitsAreRoundedUpToAPowerOfTwo() {
+		assertEquals(64, new BloomFilter(1, 1).getBitCount());
+		assertEquals(1024, new BloomFilter(1024, 1).getBitCount());
+		assertEquals(2048, new BloomFilter(1025, 1).getBitCount());
+	}
+}
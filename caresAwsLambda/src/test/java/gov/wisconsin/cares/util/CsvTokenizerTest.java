@@ -0,0 +1,157 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class CsvTokenizerTest {
+
+	/**
+	 * Stream that returns at most 'chunk' bytes per read, like a network stream.
+	 */
+	private static InputStream chunked(String csv, int chunk) {
+		return new FilterInputStream(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+	}
+
+	private static List<String[]> readAll(InputStream in, int bufferSize) throws IOException {
+		CsvTokenizer tokenizer = new CsvTokenizer(in, bufferSize);
+		List<String[]> records = new ArrayList<>();
+		while(tokenizer.nextRecord()) {
+			String[] values = new String[tokenizer.getFieldCount()];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = tokenizer.getValue(i);
+			}
+			records.add(values);
+		}
+		return records;
+	}
+
+	private static String drain(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7];
+		int n;
+		while((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void splitsQuotedAndUnquotedFields() throws Exception {
+		List<String[]> records = readAll(chunked("\"EVENT_TYPE\",\"URI\",COUNT\n\"API\",\"/a,b\",12\n", 1024), 1024);
+
+		assertEquals(2, records.size());
+		assertArrayEquals(new String[] {"EVENT_TYPE", "URI", "COUNT"}, records.get(0));
+		assertArrayEquals(new String[] {"API", "/a,b", "12"}, records.get(1));
+	}
+
+	@Test
+	public void unescapesQuotes() throws Exception {
+		List<String[]> records = readAll(chunked("\"say \"\"hi\"\"\",\"\"\"\"\n", 1024), 1024);
+
+		assertArrayEquals(new String[] {"say \"hi\"", "\""}, records.get(0));
+	}
+
+	@Test
+	public void keepsLineBreaksInQuotedFields() throws Exception {
+		List<String[]> records = readAll(chunked("\"a\nb\",\"c\r\nd\"\n\"e\",\"f\"\n", 1024), 1024);
+
+		assertEquals(2, records.size());
+		assertArrayEquals(new String[] {"a\nb", "c\r\nd"}, records.get(0));
+		assertArrayEquals(new String[] {"e", "f"}, records.get(1));
+	}
+
+	@Test
+	public void endsRecordsOnCrLf() throws Exception {
+		List<String[]> records = readAll(chunked("\"a\",\"b\"\r\n\"c\",\"d\"\r\n", 1024), 1024);
+
+		assertEquals(2, records.size());
+		assertArrayEquals(new String[] {"c", "d"}, records.get(1));
+	}
+
+	@Test
+	public void readsLastRecordWithoutLineBreak() throws Exception {
+		List<String[]> records = readAll(chunked("\"a\",\"b\"\n\"c\",\"d\"", 1024), 1024);
+
+		assertEquals(2, records.size());
+		assertArrayEquals(new String[] {"c", "d"}, records.get(1));
+	}
+
+	@Test
+	public void emptyFileHasNoRecords() throws Exception {
+		assertFalse(new CsvTokenizer(new ByteArrayInputStream(new byte[0])).nextRecord());
+	}
+
+	@Test
+	public void recordsAcrossBufferBoundaries() throws Exception {
+		StringBuilder csv = new StringBuilder("\"EVENT_TYPE\",\"URI\",\"USER_AGENT\"\r\n");
+		for(int i = 0; i < 200; i++) {
+			csv.append("\"API\",\"/services/data/v48.0/query?q=").append(i).append("\",\"Mozilla \"\"").append(i).append("\"\"\nline\"\r\n");
+		}
+		List<String[]> expected = readAll(chunked(csv.toString(), Integer.MAX_VALUE), 1 << 20);
+		assertEquals(201, expected.size());
+		assertArrayEquals(new String[] {"API", "/services/data/v48.0/query?q=7", "Mozilla \"7\"\nline"}, expected.get(8));
+
+		// Every chunk size and a buffer smaller than a record, so records, quotes and CR LF are split at every position
+		for(int chunk = 1; chunk <= 23; chunk++) {
+			List<String[]> records = readAll(chunked(csv.toString(), chunk), 16);
+			assertEquals("chunk " + chunk, expected.size(), records.size());
+			for(int i = 0; i < records.size(); i++) {
+				assertArrayEquals("chunk " + chunk + " record " + i, expected.get(i), records.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void comparesValuesWithoutDecoding() throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer(chunked("\"Timestamp\",USER_ID\n", 1024));
+		assertTrue(tokenizer.nextRecord());
+
+		assertTrue(tokenizer.isQuoted(0));
+		assertFalse(tokenizer.isQuoted(1));
+		assertTrue(tokenizer.valueEqualsIgnoreCase(0, "TIMESTAMP"));
+		assertTrue(tokenizer.valueEqualsIgnoreCase(1, "user_id"));
+		assertFalse(tokenizer.valueEqualsIgnoreCase(1, "USER"));
+	}
+
+	@Test
+	public void projectionKeepsSelectedColumnsInFileOrder() throws Exception {
+		String csv = "\"EVENT_TYPE\",\"TIMESTAMP\",\"URI\",\"USER_ID\"\r\n"
+				+ "\"API\",\"20200701000000.1\",\"/a,\"\"b\"\"\",\"0053t\"\r\n"
+				+ "\"API\",\"20200701000000.2\"\r\n";
+
+		String projected = drain(new CsvProjectionInputStream(chunked(csv, 5), new HashSet<>(Arrays.asList("USER_ID", "URI"))));
+
+		assertEquals("\"URI\",\"USER_ID\"\n\"/a,\"\"b\"\"\",\"0053t\"\n\"\",\"\"\n", projected);
+	}
+
+	@Test
+	public void passThroughStageCopiesRecordsUnchanged() throws Exception {
+		String csv = "\"a\",\"b\"\r\n\"c\nd\",\"e\"\"f\"\r\n";
+
+		assertEquals(csv, drain(new CsvStageInputStream(chunked(csv, 3), (record, recordNumber, out) -> out.writeRecord(record))));
+	}
+}
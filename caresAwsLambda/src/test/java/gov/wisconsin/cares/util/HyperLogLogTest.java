@@ -0,0 +1,48 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class HyperLogLogTest {
+
+	private static long estimate(int distinct, int repeats) {
+		HyperLogLog sketch = new HyperLogLog();
+		for(int r = 0; r < repeats; r++) {
+			for(int i = 0; i < distinct; i++) {
+				sketch.add(HashUtils.hash64("0053t" + i));
+			}
+		}
+		return sketch.estimate();
+	}
+
+	private static void assertWithin(long expected, long estimate, double tolerance) {
+		assertTrue("Estimate " + estimate + " of " + expected, Math.abs(estimate - expected) <= expected * tolerance);
+	}
+
+	@Test
+	public void emptySketchIsZero() {
+		assertEquals(0, new HyperLogLog().estimate());
+	}
+
+	@Test
+	public void estimatesSmallCounts() {
+		assertEquals(1, estimate(1, 10));
+		assertWithin(100, estimate(100, 1), 0.05);
+	}
+
+	@Test
+	public void estimatesAThousandValues() {
+		assertWithin(1000, estimate(1000, 3), 0.05);
+	}
+
+	@Test
+	public void estimatesAHundredThousandValues() {
+		assertWithin(100000, estimate(100000, 2), 0.05);
+	}
+}
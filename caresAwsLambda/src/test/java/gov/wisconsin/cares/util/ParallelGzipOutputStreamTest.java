@@ -0,0 +1,121 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class ParallelGzipOutputStreamTest {
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Half random and half repeated text, so both stored and compressed deflate blocks are written.
+	 */
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		byte[] text = "\"API\",\"20200701000000.000\",\"/services/data/v48.0/query\"\n".getBytes(StandardCharsets.UTF_8);
+		for(int i = 0; i < length / 2; i++) {
+			data[i] = text[i % text.length];
+		}
+		return data;
+	}
+
+	/**
+	 * Compress the data with writes of 'chunk' bytes, so the writes cross the block boundaries.
+	 */
+	private static byte[] compress(byte[] data, int chunk) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, 6, BLOCK_SIZE)) {
+			for(int off = 0; off < data.length; off += chunk) {
+				out.write(data, off, Math.min(chunk, data.length - off));
+			}
+		}
+		return compressed.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Count the gzip members by their header, the magic bytes followed by the deflate method and the flags GZIPOutputStream writes.
+	 */
+	private static int countMembers(byte[] compressed) {
+		int members = 0;
+		for(int i = 0; i + 3 < compressed.length; i++) {
+			if(compressed[i] == (byte) 0x1f && compressed[i + 1] == (byte) 0x8b && compressed[i + 2] == 8 && compressed[i + 3] == 0) members++;
+		}
+		return members;
+	}
+
+	@Test
+	public void readsBackBlocksWrittenAsSeveralMembers() throws Exception {
+		byte[] data = data(5 * BLOCK_SIZE + 12345);
+
+		byte[] compressed = compress(data, 10007);
+
+		assertArrayEquals(data, decompress(compressed));
+		assertEquals(6, countMembers(compressed));
+	}
+
+	@Test
+	public void readsBackExactMultipleOfTheBlockSize() throws Exception {
+		byte[] data = data(4 * BLOCK_SIZE);
+
+		byte[] compressed = compress(data, BLOCK_SIZE);
+
+		assertArrayEquals(data, decompress(compressed));
+		assertEquals(4, countMembers(compressed));
+	}
+
+	@Test
+	public void readsBackMoreBlocksThanAreCompressedAtOnce() throws Exception {
+		int blocks = Runtime.getRuntime().availableProcessors() * 2 + 3;
+		byte[] data = data(blocks * BLOCK_SIZE - 1);
+
+		assertArrayEquals(data, decompress(compress(data, 65537)));
+	}
+
+	@Test
+	public void emptyInputIsOneEmptyMember() throws Exception {
+		byte[] compressed = compress(new byte[0], 1);
+
+		assertEquals(1, countMembers(compressed));
+		assertEquals(0, decompress(compressed).length);
+	}
+
+	@Test
+	public void singleByteWrites() throws Exception {
+		byte[] data = data(BLOCK_SIZE + 100);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, 1, BLOCK_SIZE)) {
+			for(byte b: data) {
+				out.write(b);
+			}
+		}
+
+		assertArrayEquals(data, decompress(compressed.toByteArray()));
+	}
+}
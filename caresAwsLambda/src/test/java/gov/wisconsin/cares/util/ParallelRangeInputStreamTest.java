@@ -0,0 +1,96 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.wisconsin.cares.util.ResumableInputStreamTest.TestRangeSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class ParallelRangeInputStreamTest {
+
+	@Test
+	public void readsRangesInOrder() throws Exception {
+		byte[] file = ResumableInputStreamTest.file(10500);
+		TestRangeSource source = new TestRangeSource(file, 0, 0, false);
+
+		try (ParallelRangeInputStream in = new ParallelRangeInputStream(source, file.length, 1000, 3, 0)) {
+			assertArrayEquals(file, ResumableInputStreamTest.readAll(in));
+		}
+
+		List<String> expected = new ArrayList<>();
+		for(int start = 0; start < file.length; start += 1000) {
+			expected.add(start + "-" + Math.min(start + 1000, file.length));
+		}
+		List<String> opened = new ArrayList<>(source.getOpened());
+		Collections.sort(opened, (a, b) -> Long.compare(Long.parseLong(a.split("-")[0]), Long.parseLong(b.split("-")[0])));
+		assertEquals(expected, opened);
+	}
+
+	@Test
+	public void resumesDroppedRanges() throws Exception {
+		byte[] file = ResumableInputStreamTest.file(8000);
+		TestRangeSource dropping = new TestRangeSource(file, 300, Integer.MAX_VALUE, false);
+		TestRangeSource source = new TestRangeSource(file, 0, 0, false);
+
+		// The first request of each of the first 4 ranges drops after 300 bytes
+		RangeSource firstRangesDrop = (start, end) -> start < 4000 && start % 1000 == 0 ? dropping.open(start, end) : source.open(start, end);
+		try (ParallelRangeInputStream in = new ParallelRangeInputStream(firstRangesDrop, file.length, 1000, 4, 1)) {
+			assertArrayEquals(file, ResumableInputStreamTest.readAll(in));
+			assertEquals(4, in.getResumeCount());
+		}
+		assertEquals(4, dropping.getOpened().size());
+		assertTrue(source.getOpened().containsAll(Arrays.asList("300-1000", "1300-2000", "2300-3000", "3300-4000")));
+		assertEquals(8, source.getOpened().size());
+	}
+
+	@Test
+	public void failedRangeFailsTheRead() throws Exception {
+		byte[] file = ResumableInputStreamTest.file(8000);
+		TestRangeSource source = new TestRangeSource(file, 300, Integer.MAX_VALUE, false);
+
+		try (ParallelRangeInputStream in = new ParallelRangeInputStream(source, file.length, 1000, 2, 1)) {
+			ResumableInputStreamTest.readAll(in);
+			fail("The dropped range should fail the read");
+		}catch(IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Connection reset"));
+		}
+	}
+
+	@Test
+	public void closedStreamCannotBeRead() throws Exception {
+		byte[] file = ResumableInputStreamTest.file(8000);
+		ParallelRangeInputStream in = new ParallelRangeInputStream(new TestRangeSource(file, 0, 0, false), file.length, 1000, 2, 1);
+		assertEquals(file[0] & 0xff, in.read());
+
+		in.close();
+		try {
+			in.read();
+			fail("A closed stream should not be read");
+		}catch(IOException e) {
+			assertEquals("Stream is closed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void emptyFileHasNoRanges() throws Exception {
+		TestRangeSource source = new TestRangeSource(new byte[0], 0, 0, false);
+
+		try (ParallelRangeInputStream in = new ParallelRangeInputStream(source, 0, 1000, 2, 1)) {
+			assertEquals(-1, in.read());
+		}
+		assertTrue(source.getOpened().isEmpty());
+	}
+}
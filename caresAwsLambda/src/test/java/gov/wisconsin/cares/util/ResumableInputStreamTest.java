@@ -0,0 +1,155 @@
+package gov.wisconsin.cares.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author andersx
+ *
+ */
+public class ResumableInputStreamTest {
+
+	/**
+	 * Serves ranges of a file from memory. The first 'failures' streams opened fail after 'failAfter' bytes,
+	 * by throwing an IOException, or by ending early when 'truncate' is set.
+	 */
+	static class TestRangeSource implements RangeSource {
+
+		private byte[] file;
+		private int failAfter;
+		private AtomicInteger failures;
+		private boolean truncate;
+		private List<String> opened = new CopyOnWriteArrayList<>();
+
+		TestRangeSource(byte[] file, int failAfter, int failures, boolean truncate) {
+			this.file = file;
+			this.failAfter = failAfter;
+			this.failures = new AtomicInteger(failures);
+			this.truncate = truncate;
+		}
+
+		@Override
+		public InputStream open(long start, long end) {
+			opened.add(start + "-" + end);
+			int to = (int) (end < 0 ? file.length : end);
+			InputStream range = new ByteArrayInputStream(file, (int) start, to - (int) start);
+			if(failures.getAndDecrement() <= 0) return range;
+			return new InputStream() {
+				private int count = 0;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if(count >= failAfter) {
+						if(truncate) return -1;
+						throw new IOException("Connection reset");
+					}
+					int n = range.read(b, off, Math.min(len, failAfter - count));
+					if(n > 0) count += n;
+					return n;
+				}
+			};
+		}
+
+		List<String> getOpened() {
+			return opened;
+		}
+	}
+
+	static byte[] file(int length) {
+		byte[] file = new byte[length];
+		new Random(length).nextBytes(file);
+		return file;
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void resumesFromLastByteRead() throws Exception {
+		byte[] file = file(10000);
+		TestRangeSource source = new TestRangeSource(file, 3000, 3, false);
+
+		ResumableInputStream in = new ResumableInputStream(source, source.open(0, file.length), 0, file.length, 3);
+
+		assertArrayEquals(file, readAll(in));
+		assertEquals(3, in.getResumeCount());
+		assertEquals(Arrays.asList("0-10000", "3000-10000", "6000-10000", "9000-10000"), source.getOpened());
+	}
+
+	@Test
+	public void resumesStreamEndingEarly() throws Exception {
+		byte[] file = file(10000);
+		TestRangeSource source = new TestRangeSource(file, 4000, 1, true);
+
+		ResumableInputStream in = new ResumableInputStream(source, null, 0, file.length, 3);
+
+		assertArrayEquals(file, readAll(in));
+		assertEquals(1, in.getResumeCount());
+		assertEquals(Arrays.asList("0-10000", "4000-10000"), source.getOpened());
+	}
+
+	@Test
+	public void readsOnlyTheRange() throws Exception {
+		byte[] file = file(10000);
+		TestRangeSource source = new TestRangeSource(file, 500, 1, false);
+
+		ResumableInputStream in = new ResumableInputStream(source, null, 2000, 3000, 3);
+
+		assertArrayEquals(Arrays.copyOfRange(file, 2000, 3000), readAll(in));
+		assertEquals(Arrays.asList("2000-3000", "2500-3000"), source.getOpened());
+	}
+
+	@Test
+	public void unknownLengthReadsToTheEnd() throws Exception {
+		byte[] file = file(10000);
+		TestRangeSource source = new TestRangeSource(file, 0, 0, true);
+
+		ResumableInputStream in = new ResumableInputStream(source, source.open(0, -1), 0, -1, 3);
+
+		assertArrayEquals(file, readAll(in));
+		assertEquals(0, in.getResumeCount());
+	}
+
+	@Test
+	public void failsAfterMaxResumes() throws Exception {
+		byte[] file = file(10000);
+		TestRangeSource source = new TestRangeSource(file, 1000, Integer.MAX_VALUE, true);
+
+		ResumableInputStream in = new ResumableInputStream(source, null, 0, file.length, 2);
+		try {
+			readAll(in);
+			fail("The stream should fail after 2 resumes");
+		}catch(EOFException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("3000 of 10000"));
+		}
+		assertEquals(2, in.getResumeCount());
+	}
+}
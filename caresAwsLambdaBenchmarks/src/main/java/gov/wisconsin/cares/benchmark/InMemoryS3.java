@@ -0,0 +1,289 @@
+package gov.wisconsin.cares.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * In-memory stand-in for S3, implementing the calls the function makes.
+ * The content of objects up to 'retainLimit' bytes is kept, so the water-mark and manifest files can be read back.
+ * Larger objects, the event log files, only keep their size and metadata, so the sink does not add to the heap being measured.
+ * Every request can be given a fixed latency, to simulate the round trip to S3.
+ * @author andersx
+ *
+ */
+public class InMemoryS3 extends AbstractAmazonS3 {
+
+	private Map<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+	private Map<String, Map<Integer, Long>> uploads = new ConcurrentHashMap<>();
+	private Map<String, ObjectMetadata> pendingMetadata = new ConcurrentHashMap<>();
+	private AtomicLong bytesStored = new AtomicLong();
+	private AtomicLong requests = new AtomicLong();
+	private long retainLimit;
+	private long latencyMillis;
+
+	/**
+	 * @param retainLimit Objects up to this size keep their content.
+	 * @param latencyMillis Latency added to every request.
+	 */
+	public InMemoryS3(long retainLimit, long latencyMillis) {
+		this.retainLimit = retainLimit;
+		this.latencyMillis = latencyMillis;
+	}
+
+	private static class StoredObject {
+		byte[] content;
+		long size;
+		ObjectMetadata metadata;
+		Map<String, String> tags = Collections.emptyMap();
+	}
+
+	/**
+	 * Remove all objects and reset the counters.
+	 */
+	public void clear() {
+		objects.clear();
+		uploads.clear();
+		pendingMetadata.clear();
+		bytesStored.set(0);
+		requests.set(0);
+	}
+
+	/**
+	 * @return Bytes stored by object and part uploads.
+	 */
+	public long getBytesStored() {
+		return bytesStored.get();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @param bucket
+	 * @return Keys of the objects in the bucket, in order.
+	 */
+	public List<String> getKeys(String bucket) {
+		List<String> keys = new ArrayList<>();
+		for(String name: objects.keySet()) {
+			if(name.startsWith(bucket + "/")) keys.add(name.substring(bucket.length() + 1));
+		}
+		return keys;
+	}
+
+	/**
+	 * @return The size of the object, or -1 if it does not exist.
+	 */
+	public long getSize(String bucket, String key) {
+		StoredObject object = objects.get(bucket + "/" + key);
+		return object != null ? object.size : -1;
+	}
+
+	/**
+	 * @return The tags of the object, or null if it does not exist.
+	 */
+	public Map<String, String> getTags(String bucket, String key) {
+		StoredObject object = objects.get(bucket + "/" + key);
+		return object != null ? object.tags : null;
+	}
+
+	@Override
+	public boolean doesObjectExist(String bucket, String key) {
+		this.request();
+		return objects.containsKey(bucket + "/" + key);
+	}
+
+	@Override
+	public S3Object getObject(String bucket, String key) {
+		StoredObject object = this.find(bucket, key);
+		if(object.content == null) {
+			throw this.error(501, "Content of large object " + key + " is not retained");
+		}
+		S3Object s3Object = new S3Object();
+		s3Object.setBucketName(bucket);
+		s3Object.setKey(key);
+		s3Object.setObjectMetadata(object.metadata.clone());
+		s3Object.setObjectContent(new ByteArrayInputStream(object.content));
+		return s3Object;
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(String bucket, String key) {
+		return this.find(bucket, key).metadata.clone();
+	}
+
+	@Override
+	public PutObjectResult putObject(String bucket, String key, String content) {
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentType("text/plain");
+		return this.putObject(bucket, key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), metadata);
+	}
+
+	@Override
+	public PutObjectResult putObject(String bucket, String key, InputStream input, ObjectMetadata metadata) {
+		this.request();
+		StoredObject object = new StoredObject();
+		object.metadata = metadata != null ? metadata.clone() : new ObjectMetadata();
+		ByteArrayOutputStream retained = new ByteArrayOutputStream();
+		object.size = this.read(input, retained);
+		object.content = object.size <= retainLimit ? retained.toByteArray() : null;
+		object.metadata.setContentLength(object.size);
+		objects.put(bucket + "/" + key, object);
+		bytesStored.addAndGet(object.size);
+		return new PutObjectResult();
+	}
+
+	@Override
+	public void deleteObject(String bucket, String key) {
+		this.request();
+		objects.remove(bucket + "/" + key);
+	}
+
+	@Override
+	public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+		this.request();
+		String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, new ConcurrentHashMap<Integer, Long>());
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setUploadId(uploadId);
+		// The metadata is kept with the upload id, and stored when the upload is completed
+		pendingMetadata.put(uploadId, request.getObjectMetadata() != null ? request.getObjectMetadata().clone() : new ObjectMetadata());
+		return result;
+	}
+
+	@Override
+	public UploadPartResult uploadPart(UploadPartRequest request) {
+		this.request();
+		Map<Integer, Long> parts = uploads.get(request.getUploadId());
+		if(parts == null) {
+			throw this.error(404, "No such upload " + request.getUploadId());
+		}
+		long size = this.read(request.getInputStream(), null);
+		parts.put(request.getPartNumber(), size);
+		bytesStored.addAndGet(size);
+		UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag(Integer.toHexString(request.getPartNumber()) + "-" + size);
+		return result;
+	}
+
+	@Override
+	public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+		this.request();
+		Map<Integer, Long> parts = uploads.remove(request.getUploadId());
+		if(parts == null) {
+			throw this.error(404, "No such upload " + request.getUploadId());
+		}
+		StoredObject object = new StoredObject();
+		object.metadata = pendingMetadata.remove(request.getUploadId());
+		for(PartETag part: request.getPartETags()) {
+			Long size = parts.get(part.getPartNumber());
+			if(size == null) {
+				throw this.error(400, "Invalid part " + part.getPartNumber());
+			}
+			object.size += size;
+		}
+		object.metadata.setContentLength(object.size);
+		objects.put(request.getBucketName() + "/" + request.getKey(), object);
+
+		CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		return result;
+	}
+
+	@Override
+	public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+		this.request();
+		uploads.remove(request.getUploadId());
+		pendingMetadata.remove(request.getUploadId());
+	}
+
+	@Override
+	public SetObjectTaggingResult setObjectTagging(SetObjectTaggingRequest request) {
+		StoredObject object = this.find(request.getBucketName(), request.getKey());
+		Map<String, String> tags = new ConcurrentHashMap<>();
+		request.getTagging().getTagSet().forEach(tag -> tags.put(tag.getKey(), tag.getValue()));
+		object.tags = tags;
+		return new SetObjectTaggingResult();
+	}
+
+	@Override
+	public void shutdown() {
+		// Nothing to release, the objects are kept for the next run
+	}
+
+	private StoredObject find(String bucket, String key) {
+		this.request();
+		StoredObject object = objects.get(bucket + "/" + key);
+		if(object == null) {
+			throw this.error(404, "The specified key does not exist: " + key);
+		}
+		return object;
+	}
+
+	private AmazonS3Exception error(int status, String message) {
+		AmazonS3Exception e = new AmazonS3Exception(message);
+		e.setStatusCode(status);
+		return e;
+	}
+
+	/**
+	 * Read the stream to the end, keeping the bytes in the retained stream up to the retain limit.
+	 * @return Number of bytes read.
+	 */
+	private long read(InputStream input, ByteArrayOutputStream retained) {
+		long size = 0;
+		byte[] buffer = new byte[64 * 1024];
+		try {
+			int n;
+			while((n = input.read(buffer)) != -1) {
+				if(retained != null && size + n <= retainLimit) retained.write(buffer, 0, n);
+				size += n;
+			}
+		}catch(IOException e) {
+			throw this.error(400, "Unable to read the request body, " + e.getMessage());
+		}
+		return size;
+	}
+
+	private void request() {
+		requests.incrementAndGet();
+		if(latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package gov.wisconsin.cares.benchmark;
+
+import gov.wisconsin.cares.lambda.LambdaResources;
+import gov.wisconsin.cares.lambda.SFEventLogsHandler;
+import gov.wisconsin.cares.lambda.SFTokenManager;
+import gov.wisconsin.cares.lambda.SalesforceOrgs;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+
+/**
+ * Runs SFEventLogsHandler.handleRequest end-to-end against the mock Salesforce server and the in-memory S3,
+ * and reports files/s, MB/s and peak heap for each run. Each run starts from an empty bucket, so the runs are reproducible.
+ * <p>
+ * The load is set with system properties: files (default 100), fileSize in bytes (1048576), pageSize (2000),
+ * latencyMillis (20), errorRate (0), dropRate (0), s3LatencyMillis (0), runs (3), timeoutSeconds (900) and verbose (false).
+ * With orgs set above 1 (default 1), the function ingests that many orgs at the same time, each of them reading all the files
+ * of the mock server into its own key prefix.
+ * The function settings, E.G. transferConcurrency or logFileCompression, are given as system properties of the same name
+ * as the environment variables. E.G.
+ * <pre>
+ * java -Dfiles=500 -DfileSize=10485760 -DtransferConcurrency=8 -cp target/benchmarks.jar gov.wisconsin.cares.benchmark.LoadTest
+ * </pre>
+ * @author andersx
+ *
+ */
+public class LoadTest {
+
+	private static final String DST_BUCKET = "load-test-logs";
+	private static final String WTR_MRK_BUCKET = "load-test-watermark";
+	private static final double MB = 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+
+		int files = Integer.getInteger("files", 100);
+		long fileSize = Long.getLong("fileSize", 1048576);
+		int pageSize = Integer.getInteger("pageSize", 2000);
+		long latencyMillis = Long.getLong("latencyMillis", 20);
+		double errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+		double dropRate = Double.parseDouble(System.getProperty("dropRate", "0"));
+		long s3LatencyMillis = Long.getLong("s3LatencyMillis", 0);
+		int runs = Integer.getInteger("runs", 3);
+		long timeoutMillis = Long.getLong("timeoutSeconds", 900) * 1000;
+		boolean verbose = Boolean.getBoolean("verbose");
+		int orgs = Integer.getInteger("orgs", 1);
+
+		try (MockSalesforceServer salesforce = new MockSalesforceServer(files, fileSize, pageSize, latencyMillis, errorRate, dropRate)) {
+
+			configure(salesforce.getUrl());
+			List<String> orgNames = configureOrgs(orgs);
+			InMemoryS3 s3 = new InMemoryS3(1024 * 1024, s3LatencyMillis);
+			SFEventLogsHandler handler = new SFEventLogsHandler();
+
+			System.out.println("Load test: " + files + " files of " + fileSize + " bytes, " + latencyMillis + " ms latency, error rate " + errorRate
+					+ ", drop rate " + dropRate + ", transferConcurrency " + System.getProperty("transferConcurrency", "default") + ", orgs " + orgs);
+			System.out.println(String.format("%-4s %-9s %8s %10s %9s %9s %9s %10s %9s %7s",
+					"run", "response", "files", "MB", "seconds", "files/s", "MB/s", "peakHeapMB", "apiCalls", "faults"));
+
+			for(int run = 1; run <= runs; run++) {
+
+				// Start each run from an empty bucket and without a cached token, like a cold start on a new org
+				s3.clear();
+				salesforce.reset();
+				LambdaResources.setS3Client(s3);
+				for(String orgName: orgNames) {
+					SFTokenManager.getInstance(orgName).invalidate();
+				}
+				System.gc();
+				resetPeakHeap();
+
+				long start = System.nanoTime();
+				String response = handler.handleRequest(new ScheduledEvent(), new LocalContext("load-test", timeoutMillis, !verbose));
+				double seconds = (System.nanoTime() - start) / 1e9;
+
+				int stored = 0;
+				for(String key: s3.getKeys(DST_BUCKET)) {
+					if(key.endsWith(".csv") || key.endsWith(".gz") || key.endsWith(".parquet")) stored++;
+				}
+				double mb = salesforce.getBytesSent() / MB;
+				System.out.println(String.format("%-4d %-9s %8d %10.1f %9.2f %9.1f %9.1f %10.1f %9d %7d",
+						run, response, stored, mb, seconds, stored / seconds, mb / seconds, getPeakHeap() / MB,
+						salesforce.getApiRequests(), salesforce.getFaults()));
+			}
+		}
+	}
+
+	/**
+	 * Point the function at the mock server and the in-memory buckets, unless the setting is already given.
+	 */
+	static void configure(String salesforceUrl) throws Exception {
+		EnvUtils.setFallback(System.getProperties());
+		setDefault("ENV", "load-test");
+		setDefault("salesforceAPIversion", "48.0");
+		setDefault("salesforceOauth2Url", salesforceUrl);
+		setDefault("salesforceJWTIssuer", "load-test-connected-app");
+		setDefault("salesforceServiceAccountUser", "load-test@example.com");
+		setDefault("salesforceLogFileDstBkt", DST_BUCKET);
+		setDefault("salesforceEventLogFilesWatermarkBkt", WTR_MRK_BUCKET);
+		setDefault("watermarkFile", "watermark.txt");
+		setDefault("updateWtrMrkTimestamp", "true");
+		setDefault("emitMetrics", "false");
+		setDefault("aws.region", "us-east-1");
+		if(System.getProperty("jwtSigningKey") == null) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+			System.setProperty("jwtSigningKey", Base64.getEncoder().encodeToString(generator.generateKeyPair().getPrivate().getEncoded()));
+		}
+	}
+
+	/**
+	 * List the orgs in 'salesforceOrgs' when more than one org is ingested. The orgs share the settings of the mock server.
+	 * @return Names of the orgs.
+	 */
+	private static List<String> configureOrgs(int orgs) {
+		List<String> orgNames = new ArrayList<>();
+		if(orgs <= 1) {
+			orgNames.add(SalesforceOrgs.DEFAULT_ORG);
+			return orgNames;
+		}
+		StringBuilder json = new StringBuilder("[");
+		for(int org = 1; org <= orgs; org++) {
+			orgNames.add("org" + org);
+			json.append(org > 1 ? "," : "").append("{\"name\":\"org").append(org).append("\"}");
+		}
+		setDefault("salesforceOrgs", json.append("]").toString());
+		return orgNames;
+	}
+
+	private static void setDefault(String name, String value) {
+		if(System.getProperty(name) == null && System.getenv(name) == null) {
+			System.setProperty(name, value);
+		}
+	}
+
+	private static void resetPeakHeap() {
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static long getPeakHeap() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,95 @@
+package gov.wisconsin.cares.benchmark;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Lambda Context for running the function code outside of Lambda.
+ * The log is written to standard out, or discarded if the context is quiet.
+ * @author andersx
+ *
+ */
+public class LocalContext implements Context {
+
+	private String functionName;
+	private long deadline;
+	private LambdaLogger logger;
+
+	/**
+	 * @param functionName
+	 * @param timeoutMillis Time the invocation has, counted from now.
+	 * @param quiet True to discard the log.
+	 */
+	public LocalContext(String functionName, long timeoutMillis, boolean quiet) {
+		this.functionName = functionName;
+		this.deadline = System.currentTimeMillis() + timeoutMillis;
+		this.logger = new LambdaLogger() {
+			@Override
+			public void log(String message) {
+				if(!quiet) System.out.print(message);
+			}
+
+			@Override
+			public void log(byte[] message) {
+				if(!quiet) System.out.write(message, 0, message.length);
+			}
+		};
+	}
+
+	@Override
+	public String getAwsRequestId() {
+		return "local";
+	}
+
+	@Override
+	public String getLogGroupName() {
+		return "local";
+	}
+
+	@Override
+	public String getLogStreamName() {
+		return "local";
+	}
+
+	@Override
+	public String getFunctionName() {
+		return functionName;
+	}
+
+	@Override
+	public String getFunctionVersion() {
+		return "$LATEST";
+	}
+
+	@Override
+	public String getInvokedFunctionArn() {
+		return "arn:aws:lambda:local:000000000000:function:" + functionName;
+	}
+
+	@Override
+	public CognitoIdentity getIdentity() {
+		return null;
+	}
+
+	@Override
+	public ClientContext getClientContext() {
+		return null;
+	}
+
+	@Override
+	public int getRemainingTimeInMillis() {
+		return (int) Math.max(Math.min(deadline - System.currentTimeMillis(), Integer.MAX_VALUE), 0);
+	}
+
+	@Override
+	public int getMemoryLimitInMB() {
+		return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+	}
+
+	@Override
+	public LambdaLogger getLogger() {
+		return logger;
+	}
+}
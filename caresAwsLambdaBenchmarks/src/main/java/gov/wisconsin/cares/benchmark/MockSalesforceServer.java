@@ -0,0 +1,224 @@
+package gov.wisconsin.cares.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server that answers the Salesforce api calls the function makes:
+ * the OAuth token endpoint, the EventLogFile query with paging, and the LogFile downloads.
+ * The files are synthetic API event log .csv files, generated while they are sent.
+ * Downloads can be given a latency before the response, and a rate of 503 responses or connections dropped mid-file.
+ * Range requests are supported, so dropped downloads can be resumed.
+ * @author andersx
+ *
+ */
+public class MockSalesforceServer implements AutoCloseable {
+
+	private static final String API_PATH = "/services/data/v48.0";
+	private static final String TOKEN = "mock-access-token";
+	private static final long API_LIMIT = 1000000;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private int fileCount;
+	private long fileSize;
+	private int pageSize;
+	private long latencyMillis;
+	private double errorRate;
+	private double dropRate;
+	private AtomicLong apiRequests = new AtomicLong();
+	private AtomicLong tokenRequests = new AtomicLong();
+	private AtomicLong bytesSent = new AtomicLong();
+	private AtomicLong faults = new AtomicLong();
+
+	/**
+	 * @param fileCount Number of event log files the query returns.
+	 * @param fileSize Size of each file in bytes.
+	 * @param pageSize Records per query result page, Salesforce returns up to 2000.
+	 * @param latencyMillis Latency before each response.
+	 * @param errorRate Fraction of downloads answered with 503.
+	 * @param dropRate Fraction of downloads where the connection is dropped halfway through the file or range.
+	 * @throws IOException
+	 */
+	public MockSalesforceServer(int fileCount, long fileSize, int pageSize, long latencyMillis, double errorRate, double dropRate) throws IOException {
+		this.fileCount = fileCount;
+		this.fileSize = fileSize;
+		this.pageSize = Math.max(pageSize, 1);
+		this.latencyMillis = latencyMillis;
+		this.errorRate = errorRate;
+		this.dropRate = dropRate;
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/services/oauth2/token", this::token);
+		server.createContext(API_PATH + "/query", this::query);
+		server.createContext(API_PATH + "/sobjects/EventLogFile", this::logFile);
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "mock-salesforce");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return The url of the server, used as both the OAuth url and the instance url.
+	 */
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public long getApiRequests() {
+		return apiRequests.get();
+	}
+
+	public long getTokenRequests() {
+		return tokenRequests.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getFaults() {
+		return faults.get();
+	}
+
+	/**
+	 * Reset the counters between runs.
+	 */
+	public void reset() {
+		apiRequests.set(0);
+		tokenRequests.set(0);
+		bytesSent.set(0);
+		faults.set(0);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void token(HttpExchange exchange) throws IOException {
+		tokenRequests.incrementAndGet();
+		this.drain(exchange);
+		String body = "{\"access_token\":\"" + TOKEN + "\",\"instance_url\":\"" + this.getUrl() + "\",\"id\":\"" + this.getUrl()
+				+ "/id/00D000000000001/005000000000001\",\"token_type\":\"Bearer\",\"scope\":\"api\",\"issued_at\":\"" + System.currentTimeMillis() + "\"}";
+		this.send(exchange, 200, "application/json", body);
+	}
+
+	private void query(HttpExchange exchange) throws IOException {
+		if(!this.authorized(exchange)) return;
+		this.delay();
+
+		// The first page is requested with the query, the next pages with the nextRecordsUrl /query/<offset>
+		String path = exchange.getRequestURI().getPath();
+		int first = 0;
+		if(path.startsWith(API_PATH + "/query/") && path.length() > (API_PATH + "/query/").length()) {
+			first = Integer.parseInt(path.substring((API_PATH + "/query/").length()));
+		}
+		int records = Math.max(Math.min(pageSize, fileCount - first), 0);
+		String next = first + records < fileCount ? API_PATH + "/query/" + (first + records) : null;
+		this.send(exchange, 200, "application/json", SyntheticData.queryResultJson(first, records, next, fileCount, fileSize));
+	}
+
+	private void logFile(HttpExchange exchange) throws IOException {
+		if(!this.authorized(exchange)) return;
+		this.delay();
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if(random.nextDouble() < errorRate) {
+			faults.incrementAndGet();
+			this.send(exchange, 503, "application/json", "[{\"errorCode\":\"SERVER_UNAVAILABLE\",\"message\":\"Mock fault\"}]");
+			return;
+		}
+		boolean drop = random.nextDouble() < dropRate;
+
+		// Range requests are answered with 206 and the bytes of the range
+		long start = 0;
+		long end = fileSize;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		exchange.getResponseHeaders().set("Content-Type", "text/csv");
+		this.limitInfo(exchange);
+		if(range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			start = Long.parseLong(bounds[0]);
+			if(!bounds[1].isEmpty()) end = Math.min(Long.parseLong(bounds[1]) + 1, fileSize);
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + fileSize);
+			exchange.sendResponseHeaders(206, end - start);
+		}else {
+			exchange.sendResponseHeaders(200, fileSize);
+		}
+		byte[] buffer = new byte[64 * 1024];
+		long sent = 0;
+		try (InputStream in = SyntheticData.csvFile(end); OutputStream out = exchange.getResponseBody()) {
+			for(long skipped = 0, n; skipped < start && (n = in.skip(start - skipped)) > 0; ) {
+				skipped += n;
+			}
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				if(drop && sent + n > (end - start) / 2) {
+					faults.incrementAndGet();
+					exchange.close();
+					return;
+				}
+				out.write(buffer, 0, n);
+				sent += n;
+				bytesSent.addAndGet(n);
+			}
+		}
+	}
+
+	private boolean authorized(HttpExchange exchange) throws IOException {
+		apiRequests.incrementAndGet();
+		if(!("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			this.send(exchange, 401, "application/json", "[{\"errorCode\":\"INVALID_SESSION_ID\",\"message\":\"Session expired or invalid\"}]");
+			return false;
+		}
+		return true;
+	}
+
+	private void limitInfo(HttpExchange exchange) {
+		exchange.getResponseHeaders().set("Sforce-Limit-Info", "api-usage=" + apiRequests.get() + "/" + API_LIMIT);
+	}
+
+	private void delay() {
+		if(latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void drain(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[4096];
+			while(in.read(buffer) != -1) {
+				// Discard the request body
+			}
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		this.limitInfo(exchange);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package gov.wisconsin.cares.benchmark;
+
+import gov.wisconsin.cares.lambda.LambdaResources;
+import gov.wisconsin.cares.lambda.LambdaStartup;
+import gov.wisconsin.cares.lambda.SFEventLogsHandler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+
+/**
+ * Measures cold starts of SFEventLogsHandler, each in a new JVM, with the startup work left to the first invocation
+ * (primeOnInit=false, as before the init phase was primed) and done while the handler class is initialized (primeOnInit=true).
+ * Reports the median init time, the time to load and construct the handler, and the median latency of the first invocation,
+ * which transfers a small file from the mock Salesforce server to the in-memory S3.
+ * <p>
+ * The number of cold starts per mode is set with the system property runs (default 5). E.G.
+ * <pre>
+ * java -Druns=10 -cp target/benchmarks.jar gov.wisconsin.cares.benchmark.StartupBenchmark
+ * </pre>
+ * @author andersx
+ *
+ */
+public class StartupBenchmark {
+
+	private static final String PROBE = "probe";
+	private static final String RESULT_PREFIX = "startup ";
+
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0 && PROBE.equals(args[0])) {
+			probe();
+			return;
+		}
+
+		int runs = Integer.getInteger("runs", 5);
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		String signingKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPrivate().getEncoded());
+
+		try (MockSalesforceServer salesforce = new MockSalesforceServer(1, 64 * 1024, 2000, 0, 0, 0)) {
+
+			System.out.println("Startup: " + runs + " cold starts per mode");
+			System.out.println(String.format("%-8s %10s %20s %10s", "mode", "initMs", "firstInvocationMs", "totalMs"));
+			for(boolean prime: new boolean[] {false, true}) {
+				List<Double> init = new ArrayList<>();
+				List<Double> first = new ArrayList<>();
+				for(int run = 0; run < runs; run++) {
+					double[] result = coldStart(salesforce.getUrl(), signingKey, prime);
+					init.add(result[0]);
+					first.add(result[1]);
+				}
+				double initMillis = median(init);
+				double firstMillis = median(first);
+				System.out.println(String.format("%-8s %10.1f %20.1f %10.1f", prime ? "primed" : "lazy", initMillis, firstMillis, initMillis + firstMillis));
+			}
+		}
+	}
+
+	/**
+	 * Start a new JVM that runs the probe, and read its result.
+	 * @return The init and first invocation milliseconds.
+	 */
+	private static double[] coldStart(String salesforceUrl, String signingKey, boolean prime) throws Exception {
+		ProcessBuilder builder = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-DprimeOnInit=" + prime,
+				"-DjwtSigningKey=" + signingKey,
+				"-DsalesforceOauth2Url=" + salesforceUrl,
+				"-cp", System.getProperty("java.class.path"),
+				StartupBenchmark.class.getName(), PROBE);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		double[] result = null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.startsWith(RESULT_PREFIX)) {
+					String[] values = line.substring(RESULT_PREFIX.length()).split(" ");
+					result = new double[] {Double.parseDouble(values[0]), Double.parseDouble(values[1])};
+				}
+			}
+		}
+		if(process.waitFor() != 0 || result == null) {
+			throw new Exception("Cold start probe failed with exit code " + process.exitValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Runs in the new JVM: load and construct the handler, then handle one invocation.
+	 * The in-memory S3 is created first, so its classes are loaded in both modes. When the startup work was not primed,
+	 * the first invocation also builds the S3 client, as it does in Lambda, before the in-memory S3 is put in its place.
+	 */
+	private static void probe() throws Exception {
+		LoadTest.configure(System.getProperty("salesforceOauth2Url"));
+		InMemoryS3 s3 = new InMemoryS3(1024 * 1024, 0);
+
+		long start = System.nanoTime();
+		SFEventLogsHandler handler = new SFEventLogsHandler();
+		long initNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		if(LambdaStartup.getInitMillis() < 0) {
+			LambdaResources.getS3Client();
+		}
+		LambdaResources.setS3Client(s3);
+		String response = handler.handleRequest(new ScheduledEvent(), new LocalContext("startup", 60000, true));
+		long firstNanos = System.nanoTime() - start;
+		if(!"200 OK".equals(response)) {
+			throw new Exception("First invocation failed with response " + response);
+		}
+		System.out.println(RESULT_PREFIX + initNanos / 1e6 + " " + firstNanos / 1e6);
+	}
+
+	private static double median(List<Double> values) {
+		Collections.sort(values);
+		return values.get(values.size() / 2);
+	}
+}
@@ -0,0 +1,165 @@
+package gov.wisconsin.cares.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Synthetic Salesforce payloads of realistic shape and size, for benchmarks and load tests.
+ * @author andersx
+ *
+ */
+public class SyntheticData {
+
+	public static final String API_FIELD_NAMES = "EVENT_TYPE,TIMESTAMP,REQUEST_ID,ORGANIZATION_ID,USER_ID,RUN_TIME,CPU_TIME,URI,SESSION_KEY,"
+			+ "LOGIN_KEY,USER_TYPE,REQUEST_STATUS,DB_TOTAL_TIME,API_TYPE,API_VERSION,CLIENT_NAME,METHOD_NAME,ENTITY_NAME,"
+			+ "ROWS_PROCESSED,REQUEST_SIZE,RESPONSE_SIZE,TIMESTAMP_DERIVED,USER_ID_DERIVED,CLIENT_IP";
+	public static final String API_FIELD_TYPES = "String,String,String,Id,Id,Number,Number,String,String,"
+			+ "String,String,String,Number,String,String,String,String,String,"
+			+ "Number,Number,Number,DateTime,Id,String";
+
+	private SyntheticData() { /* Prevent class from being instantiated */ }
+
+	/**
+	 * @param records Number of records in the page.
+	 * @param nextRecordsUrl The url of the next page, or null if this is the last page.
+	 * @param totalSize
+	 * @return A page of an EventLogFile query result, as returned by the Salesforce query api.
+	 */
+	public static String queryResultJson(int records, String nextRecordsUrl, int totalSize) {
+		return queryResultJson(0, records, nextRecordsUrl, totalSize, 1024 * 1024);
+	}
+
+	/**
+	 * @param first Number of the first record in the page, used to make the Ids and dates unique.
+	 * @param records Number of records in the page.
+	 * @param nextRecordsUrl The url of the next page, or null if this is the last page.
+	 * @param totalSize
+	 * @param logFileLength LogFileLength of the files.
+	 * @return A page of an EventLogFile query result, as returned by the Salesforce query api.
+	 */
+	public static String queryResultJson(int first, int records, String nextRecordsUrl, int totalSize, long logFileLength) {
+		StringBuilder sb = new StringBuilder(records * 700);
+		sb.append("{\"totalSize\":").append(totalSize).append(",\"done\":").append(nextRecordsUrl == null);
+		if(nextRecordsUrl != null) {
+			sb.append(",\"nextRecordsUrl\":\"").append(nextRecordsUrl).append("\"");
+		}
+		sb.append(",\"records\":[");
+		for(int i = first; i < first + records; i++) {
+			if(i > first) sb.append(',');
+			String id = eventLogFileId(i);
+			String logDate = String.format("2020-%02d-%02dT00:00:00.000+0000", (i / 28) % 12 + 1, i % 28 + 1);
+			sb.append("{\"attributes\":{\"type\":\"EventLogFile\",\"url\":\"/services/data/v48.0/sobjects/EventLogFile/").append(id).append("\"}")
+				.append(",\"Id\":\"").append(id).append("\"")
+				.append(",\"EventType\":\"API").append(i % 40).append("\"")
+				.append(",\"LogDate\":\"").append(logDate).append("\"")
+				.append(",\"LogFileLength\":").append(logFileLength)
+				.append(",\"LastModifiedDate\":\"").append(logDate).append("\"")
+				.append(",\"LogFileFieldNames\":\"").append(API_FIELD_NAMES).append("\"")
+				.append(",\"LogFileFieldTypes\":\"").append(API_FIELD_TYPES).append("\"")
+				.append(",\"Interval\":\"Daily\",\"Sequence\":0")
+				.append(",\"CreatedDate\":\"").append(logDate).append("\"")
+				.append(",\"LogFile\":\"/services/data/v48.0/sobjects/EventLogFile/").append(id).append("/LogFile\"}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * @param i
+	 * @return An 18 character EventLogFile Id.
+	 */
+	public static String eventLogFileId(int i) {
+		return String.format("0AT3t0000%09d", i);
+	}
+
+	/**
+	 * @param size
+	 * @return An API event log .csv file of the size in bytes, generated while it is read so large files don't take up memory.
+	 */
+	public static InputStream csvFile(long size) {
+		return new CsvInputStream(size);
+	}
+
+	/**
+	 * Write the .csv file to the stream.
+	 * @param size
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeCsvFile(long size, OutputStream out) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = csvFile(size)) {
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Repeats a block of API event log rows up to the size of the file. The header line is written first, 
+	 * and the last row is cut at the size of the file, so the size is exact.
+	 */
+	private static class CsvInputStream extends InputStream {
+
+		private static final byte[] HEADER = ("\"" + API_FIELD_NAMES.replace(",", "\",\"") + "\"\n").getBytes(StandardCharsets.UTF_8);
+		private static final byte[] ROWS = buildRows(256);
+
+		private long remaining;
+		private long position = 0;
+
+		CsvInputStream(long size) {
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) return -1;
+			int b = byteAt(position++);
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining <= 0) return -1;
+			int n = (int) Math.min(len, remaining);
+			for(int i = 0; i < n; ) {
+				if(position < HEADER.length) {
+					b[off + i++] = HEADER[(int) position++];
+				}else {
+					int rowOffset = (int) ((position - HEADER.length) % ROWS.length);
+					int chunk = Math.min(n - i, ROWS.length - rowOffset);
+					System.arraycopy(ROWS, rowOffset, b, off + i, chunk);
+					i += chunk;
+					position += chunk;
+				}
+			}
+			remaining -= n;
+			return n;
+		}
+
+		private static int byteAt(long position) {
+			if(position < HEADER.length) return HEADER[(int) position] & 0xFF;
+			return ROWS[(int) ((position - HEADER.length) % ROWS.length)] & 0xFF;
+		}
+
+		private static byte[] buildRows(int count) {
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < count; i++) {
+				sb.append("\"API\",\"20200629000").append(String.format("%03d", i)).append(".").append(i % 1000).append("\",\"4Tsdf")
+					.append(i).append("kLmN\",\"00D3t000000").append(String.format("%04d", i % 7)).append("\",\"0053t000000")
+					.append(String.format("%04d", i % 97)).append("\",\"").append(i % 300).append("\",\"").append(i % 90)
+					.append("\",\"/services/data/v48.0/query\",\"sk").append(i).append("\",\"lk").append(i % 13)
+					.append("\",\"Standard\",\"S\",\"").append(i * 1000).append("\",\"R\",\"48.0\",\"")
+					.append(i % 5 == 0 ? "Client, \"\"quoted\"\"" : "DataLoader").append("\",\"query\",\"Account\",\"")
+					.append(i % 200).append("\",\"").append(i % 4000).append("\",\"").append(i % 90000)
+					.append("\",\"2020-06-29T00:").append(String.format("%02d", i % 60)).append(":00.000Z\",\"0053t000000")
+					.append(String.format("%04d", i % 97)).append("\",\"10.0.").append(i % 256).append(".").append(i % 7).append("\"\n");
+			}
+			return sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.benchmark.SyntheticData;
+import gov.wisconsin.cares.pojo.SFQueryResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of an EventLogFile query result page. Salesforce returns up to 2000 records per page,
+ * 10000 records shows how the parser scales with a page size that would not fit the old string based parser.
+ * QueryParseBaselineBenchmark runs the same pages through the old org.json based parser.
+ * @author andersx
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryParseBenchmark {
+
+	@Param({"100", "2000", "10000"})
+	public int records;
+
+	private byte[] json;
+
+	@Setup
+	public void setup() {
+		json = SyntheticData.queryResultJson(records, null, records).getBytes(StandardCharsets.UTF_8);
+	}
+
+	protected byte[] getJson() {
+		return json;
+	}
+
+	@Benchmark
+	public SFQueryResult parseEventLogFilesJson() throws Exception {
+		return SalesforceBO.parseEventLogFilesJson(new ByteArrayInputStream(json));
+	}
+}
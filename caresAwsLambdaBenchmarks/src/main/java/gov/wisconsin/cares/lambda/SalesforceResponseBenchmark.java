@@ -0,0 +1,91 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.benchmark.LocalContext;
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.util.EnvUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Reading of the small Salesforce and S3 responses: the token response body, the water-mark file and the file size.
+ * @author andersx
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SalesforceResponseBenchmark {
+
+	/*** Size of the response body, a token response is about 1 KB ***/
+	@Param({"1024", "65536", "1048576"})
+	public int responseSize;
+
+	private SalesforceBO sfBO;
+	private byte[] responseBody;
+	private byte[] watermark = "2020-06-29T00:00:00Z".getBytes(StandardCharsets.UTF_8);
+	private SFEventLogFile eventLog;
+
+	@Setup
+	public void setup() throws Exception {
+		Properties settings = new Properties();
+		settings.setProperty("salesforceAPIversion", "48.0");
+		EnvUtils.setFallback(settings);
+		sfBO = new SalesforceBO(new LocalContext("benchmark", Long.MAX_VALUE / 2, true));
+
+		// A JSON body with a line break every 100 bytes, like a pretty printed response
+		responseBody = new byte[responseSize];
+		Arrays.fill(responseBody, (byte) 'a');
+		for(int i = 99; i < responseSize; i += 100) {
+			responseBody[i] = '\n';
+		}
+		eventLog = new SFEventLogFile();
+		eventLog.setLogFileLength(1048576);
+	}
+
+	@Benchmark
+	public String getResponseStr() throws Exception {
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.setEntity(new ByteArrayEntity(responseBody));
+		return sfBO.getResponseStr(response);
+	}
+
+	@Benchmark
+	public String readWtrMrkTS() throws Exception {
+		S3Object s3Object = new S3Object();
+		s3Object.setObjectContent(new ByteArrayInputStream(watermark));
+		return SalesforceBO.readWtrMrkTS(s3Object);
+	}
+
+	@Benchmark
+	public long getFileSize() {
+		// Chunked response without a Content-Length, the LogFileLength is used
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContentLength(-1);
+		return SFEventLogsHandler.getFileSize(eventLog, entity);
+	}
+}
@@ -0,0 +1,109 @@
+package gov.wisconsin.cares.util;
+
+import gov.wisconsin.cares.benchmark.SyntheticData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of processing the records of an event log file while it is streamed: the byte-level CsvTokenizer alone,
+ * a pass-through stage, the column projection, and decoding every field to a String like the Parquet conversion does.
+ * The file is generated in memory before the measurement, so only the CSV work is measured. Each benchmark runs
+ * on one thread, so the megabytes counter is the MB/s of a single core.
+ * @author andersx
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CsvTokenizerBenchmark {
+
+	@Param({"1048576", "67108864"})
+	public int fileSize;
+
+	private byte[] file;
+	private byte[] sink = new byte[64 * 1024];
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			megabytes = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(fileSize);
+		SyntheticData.writeCsvFile(fileSize, out);
+		file = out.toByteArray();
+	}
+
+	@Benchmark
+	public long tokenize(Throughput throughput) throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(file));
+		long fields = 0;
+		while(tokenizer.nextRecord()) {
+			fields += tokenizer.getFieldCount();
+		}
+		throughput.megabytes += file.length / 1048576.0;
+		return fields;
+	}
+
+	@Benchmark
+	public long passThroughStage(Throughput throughput) throws Exception {
+		return this.drain(new CsvStageInputStream(new ByteArrayInputStream(file), (record, recordNumber, out) -> out.writeRecord(record)), throughput);
+	}
+
+	@Benchmark
+	public long projectionStage(Throughput throughput) throws Exception {
+		return this.drain(new CsvProjectionInputStream(new ByteArrayInputStream(file), 
+				new HashSet<>(Arrays.asList("TIMESTAMP", "USER_ID", "URI", "CLIENT_IP"))), throughput);
+	}
+
+	@Benchmark
+	public long decodeValues(Throughput throughput) throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(file));
+		long chars = 0;
+		while(tokenizer.nextRecord()) {
+			for(int i = 0; i < tokenizer.getFieldCount(); i++) {
+				chars += tokenizer.getValue(i).length();
+			}
+		}
+		throughput.megabytes += file.length / 1048576.0;
+		return chars;
+	}
+
+	private long drain(CsvStageInputStream in, Throughput throughput) throws Exception {
+		long bytes = 0;
+		int n;
+		while((n = in.read(sink, 0, sink.length)) != -1) {
+			bytes += n;
+		}
+		throughput.megabytes += file.length / 1048576.0;
+		return bytes;
+	}
+}
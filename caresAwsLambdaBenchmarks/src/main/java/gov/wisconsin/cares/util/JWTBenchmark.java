@@ -0,0 +1,49 @@
+package gov.wisconsin.cares.util;
+
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing of the JWT used to request a Salesforce access token, with a generated 2048 bit RSA key.
+ * @author andersx
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JWTBenchmark {
+
+	@Setup
+	public void setup() throws Exception {
+		// JWTUtils parses the signing key the first time a token is signed, so it must be set before the first benchmark call
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		Properties settings = new Properties();
+		settings.setProperty("jwtSigningKey", Base64.getEncoder().encodeToString(generator.generateKeyPair().getPrivate().getEncoded()));
+		settings.setProperty("salesforceJWTIssuer", "benchmark-connected-app");
+		settings.setProperty("salesforceOauth2Url", "https://test.salesforce.com");
+		settings.setProperty("salesforceServiceAccountUser", "benchmark@example.com");
+		EnvUtils.setFallback(settings);
+	}
+
+	@Benchmark
+	public String generateSalesforceJWT() throws Exception {
+		return JWTUtils.generateSalesforceJWT(JWTUtils.getServiceAccountUser());
+	}
+}
@@ -0,0 +1,84 @@
+package gov.wisconsin.cares.util;
+
+import gov.wisconsin.cares.benchmark.SyntheticData;
+
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end stream of an event log file to a sink, the same way SFEventLogsHandler.storeLogFileInS3 streams it 
+ * to S3: counted, check-summed and optionally compressed. The sink discards the bytes, so this measures the CPU cost 
+ * of the transfer without the network. The megabytes counter is reported as MB/s.
+ * @author andersx
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx512m"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StreamTransferBenchmark {
+
+	@Param({"1024", "1048576", "67108864", "1073741824"})
+	public long fileSize;
+
+	@Param({"none", "gzip"})
+	public String compression;
+
+	private CompressionCodec codec;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			megabytes = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		codec = CompressionCodec.forName(compression);
+	}
+
+	@Benchmark
+	public long streamToSink(Throughput throughput) throws Exception {
+		CountingInputStream download = new CountingInputStream(SyntheticData.csvFile(fileSize));
+		DigestInputStream in = new DigestInputStream(download, MessageDigest.getInstance("SHA-256"));
+		OutputStream sink = new DiscardingOutputStream();
+		OutputStream out = codec != null ? codec.compress(sink) : sink;
+		long bytes = StreamUtils.copy(in, out);
+		out.close();
+		throughput.megabytes += bytes / 1048576.0;
+		return bytes;
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
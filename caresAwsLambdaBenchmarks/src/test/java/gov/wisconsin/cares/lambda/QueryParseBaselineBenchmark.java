@@ -0,0 +1,52 @@
+package gov.wisconsin.cares.lambda;
+
+import gov.wisconsin.cares.pojo.SFEventLogFile;
+import gov.wisconsin.cares.pojo.SFQueryResult;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The query result parsing of QueryParseBenchmark, next to the org.json based parser it replaced, so both are measured
+ * on the same pages. The old parser read the body into a String line by line, parsed it with org.json, wrote the records
+ * back to a String and parsed them again with a new ObjectMapper. org.json is only a test dependency of this module,
+ * so the baseline is built with the test classes and run from them, E.G.
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/test.classpath
+ * java -cp target/test-classes:target/classes:$(cat target/test.classpath) org.openjdk.jmh.Main QueryParseBaseline -prof gc
+ * </pre>
+ * @author andersx
+ *
+ */
+public class QueryParseBaselineBenchmark extends QueryParseBenchmark {
+
+	@Benchmark
+	public SFQueryResult parseWithOrgJson() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		try (BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(this.getJson())))) {
+			String line;
+			while((line = rd.readLine()) != null) {
+				sb.append(line);
+			}
+		}
+		SFQueryResult page = new SFQueryResult();
+		JSONObject jsonObj = new JSONObject(sb.toString());
+		page.setTotalSize(jsonObj.getInt("totalSize"));
+		page.setDone(jsonObj.optBoolean("done", true));
+		page.setNextRecordsUrl(jsonObj.optString("nextRecordsUrl", null));
+		JSONArray records = jsonObj.optJSONArray("records");
+		if(records != null && records.length() > 0) {
+			ObjectMapper mapper = new ObjectMapper();
+			page.setRecords(Arrays.asList(mapper.readValue(records.toString(), SFEventLogFile[].class)));
+		}
+		return page;
+	}
+}